@@ -6,8 +6,12 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.beans.factory.annotation.Autowired;
+import com.gauss.trading.controller.TwsWebSocketController;
+import com.gauss.trading.service.MarketEventBus;
 import com.gauss.trading.service.TwsConnectionService;
 import com.gauss.trading.service.TwsMarketDataService;
+import com.gauss.trading.service.TwsMarketDepthService;
+import com.gauss.trading.service.TwsTickByTickService;
 import org.springframework.context.event.EventListener;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.slf4j.Logger;
@@ -30,6 +34,18 @@ public class TwsApiApplication {
     @Autowired
     private TwsMarketDataService marketDataService;
 
+    @Autowired
+    private TwsTickByTickService tickByTickService;
+
+    @Autowired
+    private TwsMarketDepthService marketDepthService;
+
+    @Autowired
+    private TwsWebSocketController webSocketController;
+
+    @Autowired
+    private MarketEventBus eventBus;
+
     public static void main(String[] args) {
         System.out.println("🚀 启动TWS API Spring Boot应用程序...");
         SpringApplication.run(TwsApiApplication.class, args);
@@ -44,6 +60,10 @@ public class TwsApiApplication {
         
         // 设置市场数据服务
         connectionService.setMarketDataService(marketDataService);
+        connectionService.setTickByTickService(tickByTickService);
+        connectionService.setMarketDepthService(marketDepthService);
+        connectionService.setEventBus(eventBus);
+        webSocketController.setMarketDataService(marketDataService);
         
         logger.info("✅ TWS API应用程序启动成功!");
         logger.info("📡 API地址: http://localhost:8080");
@@ -0,0 +1,47 @@
+package com.gauss.trading.config;
+
+import com.gauss.trading.controller.TwsWebSocketController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.Map;
+
+/**
+ * WebSocket准入控制
+ *
+ * 握手前检查全局和单IP会话数上限，超限时直接返回503，不再升级连接；
+ * 最终名额在TwsWebSocketController.afterConnectionEstablished中占用
+ */
+public class AdmissionControlInterceptor implements HandshakeInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionControlInterceptor.class);
+
+    private final TwsWebSocketController webSocketController;
+
+    public AdmissionControlInterceptor(TwsWebSocketController webSocketController) {
+        this.webSocketController = webSocketController;
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        String ip = TwsWebSocketController.remoteIp(request.getRemoteAddress());
+        String rejection = webSocketController.checkAdmission(ip);
+        if (rejection != null) {
+            logger.warn("拒绝WebSocket握手: {} - {}", ip, rejection);
+            response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+}
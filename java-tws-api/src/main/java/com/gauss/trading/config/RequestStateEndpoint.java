@@ -0,0 +1,76 @@
+package com.gauss.trading.config;
+
+import com.gauss.trading.service.RequestStateMap;
+import com.gauss.trading.service.TwsConnectionService;
+import com.gauss.trading.service.TwsMarketDataService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 请求状态泄漏检查（/actuator/twsrequests）
+ *
+ * 按类型列出进行中的请求状态及其存活时长分布。请求类条目应在结束、取消或超时后很快移除，
+ * stale不为0即疑似泄漏；orderSymbols对应未进入终态的订单，长期挂单存活久属于正常
+ */
+@Component
+@Endpoint(id = "twsrequests")
+public class RequestStateEndpoint {
+
+    @Autowired
+    private TwsConnectionService connectionService;
+
+    @Autowired
+    private TwsMarketDataService marketDataService;
+
+    // 存活超过该时长的条目计为stale，默认为消息超时的两倍
+    @Value("${tws.request-state.stale-millis:60000}")
+    private long staleMillis;
+
+    @ReadOperation
+    public Map<String, Object> report() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> types = new ArrayList<>();
+        int live = 0;
+        int stale = 0;
+        for (RequestStateMap<?, ?> state : requestStates()) {
+            Map<String, Object> report = state.report(now, staleMillis);
+            live += (Integer) report.get("live");
+            stale += (Integer) report.get("stale");
+            types.add(report);
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("timestamp", Instant.ofEpochMilli(now).toString());
+        result.put("staleMillis", staleMillis);
+        result.put("live", live);
+        result.put("stale", stale);
+        result.put("types", types);
+        result.put("marketData", marketDataService.getRequestState());
+        return result;
+    }
+
+    @ReadOperation
+    public Map<String, Object> type(@Selector String type) {
+        for (RequestStateMap<?, ?> state : requestStates()) {
+            if (state.type().equals(type)) {
+                return state.report(System.currentTimeMillis(), staleMillis);
+            }
+        }
+        return null;
+    }
+
+    private List<RequestStateMap<?, ?>> requestStates() {
+        List<RequestStateMap<?, ?>> states = new ArrayList<>(connectionService.getRequestStates());
+        states.add(marketDataService.getFirstTickRequests());
+        return states;
+    }
+}
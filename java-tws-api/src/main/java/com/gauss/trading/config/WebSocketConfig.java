@@ -19,8 +19,16 @@ public class WebSocketConfig implements WebSocketConfigurer {
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        AdmissionControlInterceptor admissionControl = new AdmissionControlInterceptor(webSocketController);
+
         registry.addHandler(webSocketController, "/ws/market-data")
                 .setAllowedOrigins("*") // 允许所有来源，生产环境应该限制
+                .addInterceptors(admissionControl)
                 .withSockJS(); // 启用SockJS支持，提供降级方案
+
+        // 原生WebSocket端点，支持二进制行情协议
+        registry.addHandler(webSocketController, "/ws/native/market-data")
+                .setAllowedOrigins("*")
+                .addInterceptors(admissionControl, new NativeTransportInterceptor());
     }
 } 
\ No newline at end of file
@@ -0,0 +1,69 @@
+package com.gauss.trading.controller;
+
+import com.gauss.trading.service.TwsMarketDataService;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 二进制行情帧编码
+ *
+ * 固定64字节、小端序的报价帧，价格按 PRICE_SCALE 放大为long：
+ * <pre>
+ * offset size 字段
+ *   0     1   msgType（1 = 报价）
+ *   1     1   version（协议版本）
+ *   2     2   changedMask（本次变化的字段，见 MarketDataInfo.FIELD_*）
+ *   4     4   instrumentId（即订阅的tickerId）
+ *   8     8   seq（合约的数据版本号）
+ *  16     8   timestamp（毫秒）
+ *  24     8   lastPrice * PRICE_SCALE
+ *  32     8   bid * PRICE_SCALE
+ *  40     8   ask * PRICE_SCALE
+ *  48     4   bidSize
+ *  52     4   askSize
+ *  56     8   volume
+ * </pre>
+ */
+public final class MarketDataBinaryCodec {
+
+    public static final byte MSG_TYPE_QUOTE = 1;
+    public static final byte PROTOCOL_VERSION = 1;
+    public static final int QUOTE_FRAME_SIZE = 64;
+    public static final long PRICE_SCALE = 1_000_000L;
+
+    private MarketDataBinaryCodec() {
+    }
+
+    /**
+     * 编码报价帧，返回可读的只读缓冲区，可在多个会话之间通过duplicate()共享
+     */
+    public static ByteBuffer encodeQuote(TwsMarketDataService.MarketDataInfo info, int changedMask) {
+        ByteBuffer buffer = ByteBuffer.allocate(QUOTE_FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        writeQuote(buffer, info, changedMask);
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * 在缓冲区当前位置写入一帧报价
+     */
+    public static void writeQuote(ByteBuffer buffer, TwsMarketDataService.MarketDataInfo info, int changedMask) {
+        buffer.put(MSG_TYPE_QUOTE);
+        buffer.put(PROTOCOL_VERSION);
+        buffer.putShort((short) changedMask);
+        buffer.putInt(info.tickerId);
+        buffer.putLong(info.version);
+        buffer.putLong(info.timestamp);
+        buffer.putLong(scale(info.lastPrice));
+        buffer.putLong(scale(info.bid));
+        buffer.putLong(scale(info.ask));
+        buffer.putInt(info.bidSize);
+        buffer.putInt(info.askSize);
+        buffer.putLong(info.volume);
+    }
+
+    private static long scale(double price) {
+        return Math.round(price * PRICE_SCALE);
+    }
+}
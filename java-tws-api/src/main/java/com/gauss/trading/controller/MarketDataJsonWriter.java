@@ -0,0 +1,174 @@
+package com.gauss.trading.controller;
+
+import com.gauss.trading.service.TwsMarketDataService;
+import org.springframework.web.socket.TextMessage;
+
+/**
+ * 行情消息JSON写出器
+ *
+ * 直接把marketData/delta消息写入线程本地复用的StringBuilder，不再经过toMap()、Map.of和ObjectMapper，
+ * 每条消息只分配最终的String。字段名、数值和字符串转义与Jackson默认输出一致（字段顺序固定）
+ */
+public final class MarketDataJsonWriter {
+
+    // 超过该容量的缓冲区用完后丢弃，避免个别超大消息长期占用内存
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private MarketDataJsonWriter() {
+    }
+
+    /**
+     * 完整行情消息：{"type":"marketData","symbol":..,"seq":..,"data":{..},"timestamp":..}
+     */
+    public static TextMessage marketDataMessage(TwsMarketDataService.MarketDataInfo info, long seq, long timestamp) {
+        StringBuilder out = acquire();
+        writeHeader(out, "marketData", info.symbol, seq);
+        writeData(out, info);
+        out.append(",\"timestamp\":").append(timestamp).append('}');
+        return release(out);
+    }
+
+    /**
+     * 增量行情消息，data只包含changedMask中标记的字段
+     */
+    public static TextMessage deltaMessage(TwsMarketDataService.MarketDataInfo info, long seq, int changedMask,
+                                           long timestamp) {
+        StringBuilder out = acquire();
+        writeHeader(out, "delta", info.symbol, seq);
+        out.append('{');
+        out.append("\"seq\":").append(seq);
+        out.append(",\"timestamp\":").append(info.timestamp);
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_LAST) != 0) {
+            writeNumberField(out, "lastPrice", info.lastPrice);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_BID) != 0) {
+            writeNumberField(out, "bid", info.bid);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_ASK) != 0) {
+            writeNumberField(out, "ask", info.ask);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_BID_SIZE) != 0) {
+            out.append(",\"bidSize\":").append(info.bidSize);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_ASK_SIZE) != 0) {
+            out.append(",\"askSize\":").append(info.askSize);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_VOLUME) != 0) {
+            out.append(",\"volume\":").append(info.volume);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_SYMBOL) != 0) {
+            out.append(",\"symbol\":");
+            writeString(out, info.symbol);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_PAUSED) != 0) {
+            out.append(",\"paused\":").append(info.paused);
+        }
+        out.append('}');
+        out.append(",\"timestamp\":").append(timestamp).append('}');
+        return release(out);
+    }
+
+    private static void writeHeader(StringBuilder out, String type, String symbol, long seq) {
+        out.append("{\"type\":\"").append(type).append("\",\"symbol\":");
+        writeString(out, symbol);
+        out.append(",\"seq\":").append(seq);
+        out.append(",\"data\":");
+    }
+
+    /**
+     * 与MarketDataInfo.toMap()相同的字段
+     */
+    private static void writeData(StringBuilder out, TwsMarketDataService.MarketDataInfo info) {
+        out.append("{\"tickerId\":").append(info.tickerId);
+        out.append(",\"symbol\":");
+        writeString(out, info.symbol);
+        // conId以字符串输出，与toMap()一致
+        out.append(",\"conId\":\"").append(info.conId).append('"');
+        writeNumberField(out, "lastPrice", info.lastPrice);
+        writeNumberField(out, "bid", info.bid);
+        writeNumberField(out, "ask", info.ask);
+        out.append(",\"bidSize\":").append(info.bidSize);
+        out.append(",\"askSize\":").append(info.askSize);
+        out.append(",\"volume\":").append(info.volume);
+        out.append(",\"timestamp\":").append(info.timestamp);
+        out.append(",\"exchange\":");
+        writeString(out, info.exchange != null ? info.exchange : "");
+        out.append(",\"contractMonth\":");
+        writeString(out, info.contractMonth != null ? info.contractMonth : "");
+        out.append(",\"expiration\":");
+        writeString(out, info.expiration != null ? info.expiration : "");
+        out.append(",\"paused\":").append(info.paused);
+        out.append('}');
+    }
+
+    private static void writeNumberField(StringBuilder out, String name, double value) {
+        out.append(",\"").append(name).append("\":");
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Jackson默认把非有限数写成字符串
+            out.append('"').append(value).append('"');
+        } else {
+            out.append(value);
+        }
+    }
+
+    private static void writeString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private static StringBuilder acquire() {
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        return out;
+    }
+
+    private static TextMessage release(StringBuilder out) {
+        TextMessage message = new TextMessage(out);
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            BUFFER.remove();
+        } else {
+            out.setLength(0);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,483 @@
+package com.gauss.trading.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WebSocket会话发送队列
+ *
+ * 每个会话一个有界队列，由共享线程池串行发送，调用方（TWS消息线程）只负责入队，不做任何网络IO。
+ * 队列满时按配置的策略处理慢客户端。
+ *
+ * 开启批量模式后，消息在刷新窗口内累积，按条数和字节数上限打包：连续的文本消息合并为一个JSON数组帧，
+ * 连续的二进制帧直接拼接，队首消息等待时间不超过刷新窗口。
+ *
+ * 降级模式用于过载保护：可合并的消息强制合并，队列按降级间隔定时发送，从而降低该会话的更新频率
+ */
+public class SessionOutboundQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionOutboundQueue.class);
+
+    // 每次调度最多发送的消息数，避免单个会话长期占用发送线程
+    private static final int MAX_MESSAGES_PER_RUN = 64;
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        // 丢弃最早的消息
+        DROP_OLDEST,
+        // 同一合约的可合并消息只保留最新一条，否则丢弃最早的消息
+        CONFLATE,
+        // 断开慢客户端
+        DISCONNECT;
+
+        public static OverflowPolicy fromName(String name) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().replace("_", "-").equalsIgnoreCase(name) || policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("不支持的慢客户端策略: " + name);
+        }
+    }
+
+    /**
+     * 队列中的消息
+     */
+    private static class Outbound {
+        WebSocketMessage<?> message;
+        // 合并键，为null时不可合并
+        final String conflationKey;
+        long enqueuedNanos;
+
+        Outbound(WebSocketMessage<?> message, String conflationKey, long enqueuedNanos) {
+            this.message = message;
+            this.conflationKey = conflationKey;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private final WebSocketSession session;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ScheduledExecutorService executor;
+
+    // 以下两个结构由this加锁保护
+    private final ArrayDeque<Outbound> queue;
+    private final Map<String, Outbound> pendingByKey = new HashMap<>();
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicBoolean flushTimerPending = new AtomicBoolean(false);
+    private volatile boolean closed;
+
+    // 批量模式参数，batchMaxMessages为0表示未开启
+    private volatile long flushIntervalNanos;
+    private volatile int batchMaxMessages;
+    private volatile int batchMaxBytes;
+
+    // 降级模式下的发送间隔，0表示未降级
+    private volatile long degradedIntervalNanos;
+
+    // 队列中消息的估算字节数，由this加锁更新
+    private volatile long queuedBytes;
+
+    // 统计
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private volatile int maxDepth;
+    private final AtomicLong totalSendNanos = new AtomicLong();
+    private volatile long maxSendNanos;
+    private volatile long lastQueueWaitNanos;
+
+    public SessionOutboundQueue(WebSocketSession session, int capacity, OverflowPolicy policy,
+                                ScheduledExecutorService executor) {
+        this.session = session;
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.executor = executor;
+        this.queue = new ArrayDeque<>(Math.min(this.capacity, 1024));
+    }
+
+    /**
+     * 开启批量模式
+     */
+    public void enableBatching(long flushIntervalMillis, int maxMessages, int maxBytes) {
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        this.batchMaxBytes = Math.max(1, maxBytes);
+        this.batchMaxMessages = Math.max(1, maxMessages);
+    }
+
+    public boolean isBatching() {
+        return batchMaxMessages > 0;
+    }
+
+    /**
+     * 进入降级模式，按指定间隔发送并强制合并行情
+     */
+    public void degrade(long intervalMillis) {
+        if (!isDegraded()) {
+            logger.warn("WebSocket会话降级推送: {} interval={}ms", session.getId(), intervalMillis);
+        }
+        this.degradedIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, intervalMillis));
+    }
+
+    /**
+     * 恢复正常推送
+     */
+    public void restore() {
+        if (isDegraded()) {
+            logger.info("WebSocket会话恢复正常推送: {}", session.getId());
+            degradedIntervalNanos = 0;
+        }
+    }
+
+    public boolean isDegraded() {
+        return degradedIntervalNanos > 0;
+    }
+
+    /**
+     * 当前的定时发送间隔，未批量且未降级时为0（立即发送）
+     */
+    private long delayNanos() {
+        return Math.max(isBatching() ? flushIntervalNanos : 0, degradedIntervalNanos);
+    }
+
+    private boolean conflates(String conflationKey) {
+        return conflationKey != null && (policy == OverflowPolicy.CONFLATE || isDegraded());
+    }
+
+    /**
+     * 估算消息字节数；文本消息按字符数估算，避免为统计额外编码一次
+     */
+    private static int estimateBytes(WebSocketMessage<?> message) {
+        if (message instanceof TextMessage) {
+            return ((TextMessage) message).getPayload().length();
+        }
+        return message.getPayloadLength();
+    }
+
+    /**
+     * 入队一条消息，不会阻塞调用线程
+     *
+     * @param conflationKey 合并键（如 "marketData:MES"），为null表示该消息不能被合并
+     */
+    public void offer(WebSocketMessage<?> message, String conflationKey) {
+        if (closed) {
+            return;
+        }
+
+        boolean disconnect = false;
+        int depth = 0;
+        long now = System.nanoTime();
+        synchronized (this) {
+            enqueued.incrementAndGet();
+
+            if (conflates(conflationKey)) {
+                Outbound pending = pendingByKey.get(conflationKey);
+                if (pending != null) {
+                    // 尚未发送的旧消息直接替换为最新内容，保留原来的排队位置
+                    queuedBytes += estimateBytes(message) - estimateBytes(pending.message);
+                    pending.message = message;
+                    conflated.incrementAndGet();
+                    return;
+                }
+            }
+
+            if (queue.size() >= capacity) {
+                if (policy == OverflowPolicy.DISCONNECT) {
+                    disconnect = true;
+                } else {
+                    poll();
+                    dropped.incrementAndGet();
+                }
+            }
+
+            if (!disconnect) {
+                Outbound outbound = new Outbound(message, conflationKey, now);
+                queue.addLast(outbound);
+                queuedBytes += estimateBytes(message);
+                if (conflates(conflationKey)) {
+                    pendingByKey.put(conflationKey, outbound);
+                }
+                depth = queue.size();
+                if (depth > maxDepth) {
+                    maxDepth = depth;
+                }
+            }
+        }
+
+        if (disconnect) {
+            logger.warn("WebSocket会话发送队列已满，断开慢客户端: {}", session.getId());
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+            return;
+        }
+        long delay = delayNanos();
+        if (delay > 0 && (!isBatching() || depth < batchMaxMessages)) {
+            // 批量或降级模式下等待发送间隔，攒满一批时立即发送
+            scheduleFlush(delay);
+        } else {
+            schedule();
+        }
+    }
+
+    private void scheduleFlush(long delayNanos) {
+        if (flushTimerPending.compareAndSet(false, true)) {
+            try {
+                executor.schedule(() -> {
+                    flushTimerPending.set(false);
+                    schedule();
+                }, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (Exception e) {
+                // 线程池已关闭
+                flushTimerPending.set(false);
+            }
+        }
+    }
+
+    private void schedule() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (Exception e) {
+                // 线程池已关闭
+                draining.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            if (isBatching()) {
+                drainBatch();
+            } else {
+                for (int i = 0; i < MAX_MESSAGES_PER_RUN && !closed; i++) {
+                    Outbound outbound;
+                    synchronized (this) {
+                        outbound = poll();
+                        if (outbound == null) {
+                            break;
+                        }
+                    }
+                    send(outbound.message, outbound.enqueuedNanos, 1);
+                }
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        // 释放标记后再检查一次，避免与入队线程竞争时遗漏消息
+        long headWaitNanos;
+        int depth;
+        synchronized (this) {
+            Outbound head = queue.peekFirst();
+            headWaitNanos = head != null ? System.nanoTime() - head.enqueuedNanos : -1;
+            depth = queue.size();
+        }
+        if (headWaitNanos < 0 || closed) {
+            return;
+        }
+        long delay = delayNanos();
+        if (delay > 0 && (!isBatching() || depth < batchMaxMessages) && headWaitNanos < delay) {
+            // 剩余消息还没到刷新时间，按队首消息的剩余等待时间定时
+            scheduleFlush(delay - headWaitNanos);
+        } else {
+            schedule();
+        }
+    }
+
+    private Outbound poll() {
+        Outbound outbound = queue.pollFirst();
+        if (outbound != null) {
+            queuedBytes -= estimateBytes(outbound.message);
+            if (outbound.conflationKey != null) {
+                pendingByKey.remove(outbound.conflationKey, outbound);
+            }
+        }
+        return outbound;
+    }
+
+    /**
+     * 取出一批消息，按类型连续分段后合并发送
+     */
+    private void drainBatch() {
+        List<Outbound> batch = new ArrayList<>();
+        synchronized (this) {
+            int bytes = 0;
+            while (batch.size() < batchMaxMessages) {
+                Outbound head = queue.peekFirst();
+                if (head == null) {
+                    break;
+                }
+                int length = estimateBytes(head.message);
+                if (!batch.isEmpty() && bytes + length > batchMaxBytes) {
+                    break;
+                }
+                batch.add(poll());
+                bytes += length;
+            }
+        }
+
+        int start = 0;
+        while (start < batch.size() && !closed) {
+            boolean binary = batch.get(start).message instanceof BinaryMessage;
+            int end = start + 1;
+            while (end < batch.size() && (batch.get(end).message instanceof BinaryMessage) == binary) {
+                end++;
+            }
+            List<Outbound> run = batch.subList(start, end);
+            WebSocketMessage<?> frame = run.size() == 1 ? run.get(0).message
+                : binary ? joinBinary(run) : joinText(run);
+            send(frame, run.get(0).enqueuedNanos, run.size());
+            start = end;
+        }
+    }
+
+    private static TextMessage joinText(List<Outbound> run) {
+        int length = 2;
+        for (Outbound outbound : run) {
+            length += outbound.message.getPayloadLength() + 1;
+        }
+        StringBuilder builder = new StringBuilder(length);
+        builder.append('[');
+        for (int i = 0; i < run.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(((TextMessage) run.get(i).message).getPayload());
+        }
+        builder.append(']');
+        return new TextMessage(builder);
+    }
+
+    private static BinaryMessage joinBinary(List<Outbound> run) {
+        int length = 0;
+        for (Outbound outbound : run) {
+            length += outbound.message.getPayloadLength();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (Outbound outbound : run) {
+            buffer.put(((BinaryMessage) outbound.message).getPayload().duplicate());
+        }
+        buffer.flip();
+        return new BinaryMessage(buffer);
+    }
+
+    private void send(WebSocketMessage<?> message, long enqueuedNanos, int messageCount) {
+        if (!session.isOpen()) {
+            closed = true;
+            return;
+        }
+        long start = System.nanoTime();
+        lastQueueWaitNanos = start - enqueuedNanos;
+        try {
+            session.sendMessage(message);
+            sent.addAndGet(messageCount);
+            frames.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.error("发送WebSocket消息失败: {} - {}", session.getId(), e.getMessage());
+        }
+        long elapsed = System.nanoTime() - start;
+        totalSendNanos.addAndGet(elapsed);
+        if (elapsed > maxSendNanos) {
+            maxSendNanos = elapsed;
+        }
+    }
+
+    /**
+     * 关闭队列并断开会话
+     */
+    public void close(CloseStatus status) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (this) {
+            queue.clear();
+            pendingByKey.clear();
+            queuedBytes = 0;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    session.close(status);
+                } catch (Exception e) {
+                    logger.warn("关闭WebSocket会话失败: {} - {}", session.getId(), e.getMessage());
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("关闭WebSocket会话失败: {} - {}", session.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 会话已断开，丢弃未发送的消息
+     */
+    public void discard() {
+        closed = true;
+        synchronized (this) {
+            queue.clear();
+            pendingByKey.clear();
+            queuedBytes = 0;
+        }
+    }
+
+    public synchronized int depth() {
+        return queue.size();
+    }
+
+    public long queuedBytes() {
+        return queuedBytes;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * 获取队列统计
+     */
+    public Map<String, Object> getStats() {
+        long sentCount = sent.get();
+        long frameCount = frames.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("policy", policy.name());
+        stats.put("capacity", capacity);
+        stats.put("depth", depth());
+        stats.put("maxDepth", maxDepth);
+        stats.put("enqueued", enqueued.get());
+        stats.put("sent", sentCount);
+        stats.put("dropped", dropped.get());
+        stats.put("conflated", conflated.get());
+        stats.put("failed", failed.get());
+        stats.put("queuedBytes", queuedBytes);
+        stats.put("batching", isBatching());
+        stats.put("degraded", isDegraded());
+        stats.put("frames", frameCount);
+        stats.put("avgSendMicros", frameCount > 0 ? totalSendNanos.get() / frameCount / 1000 : 0);
+        stats.put("maxSendMicros", maxSendNanos / 1000);
+        stats.put("lastQueueWaitMicros", lastQueueWaitNanos / 1000);
+        return stats;
+    }
+}
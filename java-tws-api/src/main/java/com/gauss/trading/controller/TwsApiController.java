@@ -1,13 +1,42 @@
 package com.gauss.trading.controller;
 
+import com.gauss.trading.service.ContractDetailsCache;
+import com.gauss.trading.service.ContractRegistry;
+import com.gauss.trading.service.FuturesChain;
+import com.gauss.trading.service.FuturesChainIndex;
+import com.gauss.trading.service.MarketDataSnapshotCache;
+import com.gauss.trading.service.MarketEventBus;
+import com.gauss.trading.service.MarketRuleCache;
+import com.gauss.trading.service.OptionChainService;
+import com.gauss.trading.service.SharedMemoryQuotePublisher;
+import com.gauss.trading.service.SymbolSearchIndex;
+import com.gauss.trading.service.TradingHoursIndex;
+import com.gauss.trading.service.TradingSessionScheduler;
+import com.gauss.trading.service.TwsBarAggregationService;
 import com.gauss.trading.service.TwsConnectionService;
+import com.gauss.trading.service.TwsContinuousFuturesService;
 import com.gauss.trading.service.TwsContractService;
 import com.gauss.trading.service.TwsMarketDataService;
+import com.gauss.trading.service.TwsMarketDepthService;
+import com.gauss.trading.service.TwsReplayService;
+import com.gauss.trading.service.TwsRequestPacer;
+import com.gauss.trading.service.TwsTickByTickService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -17,7 +46,7 @@ import java.util.concurrent.CompletableFuture;
  */
 @RestController
 @RequestMapping("/api/tws")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = "ETag")
 public class TwsApiController {
 
     @Autowired
@@ -26,9 +55,60 @@ public class TwsApiController {
     @Autowired
     private TwsContractService contractService;
 
+    @Autowired
+    private ContractDetailsCache contractCache;
+
+    @Autowired
+    private ContractRegistry contractRegistry;
+
+    @Autowired
+    private MarketRuleCache marketRuleCache;
+
+    @Autowired
+    private TradingHoursIndex tradingHoursIndex;
+
+    @Autowired
+    private TradingSessionScheduler sessionScheduler;
+
+    @Autowired
+    private TwsRequestPacer requestPacer;
+
+    @Autowired
+    private SymbolSearchIndex symbolIndex;
+
     @Autowired
     private TwsMarketDataService marketDataService;
 
+    @Autowired
+    private TwsTickByTickService tickByTickService;
+
+    @Autowired
+    private TwsMarketDepthService marketDepthService;
+
+    @Autowired
+    private TwsBarAggregationService barAggregationService;
+
+    @Autowired
+    private TwsContinuousFuturesService continuousFuturesService;
+
+    @Autowired
+    private FuturesChainIndex chainIndex;
+
+    @Autowired
+    private OptionChainService optionChainService;
+
+    @Autowired
+    private TwsWebSocketController webSocketController;
+
+    @Autowired
+    private MarketEventBus eventBus;
+
+    @Autowired
+    private TwsReplayService replayService;
+
+    @Autowired
+    private SharedMemoryQuotePublisher sharedQuotePublisher;
+
     // ==================== 连接管理 ====================
 
     /**
@@ -103,6 +183,266 @@ public class TwsApiController {
                 )));
     }
 
+    /**
+     * 代码联想搜索
+     *
+     * 优先查本地索引，结果不足时经节流查询TWS的reqMatchingSymbols
+     */
+    @GetMapping("/symbols/search")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> searchSymbols(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "10") int limit) {
+        
+        return symbolIndex.search(q, Math.max(1, Math.min(limit, 50)))
+                .thenApply(result -> ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "data", result
+                )));
+    }
+
+    /**
+     * 获取代码搜索索引统计
+     */
+    @GetMapping("/symbols/index")
+    public ResponseEntity<Map<String, Object>> getSymbolIndexStats() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", symbolIndex.getStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 批量确认合约
+     *
+     * 请求体 {"contracts": [{"conId": 123}, {"symbol": "MES", "secType": "FUT", ...}]}，
+     * 去重后缓存命中的直接返回，其余按节流预算并发请求TWS，全部完成后一次返回
+     */
+    @PostMapping("/contracts/batch")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> qualifyContracts(
+            @RequestBody Map<String, Object> body) {
+        
+        CompletableFuture<Map<String, Object>> future;
+        try {
+            future = contractService.qualifyContracts(batchSpecs(body));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            )));
+        }
+        
+        return future
+                .thenApply(result -> ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "data", result
+                )))
+                .exceptionally(throwable -> ResponseEntity.ok(Map.of(
+                    "success", false,
+                    "error", throwable.getMessage()
+                )));
+    }
+
+    /**
+     * 批量确认合约（NDJSON流），每个合约完成时立即返回一行，缓存命中的最先返回
+     */
+    @PostMapping(value = "/contracts/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Map<String, Object>> streamQualifyContracts(@RequestBody Map<String, Object> body) {
+        try {
+            return contractService.streamQualifyContracts(batchSpecs(body));
+        } catch (IllegalArgumentException e) {
+            // 请求体不合法时同样以一行NDJSON返回错误，而不是Spring的错误页
+            return Flux.just(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> batchSpecs(Map<String, Object> body) {
+        Object contracts = body.get("contracts");
+        if (!(contracts instanceof List)) {
+            throw new IllegalArgumentException("请求体缺少contracts数组");
+        }
+        for (Object spec : (List<Object>) contracts) {
+            if (!(spec instanceof Map)) {
+                throw new IllegalArgumentException("contracts中的每一项必须是对象: " + spec);
+            }
+        }
+        return (List<Map<String, Object>>) contracts;
+    }
+
+    /**
+     * 获取TWS请求节流统计
+     */
+    @GetMapping("/pacing")
+    public ResponseEntity<Map<String, Object>> getPacingStats() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", requestPacer.getStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取合约请求合并统计
+     */
+    @GetMapping("/contracts/inflight")
+    public ResponseEntity<Map<String, Object>> getContractInFlightStats() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", contractService.getInFlightStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取合约注册表统计
+     */
+    @GetMapping("/contracts/registry")
+    public ResponseEntity<Map<String, Object>> getContractRegistryStats() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", contractRegistry.getStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 本地校验价格是否落在最小变动刻度上，并给出就近、向上和向下取整的有效价格
+     *
+     * @param exchange 交易所，为空时使用合约详情中的交易所
+     */
+    @GetMapping("/prices/check")
+    public ResponseEntity<Map<String, Object>> checkPrice(
+            @RequestParam int conId,
+            @RequestParam double price,
+            @RequestParam(required = false) String exchange) {
+        
+        Map<String, Object> result = marketRuleCache.check(conId, exchange, price);
+        if (result == null) {
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", "合约未缓存或没有可用的价格规则: conId=" + conId
+            ));
+        }
+        
+        return ResponseEntity.ok(Map.of(
+            "success", true,
+            "data", result
+        ));
+    }
+
+    /**
+     * 获取合约当前的交易时段状态（是否开盘、下次开盘/收盘及后续时段，时间为UTC）
+     */
+    @GetMapping("/sessions/{conId}")
+    public ResponseEntity<Map<String, Object>> getTradingSession(
+            @PathVariable int conId,
+            @RequestParam(defaultValue = "5") int upcoming) {
+        
+        Map<String, Object> status = tradingHoursIndex.status(conId, System.currentTimeMillis(), upcoming);
+        if (status == null) {
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", "合约未缓存: conId=" + conId
+            ));
+        }
+        
+        return ResponseEntity.ok(Map.of(
+            "success", true,
+            "data", status
+        ));
+    }
+
+    /**
+     * 获取交易时段调度统计
+     */
+    @GetMapping("/sessions")
+    public ResponseEntity<Map<String, Object>> getSessionSchedulerStats() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", sessionScheduler.getStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取价格规则缓存统计
+     */
+    @GetMapping("/market-rules")
+    public ResponseEntity<Map<String, Object>> getMarketRuleStats() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", marketRuleCache.getStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取单个价格规则，未缓存时请求TWS
+     */
+    @GetMapping("/market-rules/{ruleId}")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getMarketRule(@PathVariable int ruleId) {
+        return marketRuleCache.load(ruleId)
+                .thenApply(rule -> ResponseEntity.ok(Map.<String, Object>of(
+                    "success", true,
+                    "data", rule.toMap()
+                )))
+                .exceptionally(throwable -> ResponseEntity.ok(Map.of(
+                    "success", false,
+                    "error", throwable.getMessage()
+                )));
+    }
+
+    /**
+     * 立即加载合约缓存中引用的全部价格规则
+     */
+    @PostMapping("/market-rules/refresh")
+    public ResponseEntity<Map<String, Object>> refreshMarketRules() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", Map.of("requested", marketRuleCache.loadReferencedRules())
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取合约详情缓存统计
+     */
+    @GetMapping("/contracts/cache")
+    public ResponseEntity<Map<String, Object>> getContractCacheStats() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", contractCache.getStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 清空合约详情缓存
+     */
+    @PostMapping("/contracts/cache/clear")
+    public ResponseEntity<Map<String, Object>> clearContractCache() {
+        contractCache.clear();
+        
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "message", "合约详情缓存已清空"
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 获取合约详情
      */
@@ -205,15 +545,21 @@ public class TwsApiController {
      * 获取活跃的市场数据订阅
      */
     @GetMapping("/market-data/subscriptions")
-    public ResponseEntity<Map<String, Object>> getActiveSubscriptions() {
-        Map<String, Object> subscriptions = marketDataService.getActiveSubscriptions();
+    public ResponseEntity<byte[]> getActiveSubscriptions(
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         
-        Map<String, Object> response = Map.of(
-            "success", true,
-            "data", subscriptions
-        );
+        // 使用预序列化的快照，数据未变化时直接返回304
+        MarketDataSnapshotCache.Snapshot snapshot = marketDataService.getActiveSubscriptionsSnapshot();
+        if (ifNoneMatch != null && ifNoneMatch.contains(snapshot.etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(snapshot.etag)
+                    .build();
+        }
         
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok()
+                .eTag(snapshot.etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.body);
     }
 
     /**
@@ -234,6 +580,431 @@ public class TwsApiController {
         return ResponseEntity.ok(response);
     }
 
+    // ==================== 逐笔数据 ====================
+
+    /**
+     * 订阅逐笔数据
+     */
+    @PostMapping("/tick-by-tick/subscribe")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> subscribeTickByTick(
+            @RequestParam String conId,
+            @RequestParam String symbol,
+            @RequestParam(defaultValue = "CME") String exchange,
+            @RequestParam(defaultValue = "AllLast") String tickType) {
+        
+        return tickByTickService.subscribe(conId, symbol, exchange, tickType)
+                .thenApply(result -> ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "data", result
+                )))
+                .exceptionally(throwable -> ResponseEntity.ok(Map.of(
+                    "success", false,
+                    "error", throwable.getMessage()
+                )));
+    }
+
+    /**
+     * 获取最近N笔逐笔数据
+     */
+    @GetMapping("/tick-by-tick/ticks")
+    public ResponseEntity<Map<String, Object>> getRecentTicks(
+            @RequestParam String symbol,
+            @RequestParam(defaultValue = "100") int limit) {
+        
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", tickByTickService.getRecentTicks(symbol, limit)
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        }
+    }
+
+    /**
+     * 获取逐笔数据订阅
+     */
+    @GetMapping("/tick-by-tick/subscriptions")
+    public ResponseEntity<Map<String, Object>> getTickByTickSubscriptions() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", tickByTickService.getSubscriptions()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 取消逐笔数据订阅
+     */
+    @PostMapping("/tick-by-tick/cancel")
+    public ResponseEntity<Map<String, Object>> cancelTickByTick(
+            @RequestParam int reqId) {
+        
+        tickByTickService.cancel(reqId);
+        
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "message", "逐笔数据订阅已取消",
+            "reqId", reqId
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    // ==================== 市场深度 ====================
+
+    /**
+     * 订阅市场深度
+     */
+    @PostMapping("/market-depth/subscribe")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> subscribeMarketDepth(
+            @RequestParam String conId,
+            @RequestParam String symbol,
+            @RequestParam(defaultValue = "CME") String exchange,
+            @RequestParam(defaultValue = "10") int numRows,
+            @RequestParam(defaultValue = "false") boolean smartDepth) {
+        
+        return marketDepthService.subscribe(conId, symbol, exchange, numRows, smartDepth)
+                .thenApply(result -> ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "data", result
+                )))
+                .exceptionally(throwable -> ResponseEntity.ok(Map.of(
+                    "success", false,
+                    "error", throwable.getMessage()
+                )));
+    }
+
+    /**
+     * 获取订单簿
+     */
+    @GetMapping("/market-depth/book")
+    public ResponseEntity<Map<String, Object>> getOrderBook(
+            @RequestParam String symbol,
+            @RequestParam(defaultValue = "10") int levels) {
+        
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", marketDepthService.getBook(symbol, levels)
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        }
+    }
+
+    /**
+     * 获取最优买卖报价及累计深度
+     */
+    @GetMapping("/market-depth/top")
+    public ResponseEntity<Map<String, Object>> getTopOfBook(
+            @RequestParam String symbol,
+            @RequestParam(defaultValue = "5") int levels) {
+        
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", marketDepthService.getTopOfBook(symbol, levels)
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        }
+    }
+
+    /**
+     * 获取市场深度订阅
+     */
+    @GetMapping("/market-depth/subscriptions")
+    public ResponseEntity<Map<String, Object>> getMarketDepthSubscriptions() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", marketDepthService.getSubscriptions()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 取消市场深度订阅
+     */
+    @PostMapping("/market-depth/cancel")
+    public ResponseEntity<Map<String, Object>> cancelMarketDepth(
+            @RequestParam int tickerId) {
+        
+        marketDepthService.cancel(tickerId);
+        
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "message", "市场深度订阅已取消",
+            "tickerId", tickerId
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    // ==================== K线 ====================
+
+    /**
+     * 获取K线
+     */
+    @GetMapping("/bars")
+    public ResponseEntity<Map<String, Object>> getBars(
+            @RequestParam String symbol,
+            @RequestParam(defaultValue = "1m") String timeframe,
+            @RequestParam(defaultValue = "100") int limit,
+            @RequestParam(defaultValue = "false") boolean includeCurrent) {
+        
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", barAggregationService.getBars(symbol, timeframe, limit, includeCurrent)
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        }
+    }
+
+    /**
+     * 获取有K线数据的合约
+     */
+    @GetMapping("/bars/symbols")
+    public ResponseEntity<Map<String, Object>> getBarSymbols() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", barAggregationService.getSymbols()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    // ==================== 连续合约 ====================
+
+    /**
+     * 获取期货链：主力合约及后续count个到期合约
+     */
+    @GetMapping("/futures/chain")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getFuturesChain(
+            @RequestParam String root,
+            @RequestParam(defaultValue = "CME") String exchange,
+            @RequestParam(defaultValue = "USD") String currency,
+            @RequestParam(defaultValue = "4") int count) {
+        
+        return chainIndex.getChain(root, exchange, currency)
+                .thenApply(chain -> ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "data", chain.toMap(System.currentTimeMillis(), count)
+                )))
+                .exceptionally(throwable -> ResponseEntity.ok(Map.of(
+                    "success", false,
+                    "error", throwable.getMessage()
+                )));
+    }
+
+    /**
+     * 获取指定日期仍在交易的最近合约
+     *
+     * @param date 日期，格式yyyyMMdd
+     */
+    @GetMapping("/futures/chain/active")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getActiveFuture(
+            @RequestParam String root,
+            @RequestParam String date,
+            @RequestParam(defaultValue = "CME") String exchange,
+            @RequestParam(defaultValue = "USD") String currency) {
+        
+        LocalDate day;
+        try {
+            day = LocalDate.parse(date, DateTimeFormatter.BASIC_ISO_DATE);
+        } catch (DateTimeParseException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", "日期格式应为yyyyMMdd: " + date
+            )));
+        }
+        
+        return chainIndex.getChain(root, exchange, currency)
+                .thenApply(chain -> {
+                    FuturesChain.Entry entry = chain.activeOn(day);
+                    if (entry == null) {
+                        return ResponseEntity.ok(Map.<String, Object>of(
+                            "success", false,
+                            "error", "没有在该日期交易的合约: " + root + " " + date
+                        ));
+                    }
+                    return ResponseEntity.ok(Map.<String, Object>of(
+                        "success", true,
+                        "data", entry.toMap()
+                    ));
+                })
+                .exceptionally(throwable -> ResponseEntity.ok(Map.of(
+                    "success", false,
+                    "error", throwable.getMessage()
+                )));
+    }
+
+    /**
+     * 获取已加载的期货链
+     */
+    @GetMapping("/futures/chains")
+    public ResponseEntity<Map<String, Object>> getFuturesChains() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", chainIndex.getChains()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    // ==================== 期权链 ====================
+
+    /**
+     * 获取期权链网格（到期日×行权价），不确认具体合约
+     *
+     * @param conId 标的conId，为空时期货取主力合约
+     */
+    @GetMapping("/options/chain")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getOptionChain(
+            @RequestParam String symbol,
+            @RequestParam(defaultValue = "FUT") String secType,
+            @RequestParam(defaultValue = "CME") String exchange,
+            @RequestParam(defaultValue = "USD") String currency,
+            @RequestParam(required = false) Integer conId) {
+        
+        return optionChainService.getChain(symbol, secType, exchange, currency, conId)
+                .thenApply(chain -> ResponseEntity.ok(Map.<String, Object>of(
+                    "success", true,
+                    "data", chain.toMap(true)
+                )))
+                .exceptionally(throwable -> ResponseEntity.ok(Map.of(
+                    "success", false,
+                    "error", throwable.getMessage()
+                )));
+    }
+
+    /**
+     * 流式获取期权链（NDJSON）：先返回网格，再按到期日完成顺序返回所选行权价的期权合约
+     *
+     * @param expirations 逗号分隔的到期日（yyyyMMdd），为空时取最近几个
+     */
+    @GetMapping(value = "/options/chain/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Map<String, Object>> streamOptionChain(
+            @RequestParam String symbol,
+            @RequestParam(defaultValue = "FUT") String secType,
+            @RequestParam(defaultValue = "CME") String exchange,
+            @RequestParam(defaultValue = "USD") String currency,
+            @RequestParam(required = false) Integer conId,
+            @RequestParam(required = false) String optionExchange,
+            @RequestParam(required = false) String tradingClass,
+            @RequestParam(required = false) String expirations,
+            @RequestParam(required = false) Double minStrike,
+            @RequestParam(required = false) Double maxStrike,
+            @RequestParam(required = false) Double strikeCenter,
+            @RequestParam(required = false) Integer strikeCount) {
+        
+        OptionChainService.ChainRequest request = new OptionChainService.ChainRequest();
+        request.symbol = symbol;
+        request.secType = secType;
+        request.exchange = exchange;
+        request.currency = currency;
+        request.conId = conId;
+        request.optionExchange = optionExchange;
+        request.tradingClass = tradingClass;
+        if (expirations != null && !expirations.isEmpty()) {
+            request.expirations = Arrays.stream(expirations.split(","))
+                    .map(String::trim)
+                    .filter(expiry -> !expiry.isEmpty())
+                    .collect(Collectors.toList());
+        }
+        request.minStrike = minStrike;
+        request.maxStrike = maxStrike;
+        request.strikeCenter = strikeCenter;
+        request.strikeCount = strikeCount;
+        return optionChainService.streamChain(request);
+    }
+
+    /**
+     * 获取期权链缓存统计
+     */
+    @GetMapping("/options/chains")
+    public ResponseEntity<Map<String, Object>> getOptionChains() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", optionChainService.getStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 订阅连续合约（自动换月）
+     */
+    @PostMapping("/continuous/subscribe")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> subscribeContinuous(
+            @RequestParam String root,
+            @RequestParam(defaultValue = "CME") String exchange,
+            @RequestParam(defaultValue = "USD") String currency) {
+        
+        return continuousFuturesService.subscribe(root, exchange, currency)
+                .thenApply(result -> ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "data", result
+                )))
+                .exceptionally(throwable -> ResponseEntity.ok(Map.of(
+                    "success", false,
+                    "error", throwable.getMessage()
+                )));
+    }
+
+    /**
+     * 获取连续合约状态
+     */
+    @GetMapping("/continuous")
+    public ResponseEntity<Map<String, Object>> getContinuousContracts() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", continuousFuturesService.getContinuousContracts()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取后复权连续K线
+     */
+    @GetMapping("/continuous/bars")
+    public ResponseEntity<Map<String, Object>> getContinuousBars(
+            @RequestParam String root,
+            @RequestParam(defaultValue = "CME") String exchange,
+            @RequestParam(defaultValue = "USD") String currency,
+            @RequestParam(defaultValue = "1m") String timeframe,
+            @RequestParam(defaultValue = "100") int limit) {
+        
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "data", continuousFuturesService.getContinuousBars(root, exchange, currency, timeframe, limit)
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.ok(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        }
+    }
+
     // ==================== 账户信息 ====================
 
     /**
@@ -271,6 +1042,102 @@ public class TwsApiController {
                 )));
     }
 
+    // ==================== WebSocket ====================
+
+    /**
+     * 获取WebSocket会话数和各主题订阅数
+     */
+    @GetMapping("/ws/topics")
+    public ResponseEntity<Map<String, Object>> getWebSocketTopics() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "sessions", webSocketController.getActiveSessionCount(),
+            "data", webSocketController.getTopicSubscriberCounts()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取WebSocket会话发送队列统计及准入概况
+     */
+    @GetMapping("/ws/sessions")
+    public ResponseEntity<Map<String, Object>> getWebSocketSessions() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "summary", webSocketController.getResourceSummary(),
+            "data", webSocketController.getSessionStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取逐笔回放统计
+     */
+    @GetMapping("/replays")
+    public ResponseEntity<Map<String, Object>> getReplays() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", replayService.getStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取共享内存报价表统计
+     */
+    @GetMapping("/shm/stats")
+    public ResponseEntity<Map<String, Object>> getSharedQuoteTableStats() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", sharedQuotePublisher.getStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    // ==================== 事件流 ====================
+
+    /**
+     * 带背压的事件流（SSE或NDJSON）
+     *
+     * 只在下游有需求时发出事件，消费慢时报价按合约合并为最新一条
+     *
+     * @param symbols 逗号分隔的合约代码，为空表示全部
+     * @param types   逗号分隔的事件类型（quote / trade / depth / bar / order），为空表示全部
+     */
+    @GetMapping(value = "/stream", produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<Map<String, Object>> stream(
+            @RequestParam(required = false) String symbols,
+            @RequestParam(required = false) String types) {
+        return eventBus.stream(splitParam(symbols), splitParam(types));
+    }
+
+    /**
+     * 获取事件流订阅统计
+     */
+    @GetMapping("/stream/stats")
+    public ResponseEntity<Map<String, Object>> getStreamStats() {
+        Map<String, Object> response = Map.of(
+            "success", true,
+            "data", eventBus.getStats()
+        );
+        
+        return ResponseEntity.ok(response);
+    }
+
+    private static Set<String> splitParam(String value) {
+        if (value == null || value.isBlank()) {
+            return Collections.emptySet();
+        }
+        return Arrays.stream(value.split(","))
+            .map(String::trim)
+            .filter(item -> !item.isEmpty())
+            .collect(Collectors.toSet());
+    }
+
     // ==================== 健康检查 ====================
 
     /**
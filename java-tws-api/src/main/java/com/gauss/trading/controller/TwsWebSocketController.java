@@ -1,38 +1,189 @@
 package com.gauss.trading.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gauss.trading.service.MarketEventBus;
 import com.gauss.trading.service.TwsMarketDataService;
+import com.gauss.trading.service.TwsReplayService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * WebSocket控制器
  * 用于实时推送市场数据到前端
  */
 @Component
-public class TwsWebSocketController extends TextWebSocketHandler {
+public class TwsWebSocketController extends TextWebSocketHandler implements MarketEventBus.Listener {
 
     private static final Logger logger = LoggerFactory.getLogger(TwsWebSocketController.class);
     
+    // 订阅全部合约的通配主题
+    public static final String WILDCARD_TOPIC = "*";
+
+    // 原生WebSocket会话属性，由握手拦截器设置；SockJS会话不支持二进制帧
+    public static final String NATIVE_TRANSPORT_ATTRIBUTE = "nativeTransport";
+    public static final String PROTOCOL_JSON = "json";
+    public static final String PROTOCOL_BINARY = "binary";
+
     private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${tws.websocket.queue-capacity:1024}")
+    private int queueCapacity;
+
+    @Value("${tws.websocket.overflow-policy:conflate}")
+    private String overflowPolicy;
+
+    @Value("${tws.websocket.sender-threads:4}")
+    private int senderThreads;
+
+    @Value("${tws.websocket.batch.flush-interval-ms:16}")
+    private long batchFlushIntervalMs;
+
+    @Value("${tws.websocket.batch.max-messages:100}")
+    private int batchMaxMessages;
+
+    @Value("${tws.websocket.batch.max-bytes:65536}")
+    private int batchMaxBytes;
+
+    @Value("${tws.websocket.max-sessions:200}")
+    private int maxSessions;
+
+    @Value("${tws.websocket.max-sessions-per-ip:20}")
+    private int maxSessionsPerIp;
+
+    @Value("${tws.websocket.overload.queued-bytes:67108864}")
+    private long overloadQueuedBytes;
+
+    @Value("${tws.websocket.overload.session-queued-bytes:4194304}")
+    private long overloadSessionQueuedBytes;
+
+    @Value("${tws.websocket.overload.degraded-interval-ms:500}")
+    private long degradedIntervalMs;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private MarketEventBus eventBus;
+
+    @Autowired
+    private TwsReplayService replayService;
+
+    // 准入控制：会话ID -> 远端IP，远端IP -> 会话数；两者在admissionLock下一起更新
+    private final Object admissionLock = new Object();
+    private final Map<String, String> sessionIps = new HashMap<>();
+    private final Map<String, Integer> ipSessionCounts = new HashMap<>();
+    private Counter rejectedGlobal;
+    private Counter rejectedPerIp;
+
+    // 全局过载时所有会话降级，恢复到阈值一半以下再解除
+    private volatile boolean overloaded;
+
+    // 每个会话的发送队列，所有出站消息都经由队列发送，保证同一会话串行写入
+    private final Map<String, SessionOutboundQueue> outboundQueues = new ConcurrentHashMap<>();
+    private SessionOutboundQueue.OverflowPolicy policy;
+    private ScheduledExecutorService senderExecutor;
+
+    // 订阅索引：合约 -> 会话ID集合，会话ID -> 合约集合（用于断开时清理）
+    private final ConcurrentHashMap<String, Set<String>> topicSubscribers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> sessionTopics = new ConcurrentHashMap<>();
+
+    // 使用二进制协议的会话 -> 已告知该会话的instrumentId集合
+    private final ConcurrentHashMap<String, Set<Integer>> binarySessions = new ConcurrentHashMap<>();
+
+    // 使用增量协议的会话：marketData改为只含变化字段的delta消息
+    private final Set<String> deltaSessions = ConcurrentHashMap.newKeySet();
+
+    // 由应用启动时注入，用于订阅快照和断档补齐
+    private TwsMarketDataService marketDataService;
     
     // 移除对TwsMarketDataService的直接依赖，避免循环依赖
 
+    @PostConstruct
+    public void start() {
+        policy = SessionOutboundQueue.OverflowPolicy.fromName(overflowPolicy);
+        AtomicInteger threadIndex = new AtomicInteger();
+        senderExecutor = Executors.newScheduledThreadPool(Math.max(1, senderThreads), runnable -> {
+            Thread thread = new Thread(runnable, "TWS-WebSocket-Sender-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("WebSocket发送队列: capacity={}, policy={}, threads={}", queueCapacity, policy, senderThreads);
+
+        senderExecutor.scheduleAtFixedRate(this::checkOverload, 1, 1, TimeUnit.SECONDS);
+        registerMetrics();
+        eventBus.addListener(this);
+    }
+
+    private void registerMetrics() {
+        Gauge.builder("tws.websocket.sessions", sessions, Map::size)
+            .description("当前WebSocket会话数")
+            .register(meterRegistry);
+        Gauge.builder("tws.websocket.queued.messages", this, controller -> controller.sumQueues(false))
+            .description("所有会话发送队列中的消息数")
+            .register(meterRegistry);
+        Gauge.builder("tws.websocket.queued.bytes", this, controller -> controller.sumQueues(true))
+            .description("所有会话发送队列中消息的估算字节数")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("tws.websocket.degraded.sessions", this, controller -> controller.countDegraded())
+            .description("降级推送的会话数")
+            .register(meterRegistry);
+        rejectedGlobal = Counter.builder("tws.websocket.rejected")
+            .description("因会话数上限被拒绝的连接")
+            .tag("reason", "max-sessions")
+            .register(meterRegistry);
+        rejectedPerIp = Counter.builder("tws.websocket.rejected")
+            .description("因会话数上限被拒绝的连接")
+            .tag("reason", "max-sessions-per-ip")
+            .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (senderExecutor != null) {
+            senderExecutor.shutdownNow();
+        }
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         String sessionId = session.getId();
+        String rejection = admit(sessionId, remoteIp(session.getRemoteAddress()));
+        if (rejection != null) {
+            logger.warn("拒绝WebSocket连接: {} - {}", sessionId, rejection);
+            session.close(CloseStatus.SERVICE_OVERLOAD.withReason(rejection));
+            return;
+        }
         sessions.put(sessionId, session);
+        outboundQueues.put(sessionId, new SessionOutboundQueue(session, queueCapacity, policy, senderExecutor));
         logger.info("WebSocket连接已建立: {}", sessionId);
         
         // 发送连接确认消息
@@ -43,13 +194,28 @@ public class TwsWebSocketController extends TextWebSocketHandler {
             "message", "WebSocket连接已建立"
         );
         
-        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(welcomeMessage)));
+        reply(session, welcomeMessage);
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         String sessionId = session.getId();
         sessions.remove(sessionId);
+        SessionOutboundQueue queue = outboundQueues.remove(sessionId);
+        if (queue != null) {
+            queue.discard();
+        }
+        binarySessions.remove(sessionId);
+        deltaSessions.remove(sessionId);
+        replayService.stopAll(sessionId);
+        release(sessionId);
+        
+        // 清理该会话的全部订阅
+        Set<String> topics = sessionTopics.remove(sessionId);
+        if (topics != null) {
+            topics.forEach(topic -> removeSubscriber(topic, sessionId));
+        }
+        
         logger.info("WebSocket连接已关闭: {} - {}", sessionId, status);
     }
 
@@ -72,6 +238,15 @@ public class TwsWebSocketController extends TextWebSocketHandler {
                 case "unsubscribe":
                     handleUnsubscribe(session, request);
                     break;
+                case "resync":
+                    handleResync(session, request);
+                    break;
+                case "replay":
+                    handleReplay(session, request);
+                    break;
+                case "replayStop":
+                    handleReplayStop(session, request);
+                    break;
                 case "ping":
                     handlePing(session);
                     break;
@@ -87,7 +262,7 @@ public class TwsWebSocketController extends TextWebSocketHandler {
                 "message", "消息处理失败: " + e.getMessage()
             );
             
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(errorResponse)));
+            reply(session, errorResponse);
         }
     }
 
@@ -97,15 +272,161 @@ public class TwsWebSocketController extends TextWebSocketHandler {
         
         logger.info("订阅市场数据: {} - {}", sessionId, symbol);
         
+        if (symbol == null || symbol.isEmpty()) {
+            throw new IllegalArgumentException("缺少symbol");
+        }
+        String protocol = negotiateProtocol(session, (String) request.get("protocol"));
+        boolean batch = enableBatching(session, request.get("batch"));
+        if (Boolean.TRUE.equals(request.get("delta"))) {
+            deltaSessions.add(sessionId);
+        }
+        topicSubscribers.compute(symbol, (key, subscribers) -> {
+            Set<String> result = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            result.add(sessionId);
+            return result;
+        });
+        sessionTopics.computeIfAbsent(sessionId, key -> ConcurrentHashMap.newKeySet()).add(symbol);
+        
         // 发送订阅确认
         Map<String, Object> response = Map.of(
             "type", "subscription",
             "status", "subscribed",
             "symbol", symbol,
+            "protocol", protocol,
+            "batch", batch,
+            "delta", deltaSessions.contains(sessionId),
             "message", "已订阅 " + symbol + " 的市场数据"
         );
         
-        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+        reply(session, response);
+        
+        // 订阅确认之后发送当前快照，客户端丢弃seq不大于快照的增量
+        if (marketDataService != null) {
+            for (TwsMarketDataService.MarketDataInfo info : marketDataService.findBySymbol(symbol)) {
+                sendSnapshot(session, info);
+            }
+        }
+    }
+
+    /**
+     * 客户端发现seq断档时请求补齐：历史足够时回放增量，否则发送完整快照
+     */
+    private void handleResync(WebSocketSession session, Map<String, Object> request) throws IOException {
+        String symbol = (String) request.get("symbol");
+        Object fromSeqValue = request.get("fromSeq");
+        if (symbol == null || symbol.isEmpty() || !(fromSeqValue instanceof Number)) {
+            throw new IllegalArgumentException("缺少symbol或fromSeq");
+        }
+        if (marketDataService == null) {
+            throw new IllegalStateException("市场数据服务未就绪");
+        }
+        long fromSeq = ((Number) fromSeqValue).longValue();
+        
+        logger.info("补齐市场数据: {} - {} fromSeq={}", session.getId(), symbol, fromSeq);
+        
+        for (TwsMarketDataService.MarketDataInfo info : marketDataService.findBySymbol(symbol)) {
+            List<Map<String, Object>> deltas = marketDataService.getDeltasSince(info.tickerId, fromSeq);
+            if (deltas == null) {
+                sendSnapshot(session, info);
+                continue;
+            }
+            Map<String, Object> response = Map.of(
+                "type", "resync",
+                "symbol", info.symbol,
+                "fromSeq", fromSeq,
+                "deltas", deltas
+            );
+            reply(session, response);
+        }
+    }
+
+    /**
+     * 回放已记录的逐笔成交：{"type":"replay","symbol":"MES","speed":10,"from":..,"to":..}
+     *
+     * speed为倍速，0或"max"表示最快；回放的trade消息带replayId，结束时收到status为completed或stopped的replay消息
+     */
+    private void handleReplay(WebSocketSession session, Map<String, Object> request) throws IOException {
+        String symbol = (String) request.get("symbol");
+        if (symbol == null || symbol.isEmpty() || WILDCARD_TOPIC.equals(symbol)) {
+            throw new IllegalArgumentException("回放需要指定合约");
+        }
+        Object speedValue = request.getOrDefault("speed", 1);
+        double speed;
+        if (speedValue instanceof Number) {
+            speed = ((Number) speedValue).doubleValue();
+        } else if ("max".equals(speedValue)) {
+            speed = TwsReplayService.SPEED_MAX;
+        } else {
+            throw new IllegalArgumentException("无效的回放速度: " + speedValue);
+        }
+        Long from = request.get("from") instanceof Number ? ((Number) request.get("from")).longValue() : null;
+        Long to = request.get("to") instanceof Number ? ((Number) request.get("to")).longValue() : null;
+
+        String sessionId = session.getId();
+        Map<String, Object> replay = replayService.startReplay(sessionId, symbol, speed, from, to,
+                                                               replaySink(sessionId));
+        Map<String, Object> response = new HashMap<>(replay);
+        response.put("type", "replay");
+        response.put("status", "started");
+        reply(session, response);
+    }
+
+    private void handleReplayStop(WebSocketSession session, Map<String, Object> request) throws IOException {
+        String replayId = (String) request.get("replayId");
+        if (replayId == null) {
+            replayService.stopAll(session.getId());
+        } else if (!replayService.stopReplay(replayId)) {
+            throw new IllegalArgumentException("回放不存在: " + replayId);
+        }
+    }
+
+    /**
+     * 回放消息经由会话发送队列发出，与实时推送共用同一条串行写入路径；
+     * 会话降级或全局过载时报告无限积压，回放随之暂停
+     */
+    private TwsReplayService.ReplaySink replaySink(String sessionId) {
+        return new TwsReplayService.ReplaySink() {
+            @Override
+            public boolean send(Map<String, Object> message) {
+                SessionOutboundQueue queue = outboundQueues.get(sessionId);
+                if (queue == null) {
+                    return false;
+                }
+                try {
+                    queue.offer(new TextMessage(objectMapper.writeValueAsString(message)), null);
+                } catch (IOException e) {
+                    throw new IllegalStateException("序列化回放消息失败: " + e.getMessage(), e);
+                }
+                return true;
+            }
+
+            @Override
+            public int backlog() {
+                SessionOutboundQueue queue = outboundQueues.get(sessionId);
+                if (queue == null) {
+                    return 0;
+                }
+                return overloaded || queue.isDegraded() ? Integer.MAX_VALUE : queue.depth();
+            }
+        };
+    }
+
+    private void sendSnapshot(WebSocketSession session, TwsMarketDataService.MarketDataInfo info) throws IOException {
+        // seq与数据在发布锁内一起读取：行情字段可能比seq新，但下一条增量是绝对值，重复应用不会出错
+        long seq;
+        Map<String, Object> data;
+        synchronized (info) {
+            seq = info.version;
+            data = info.toMap();
+        }
+        Map<String, Object> snapshot = Map.of(
+            "type", "snapshot",
+            "symbol", data.get("symbol"),
+            "seq", seq,
+            "data", data,
+            "timestamp", System.currentTimeMillis()
+        );
+        reply(session, snapshot);
     }
 
     private void handleUnsubscribe(WebSocketSession session, Map<String, Object> request) throws IOException {
@@ -114,6 +435,15 @@ public class TwsWebSocketController extends TextWebSocketHandler {
         
         logger.info("取消订阅市场数据: {} - {}", sessionId, symbol);
         
+        if (symbol == null || symbol.isEmpty()) {
+            throw new IllegalArgumentException("缺少symbol");
+        }
+        removeSubscriber(symbol, sessionId);
+        Set<String> topics = sessionTopics.get(sessionId);
+        if (topics != null) {
+            topics.remove(symbol);
+        }
+        
         // 发送取消订阅确认
         Map<String, Object> response = Map.of(
             "type", "subscription",
@@ -122,7 +452,177 @@ public class TwsWebSocketController extends TextWebSocketHandler {
             "message", "已取消订阅 " + symbol + " 的市场数据"
         );
         
-        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+        reply(session, response);
+    }
+
+    /**
+     * 协商行情推送协议，二进制协议只在原生WebSocket连接上可用
+     */
+    private String negotiateProtocol(WebSocketSession session, String requested) {
+        if (requested == null || PROTOCOL_JSON.equalsIgnoreCase(requested)) {
+            return binarySessions.containsKey(session.getId()) ? PROTOCOL_BINARY : PROTOCOL_JSON;
+        }
+        if (!PROTOCOL_BINARY.equalsIgnoreCase(requested)) {
+            throw new IllegalArgumentException("不支持的协议: " + requested);
+        }
+        if (!Boolean.TRUE.equals(session.getAttributes().get(NATIVE_TRANSPORT_ATTRIBUTE))) {
+            throw new IllegalArgumentException("二进制协议需要使用原生WebSocket连接 /ws/native/market-data");
+        }
+        binarySessions.computeIfAbsent(session.getId(), key -> ConcurrentHashMap.newKeySet());
+        return PROTOCOL_BINARY;
+    }
+
+    /**
+     * 订阅时请求 "batch": true 的会话改为按刷新窗口批量推送
+     */
+    private boolean enableBatching(WebSocketSession session, Object requested) {
+        SessionOutboundQueue queue = outboundQueues.get(session.getId());
+        if (queue == null) {
+            return false;
+        }
+        if (Boolean.TRUE.equals(requested) && !queue.isBatching()) {
+            queue.enableBatching(batchFlushIntervalMs, batchMaxMessages, batchMaxBytes);
+            logger.info("WebSocket会话开启批量推送: {}", session.getId());
+        }
+        return queue.isBatching();
+    }
+
+    /**
+     * 从主题中移除会话，主题没有订阅者时一并删除
+     */
+    private void removeSubscriber(String topic, String sessionId) {
+        topicSubscribers.computeIfPresent(topic, (key, subscribers) -> {
+            subscribers.remove(sessionId);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    // ==================== 准入控制与过载保护 ====================
+
+    /**
+     * 握手前的快速检查，不占用名额；返回拒绝原因，可以接入时返回null
+     */
+    public String checkAdmission(String ip) {
+        synchronized (admissionLock) {
+            return admissionRejection(ip);
+        }
+    }
+
+    private String admissionRejection(String ip) {
+        if (sessionIps.size() >= maxSessions) {
+            rejectedGlobal.increment();
+            return "WebSocket会话数已达上限: " + maxSessions;
+        }
+        if (ip != null && ipSessionCounts.getOrDefault(ip, 0) >= maxSessionsPerIp) {
+            rejectedPerIp.increment();
+            return "该IP的WebSocket会话数已达上限: " + maxSessionsPerIp;
+        }
+        return null;
+    }
+
+    /**
+     * 连接建立后正式占用名额，返回拒绝原因
+     */
+    private String admit(String sessionId, String ip) {
+        synchronized (admissionLock) {
+            String rejection = admissionRejection(ip);
+            if (rejection == null) {
+                String key = ip != null ? ip : "unknown";
+                sessionIps.put(sessionId, key);
+                ipSessionCounts.merge(key, 1, Integer::sum);
+            }
+            return rejection;
+        }
+    }
+
+    private void release(String sessionId) {
+        synchronized (admissionLock) {
+            String ip = sessionIps.remove(sessionId);
+            if (ip != null) {
+                ipSessionCounts.computeIfPresent(ip, (key, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+
+    public static String remoteIp(InetSocketAddress address) {
+        if (address == null || address.getAddress() == null) {
+            return null;
+        }
+        return address.getAddress().getHostAddress();
+    }
+
+    /**
+     * 定时检查发送队列占用：全局超限时全部会话降级，单个会话超限时只降级该会话
+     */
+    private void checkOverload() {
+        try {
+            long totalBytes = sumQueues(true);
+            if (!overloaded && totalBytes > overloadQueuedBytes) {
+                overloaded = true;
+                logger.warn("WebSocket发送队列过载: queuedBytes={}, sessions={}", totalBytes, outboundQueues.size());
+            } else if (overloaded && totalBytes < overloadQueuedBytes / 2) {
+                overloaded = false;
+                logger.info("WebSocket发送队列恢复: queuedBytes={}", totalBytes);
+            }
+
+            outboundQueues.values().forEach(queue -> {
+                long queued = queue.queuedBytes();
+                if (overloaded || queued > overloadSessionQueuedBytes) {
+                    queue.degrade(degradedIntervalMs);
+                } else if (queue.isDegraded() && queued < overloadSessionQueuedBytes / 2) {
+                    queue.restore();
+                }
+            });
+        } catch (Exception e) {
+            logger.error("检查WebSocket过载异常: {}", e.getMessage(), e);
+        }
+    }
+
+    private long sumQueues(boolean bytes) {
+        long total = 0;
+        for (SessionOutboundQueue queue : outboundQueues.values()) {
+            total += bytes ? queue.queuedBytes() : queue.depth();
+        }
+        return total;
+    }
+
+    private int countDegraded() {
+        int count = 0;
+        for (SessionOutboundQueue queue : outboundQueues.values()) {
+            if (queue.isDegraded()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 获取准入和资源占用概况
+     */
+    public Map<String, Object> getResourceSummary() {
+        Map<String, Object> summary = new HashMap<>();
+        synchronized (admissionLock) {
+            summary.put("sessions", sessionIps.size());
+            summary.put("maxSessions", maxSessions);
+            summary.put("maxSessionsPerIp", maxSessionsPerIp);
+            summary.put("sessionsByIp", new HashMap<>(ipSessionCounts));
+        }
+        summary.put("queuedMessages", sumQueues(false));
+        summary.put("queuedBytes", sumQueues(true));
+        summary.put("overloaded", overloaded);
+        summary.put("degradedSessions", countDegraded());
+        summary.put("rejected", (long) (rejectedGlobal.count() + rejectedPerIp.count()));
+        return summary;
+    }
+
+    /**
+     * 通过会话的发送队列回复消息
+     */
+    private void reply(WebSocketSession session, Map<String, Object> response) throws IOException {
+        SessionOutboundQueue queue = outboundQueues.get(session.getId());
+        if (queue != null) {
+            queue.offer(new TextMessage(objectMapper.writeValueAsString(response)), null);
+        }
     }
 
     private void handlePing(WebSocketSession session) throws IOException {
@@ -131,45 +631,180 @@ public class TwsWebSocketController extends TextWebSocketHandler {
             "timestamp", System.currentTimeMillis()
         );
         
-        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+        reply(session, response);
     }
 
     /**
      * 广播市场数据到所有连接的客户端
+     *
+     * JSON会话收到完整的marketData消息（或delta增量），二进制会话收到固定布局的报价帧；
+     * 每种编码都只在有对应会话时由专用写出器生成一次，不经过中间Map
      */
-    public void broadcastMarketData(String symbol, Map<String, Object> marketData) {
-        if (sessions.isEmpty()) {
-            return;
-        }
-        
+    public void broadcastMarketData(TwsMarketDataService.MarketDataInfo info, int changedMask) {
+        String symbol = info.symbol;
+        long seq = info.version;
+        // 行情快照是完整状态，慢客户端只需要最新一条；增量不能合并，只能丢弃后由客户端补齐
+        String conflationKey = "marketData:" + symbol;
+        TextMessage[] textMessage = new TextMessage[1];
+        TextMessage[] deltaMessage = new TextMessage[1];
+        ByteBuffer[] frame = new ByteBuffer[1];
+
         try {
-            Map<String, Object> message = Map.of(
-                "type", "marketData",
-                "symbol", symbol,
-                "data", marketData,
-                "timestamp", System.currentTimeMillis()
-            );
-            
-            String messageJson = objectMapper.writeValueAsString(message);
-            TextMessage textMessage = new TextMessage(messageJson);
-            
-            // 广播到所有会话
-            sessions.values().forEach(session -> {
-                try {
-                    if (session.isOpen()) {
-                        session.sendMessage(textMessage);
+            forEachSubscriber(symbol, sessionId -> {
+                SessionOutboundQueue queue = outboundQueues.get(sessionId);
+                if (queue == null) {
+                    return;
+                }
+                Set<Integer> announced = binarySessions.get(sessionId);
+                if (announced != null) {
+                    if (announced.add(info.tickerId)) {
+                        announceInstrument(queue, info);
                     }
-                } catch (IOException e) {
-                    logger.error("发送WebSocket消息失败: {}", e.getMessage());
+                    if (frame[0] == null) {
+                        frame[0] = MarketDataBinaryCodec.encodeQuote(info, changedMask);
+                    }
+                    queue.offer(new BinaryMessage(frame[0].duplicate()), conflationKey);
+                } else if (deltaSessions.contains(sessionId)) {
+                    if (deltaMessage[0] == null) {
+                        deltaMessage[0] = MarketDataJsonWriter.deltaMessage(info, seq, changedMask, System.currentTimeMillis());
+                    }
+                    queue.offer(deltaMessage[0], null);
+                } else {
+                    if (textMessage[0] == null) {
+                        textMessage[0] = MarketDataJsonWriter.marketDataMessage(info, seq, System.currentTimeMillis());
+                    }
+                    queue.offer(textMessage[0], conflationKey);
                 }
             });
+        } catch (Exception e) {
+            logger.error("广播市场数据失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 二进制会话首次收到某合约的报价前，先告知instrumentId与合约的对应关系
+     */
+    private void announceInstrument(SessionOutboundQueue queue, TwsMarketDataService.MarketDataInfo info) {
+        Map<String, Object> message = Map.of(
+            "type", "instrument",
+            "symbol", info.symbol,
+            "instrumentId", info.tickerId,
+            "priceScale", MarketDataBinaryCodec.PRICE_SCALE
+        );
+        try {
+            queue.offer(new TextMessage(objectMapper.writeValueAsString(message)), null);
+        } catch (IOException e) {
+            logger.error("发送合约映射失败: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onQuote(TwsMarketDataService.MarketDataInfo info, int changedMask) {
+        broadcastMarketData(info, changedMask);
+    }
+
+    /**
+     * 逐笔成交、订单簿变化、收盘K线和带合约的订单事件按原类型广播
+     */
+    @Override
+    public void onEvent(String type, String symbol, Map<String, Object> data) {
+        if (symbol != null) {
+            broadcast(type, symbol, data, false);
+        }
+    }
+
+    /**
+     * 按消息类型广播数据，只发送给订阅了该合约（或通配主题）的会话
+     */
+    private void broadcast(String type, String symbol, Map<String, Object> marketData, boolean conflatable) {
+        if (!hasSubscribers(symbol)) {
+            return;
+        }
+        
+        try {
+            TextMessage textMessage = toTextMessage(type, symbol, marketData);
+            String conflationKey = conflatable ? type + ":" + symbol : null;
+            forEachSubscriber(symbol, sessionId -> send(sessionId, textMessage, conflationKey));
             
-            logger.debug("广播市场数据: {} - {}", symbol, marketData);
+            logger.debug("广播{}: {} - {}", type, symbol, marketData);
         } catch (Exception e) {
             logger.error("广播市场数据失败: {}", e.getMessage());
         }
     }
 
+    private TextMessage toTextMessage(String type, String symbol, Map<String, Object> data) {
+        Map<String, Object> message = Map.of(
+            "type", type,
+            "symbol", symbol,
+            "data", data,
+            "timestamp", System.currentTimeMillis()
+        );
+        try {
+            return new TextMessage(objectMapper.writeValueAsString(message));
+        } catch (IOException e) {
+            throw new IllegalStateException("序列化" + type + "消息失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 遍历订阅了该合约（或通配主题）的会话
+     */
+    private void forEachSubscriber(String symbol, Consumer<String> action) {
+        Set<String> subscribers = topicSubscribers.get(symbol);
+        Set<String> wildcardSubscribers = topicSubscribers.get(WILDCARD_TOPIC);
+        if (subscribers != null) {
+            subscribers.forEach(action);
+        }
+        if (wildcardSubscribers != null) {
+            wildcardSubscribers.forEach(sessionId -> {
+                // 同时订阅了具体合约和通配主题的会话只发送一次
+                if (subscribers == null || !subscribers.contains(sessionId)) {
+                    action.accept(sessionId);
+                }
+            });
+        }
+    }
+
+    /**
+     * 放入会话发送队列，由发送线程完成网络写入
+     */
+    private void send(String sessionId, TextMessage textMessage, String conflationKey) {
+        SessionOutboundQueue queue = outboundQueues.get(sessionId);
+        if (queue != null) {
+            queue.offer(textMessage, conflationKey);
+        }
+    }
+
+    /**
+     * 是否有会话订阅了该合约
+     */
+    @Override
+    public boolean hasSubscribers(String symbol) {
+        return topicSubscribers.containsKey(symbol) || topicSubscribers.containsKey(WILDCARD_TOPIC);
+    }
+
+    /**
+     * 获取每个主题的订阅会话数
+     */
+    public Map<String, Integer> getTopicSubscriberCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        topicSubscribers.forEach((topic, subscribers) -> counts.put(topic, subscribers.size()));
+        return counts;
+    }
+
+    /**
+     * 获取每个会话的发送队列统计
+     */
+    public Map<String, Object> getSessionStats() {
+        Map<String, Object> stats = new HashMap<>();
+        outboundQueues.forEach((sessionId, queue) -> stats.put(sessionId, queue.getStats()));
+        return stats;
+    }
+
+    public void setMarketDataService(TwsMarketDataService marketDataService) {
+        this.marketDataService = marketDataService;
+    }
+
     /**
      * 获取当前连接的会话数量
      */
@@ -0,0 +1,156 @@
+package com.gauss.trading.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单一周期的K线序列
+ *
+ * 当前K线以原始类型字段增量更新，收盘后的K线写入固定容量的列式环形数组，
+ * 超出容量时覆盖最早的K线
+ */
+public class BarSeries {
+
+    private final long periodMillis;
+    private final int capacity;
+    private final long[] startTimes;
+    private final double[] opens;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] closes;
+    private final double[] volumes;
+    private long closedCount = 0;
+
+    // 当前未收盘的K线
+    private long currentStart = -1;
+    private double currentOpen;
+    private double currentHigh;
+    private double currentLow;
+    private double currentClose;
+    private double currentVolume;
+    // 没有未收盘K线时到达的成交量，计入下一根K线
+    private double pendingVolume;
+
+    /**
+     * 收盘K线的监听器
+     */
+    public interface BarCloseListener {
+        void onBarClose(BarSeries series, long startTime, double open, double high, double low, double close, double volume);
+    }
+
+    public BarSeries(long periodMillis, int capacity) {
+        this.periodMillis = periodMillis;
+        this.capacity = Math.max(1, capacity);
+        this.startTimes = new long[this.capacity];
+        this.opens = new double[this.capacity];
+        this.highs = new double[this.capacity];
+        this.lows = new double[this.capacity];
+        this.closes = new double[this.capacity];
+        this.volumes = new double[this.capacity];
+    }
+
+    /**
+     * 应用一笔成交价格，跨越周期时先收盘当前K线
+     */
+    public synchronized void onPrice(long timestamp, double price, BarCloseListener listener) {
+        long start = timestamp - Math.floorMod(timestamp, periodMillis);
+        if (currentStart >= 0 && start > currentStart) {
+            closeCurrent(listener);
+        }
+        if (currentStart < 0) {
+            currentStart = start;
+            currentOpen = price;
+            currentHigh = price;
+            currentLow = price;
+            currentVolume = pendingVolume;
+            pendingVolume = 0;
+        } else if (start < currentStart) {
+            // 乱序的过期tick不再改写已收盘的K线
+            return;
+        }
+        if (price > currentHigh) {
+            currentHigh = price;
+        }
+        if (price < currentLow) {
+            currentLow = price;
+        }
+        currentClose = price;
+    }
+
+    /**
+     * 累加成交量到当前K线，没有未收盘K线时留给下一根
+     */
+    public synchronized void onVolume(double volume) {
+        if (currentStart >= 0) {
+            currentVolume += volume;
+        } else {
+            pendingVolume += volume;
+        }
+    }
+
+    /**
+     * 当前K线的周期已结束且没有新的成交时收盘
+     */
+    public synchronized void closeIfExpired(long now, BarCloseListener listener) {
+        if (currentStart >= 0 && now >= currentStart + periodMillis) {
+            closeCurrent(listener);
+        }
+    }
+
+    private void closeCurrent(BarCloseListener listener) {
+        int index = (int) (closedCount % capacity);
+        startTimes[index] = currentStart;
+        opens[index] = currentOpen;
+        highs[index] = currentHigh;
+        lows[index] = currentLow;
+        closes[index] = currentClose;
+        volumes[index] = currentVolume;
+        closedCount++;
+
+        long start = currentStart;
+        currentStart = -1;
+        if (listener != null) {
+            listener.onBarClose(this, start, opens[index], highs[index], lows[index], closes[index], volumes[index]);
+        }
+    }
+
+    /**
+     * 最近limit根K线，按时间先后排列，可选包含当前未收盘K线
+     */
+    public synchronized List<Map<String, Object>> latest(int limit, boolean includeCurrent) {
+        long available = Math.min(closedCount, capacity);
+        int count = (int) Math.min(available, Math.max(0, limit));
+        List<Map<String, Object>> bars = new ArrayList<>(count + 1);
+        for (long seq = closedCount - count; seq < closedCount; seq++) {
+            int index = (int) (seq % capacity);
+            bars.add(toMap(startTimes[index], opens[index], highs[index], lows[index], closes[index], volumes[index], true));
+        }
+        if (includeCurrent && currentStart >= 0) {
+            bars.add(toMap(currentStart, currentOpen, currentHigh, currentLow, currentClose, currentVolume, false));
+        }
+        return bars;
+    }
+
+    public static Map<String, Object> toMap(long startTime, double open, double high, double low, double close,
+                                            double volume, boolean closed) {
+        Map<String, Object> bar = new HashMap<>();
+        bar.put("time", startTime);
+        bar.put("open", open);
+        bar.put("high", high);
+        bar.put("low", low);
+        bar.put("close", close);
+        bar.put("volume", volume);
+        bar.put("closed", closed);
+        return bar;
+    }
+
+    public long periodMillis() {
+        return periodMillis;
+    }
+
+    public synchronized long closedCount() {
+        return closedCount;
+    }
+}
@@ -0,0 +1,421 @@
+package com.gauss.trading.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合约详情缓存
+ *
+ * 按conId和(symbol, secType, exchange, currency)两种键索引合约详情，条目在TTL到期或合约到期后失效。
+ * 缓存定期快照到本地JSON文件，启动时从文件预热，重启后无需重新向Gateway查询
+ */
+@Service
+public class ContractDetailsCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContractDetailsCache.class);
+
+    private static final int FILE_VERSION = 1;
+    private static final DateTimeFormatter EXPIRY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @Value("${tws.contract-cache.ttl-minutes:1440}")
+    private long ttlMinutes;
+
+    @Value("${tws.contract-cache.file:data/contract-cache.json}")
+    private String file;
+
+    @Value("${tws.contract-cache.snapshot-interval-seconds:60}")
+    private long snapshotIntervalSeconds;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // conId -> 合约详情
+    private final Map<Integer, CachedContract> byConId = new ConcurrentHashMap<>();
+    // 搜索键 -> 命中的conId列表（按TWS返回顺序）
+    private final Map<String, CachedSearch> bySearchKey = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile long lastSnapshotAt;
+
+    private ScheduledExecutorService snapshotExecutor;
+
+    /**
+     * 缓存的合约详情
+     */
+    public static class CachedContract {
+        public Map<String, Object> details;
+        public long fetchedAt;
+        // 合约到期时间（毫秒），非期货/期权为0
+        public long expiresAt;
+
+        public CachedContract() {
+        }
+
+        CachedContract(Map<String, Object> details, long fetchedAt) {
+            this.details = details;
+            this.fetchedAt = fetchedAt;
+            this.expiresAt = expiryMillis(details);
+        }
+    }
+
+    /**
+     * 缓存的搜索结果
+     */
+    public static class CachedSearch {
+        public String key;
+        public List<Integer> conIds;
+        public long fetchedAt;
+
+        public CachedSearch() {
+        }
+
+        CachedSearch(String key, List<Integer> conIds, long fetchedAt) {
+            this.key = key;
+            this.conIds = conIds;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    /**
+     * 快照文件内容
+     */
+    public static class SnapshotFile {
+        public int version;
+        public long savedAt;
+        public List<CachedContract> contracts = new ArrayList<>();
+        public List<CachedSearch> searches = new ArrayList<>();
+    }
+
+    @PostConstruct
+    public void start() {
+        load();
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TWS-Contract-Cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotExecutor.scheduleWithFixedDelay(this::maintain, snapshotIntervalSeconds, snapshotIntervalSeconds,
+                                                 TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+        save();
+    }
+
+    /**
+     * 搜索键，大小写不敏感
+     */
+    public static String searchKey(String symbol, String secType, String exchange, String currency) {
+        return normalize(symbol) + "|" + normalize(secType) + "|" + normalize(exchange) + "|" + normalize(currency);
+    }
+
+    private static String normalize(String value) {
+        return value != null ? value.trim().toUpperCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * 按conId获取合约详情
+     *
+     * @return 未缓存或已失效时返回null
+     */
+    public Map<String, Object> get(int conId) {
+        CachedContract cached = byConId.get(conId);
+        if (cached != null && isExpired(cached, System.currentTimeMillis())) {
+            evict(conId, cached);
+            cached = null;
+        }
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.details;
+    }
+
+    /**
+     * 按搜索条件获取合约详情列表
+     *
+     * @return 未缓存、搜索结果已过TTL或其中任一合约已失效时返回null
+     */
+    public List<Map<String, Object>> search(String symbol, String secType, String exchange, String currency) {
+        String key = searchKey(symbol, secType, exchange, currency);
+        CachedSearch cached = bySearchKey.get(key);
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.fetchedAt < ttlMillis()) {
+            List<Map<String, Object>> results = new ArrayList<>(cached.conIds.size());
+            for (Integer conId : cached.conIds) {
+                CachedContract contract = byConId.get(conId);
+                if (contract == null || isExpired(contract, now)) {
+                    // 有合约到期时整组重新搜索，以便取到新挂牌的合约
+                    results = null;
+                    break;
+                }
+                results.add(contract.details);
+            }
+            if (results != null) {
+                hits.incrementAndGet();
+                return results;
+            }
+        }
+        if (cached != null) {
+            bySearchKey.remove(key, cached);
+            evictions.incrementAndGet();
+            dirty.set(true);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 当前所有未失效的合约详情
+     */
+    public List<Map<String, Object>> contracts() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> results = new ArrayList<>(byConId.size());
+        for (CachedContract cached : byConId.values()) {
+            if (!isExpired(cached, now)) {
+                results.add(cached.details);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 缓存单个合约详情
+     */
+    public void put(Map<String, Object> details) {
+        int conId = ((Number) details.get("conId")).intValue();
+        byConId.put(conId, new CachedContract(details, System.currentTimeMillis()));
+        dirty.set(true);
+    }
+
+    /**
+     * 缓存一次搜索的全部结果
+     */
+    public void putSearch(String symbol, String secType, String exchange, String currency,
+                          List<Map<String, Object>> results) {
+        List<Integer> conIds = new ArrayList<>(results.size());
+        for (Map<String, Object> details : results) {
+            put(details);
+            conIds.add(((Number) details.get("conId")).intValue());
+        }
+        String key = searchKey(symbol, secType, exchange, currency);
+        bySearchKey.put(key, new CachedSearch(key, conIds, System.currentTimeMillis()));
+        dirty.set(true);
+    }
+
+    /**
+     * 使单个合约失效
+     */
+    public void invalidate(int conId) {
+        CachedContract removed = byConId.remove(conId);
+        if (removed != null) {
+            bySearchKey.values().removeIf(search -> search.conIds.contains(conId));
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * 使一次搜索的结果失效，合约条目保留
+     */
+    public void invalidateSearch(String symbol, String secType, String exchange, String currency) {
+        if (bySearchKey.remove(searchKey(symbol, secType, exchange, currency)) != null) {
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        byConId.clear();
+        bySearchKey.clear();
+        dirty.set(true);
+        logger.info("合约详情缓存已清空");
+    }
+
+    private void evict(int conId, CachedContract cached) {
+        if (byConId.remove(conId, cached)) {
+            evictions.incrementAndGet();
+            dirty.set(true);
+        }
+    }
+
+    private boolean isExpired(CachedContract cached, long now) {
+        return now - cached.fetchedAt >= ttlMillis() || (cached.expiresAt > 0 && now >= cached.expiresAt);
+    }
+
+    private long ttlMillis() {
+        return TimeUnit.MINUTES.toMillis(ttlMinutes);
+    }
+
+    /**
+     * 合约到期时间：realExpirationDate（或lastTradeDateOrContractMonth）当日结束时，按合约时区计算
+     */
+    static long expiryMillis(Map<String, Object> details) {
+        String date = ContractDetailsMapper.stringValue(details, "realExpirationDate");
+        if (date.length() < 8) {
+            date = ContractDetailsMapper.stringValue(details, "lastTradeDateOrContractMonth");
+        }
+        if (date.length() < 8) {
+            return 0;
+        }
+        ZoneId zone = ZoneOffset.UTC;
+        String timeZoneId = ContractDetailsMapper.stringValue(details, "timeZoneId");
+        if (!timeZoneId.isEmpty()) {
+            try {
+                zone = ZoneId.of(timeZoneId);
+            } catch (DateTimeException e) {
+                // 无法识别的时区按UTC处理
+            }
+        }
+        try {
+            return LocalDate.parse(date.substring(0, 8), EXPIRY_FORMAT).plusDays(1)
+                .atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 定期清理失效条目并在有变化时写快照
+     */
+    private void maintain() {
+        try {
+            long now = System.currentTimeMillis();
+            byConId.forEach((conId, cached) -> {
+                if (isExpired(cached, now)) {
+                    evict(conId, cached);
+                }
+            });
+            bySearchKey.forEach((key, search) -> {
+                if (now - search.fetchedAt >= ttlMillis() && bySearchKey.remove(key, search)) {
+                    evictions.incrementAndGet();
+                    dirty.set(true);
+                }
+            });
+            save();
+        } catch (Exception e) {
+            logger.error("合约详情缓存维护异常: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 有变化时把缓存写入快照文件（先写临时文件再原子替换）
+     */
+    public synchronized void save() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        Path path = Paths.get(file);
+        try {
+            SnapshotFile snapshot = new SnapshotFile();
+            snapshot.version = FILE_VERSION;
+            snapshot.savedAt = System.currentTimeMillis();
+            snapshot.contracts.addAll(byConId.values());
+            snapshot.searches.addAll(bySearchKey.values());
+
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            objectMapper.writeValue(temp.toFile(), snapshot);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lastSnapshotAt = snapshot.savedAt;
+            logger.debug("合约详情缓存已保存: {} contracts={}, searches={}", path,
+                         snapshot.contracts.size(), snapshot.searches.size());
+        } catch (Exception e) {
+            dirty.set(true);
+            logger.error("保存合约详情缓存失败: {} - {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * 从快照文件预热，跳过已失效的条目
+     */
+    private void load() {
+        Path path = Paths.get(file);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            SnapshotFile snapshot = objectMapper.readValue(path.toFile(), SnapshotFile.class);
+            if (snapshot.version != FILE_VERSION) {
+                logger.warn("合约详情缓存文件版本不匹配，忽略: {} version={}", path, snapshot.version);
+                return;
+            }
+            long now = System.currentTimeMillis();
+            int skipped = 0;
+            for (CachedContract cached : snapshot.contracts) {
+                if (cached.details == null || !(cached.details.get("conId") instanceof Number)) {
+                    continue;
+                }
+                cached.expiresAt = expiryMillis(cached.details);
+                if (isExpired(cached, now)) {
+                    skipped++;
+                    continue;
+                }
+                byConId.put(((Number) cached.details.get("conId")).intValue(), cached);
+            }
+            for (CachedSearch search : snapshot.searches) {
+                if (search.key != null && search.conIds != null && now - search.fetchedAt < ttlMillis()) {
+                    bySearchKey.put(search.key, search);
+                }
+            }
+            logger.info("合约详情缓存预热: {} contracts={}, searches={}, 已失效={}", path, byConId.size(),
+                        bySearchKey.size(), skipped);
+        } catch (Exception e) {
+            logger.warn("读取合约详情缓存失败，忽略: {} - {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * 获取缓存统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("contracts", byConId.size());
+        stats.put("searches", bySearchKey.size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("ttlMinutes", ttlMinutes);
+        stats.put("file", file);
+        stats.put("lastSnapshotAt", lastSnapshotAt);
+        return stats;
+    }
+}
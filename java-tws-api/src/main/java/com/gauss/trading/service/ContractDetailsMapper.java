@@ -0,0 +1,89 @@
+package com.gauss.trading.service;
+
+import com.ib.client.Contract;
+import com.ib.client.ContractDetails;
+import com.ib.client.Types;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 合约详情与可序列化Map之间的转换
+ *
+ * 合约搜索、合约详情和合约缓存共用同一套字段，null统一转换为空字符串
+ */
+public final class ContractDetailsMapper {
+
+    private ContractDetailsMapper() {
+    }
+
+    /**
+     * 转换为可序列化的Map
+     */
+    public static Map<String, Object> toMap(ContractDetails contractDetails) {
+        Contract contract = contractDetails.contract();
+        Map<String, Object> contractMap = new HashMap<>();
+        contractMap.put("conId", contract.conid());
+        contractMap.put("symbol", nullToEmpty(contract.symbol()));
+        contractMap.put("secType", contract.secType() != null ? contract.secType().name() : "");
+        contractMap.put("exchange", nullToEmpty(contract.exchange()));
+        contractMap.put("currency", nullToEmpty(contract.currency()));
+        contractMap.put("multiplier", nullToEmpty(contract.multiplier()));
+        contractMap.put("tradingClass", nullToEmpty(contract.tradingClass()));
+        contractMap.put("description", nullToEmpty(contract.description()));
+        contractMap.put("localSymbol", nullToEmpty(contract.localSymbol()));
+        contractMap.put("lastTradeDateOrContractMonth", nullToEmpty(contract.lastTradeDateOrContractMonth()));
+
+        // 期权行权价和类型，其他合约为0和空字符串
+        contractMap.put("strike", contract.strike());
+        contractMap.put("right", contract.right() != null && contract.right() != Types.Right.None
+            ? contract.right().getApiString() : "");
+
+        // 到期日期信息
+        contractMap.put("contractMonth", nullToEmpty(contractDetails.contractMonth()));
+        contractMap.put("realExpirationDate", nullToEmpty(contractDetails.realExpirationDate()));
+        contractMap.put("lastTradeTime", nullToEmpty(contractDetails.lastTradeTime()));
+
+        // 交易规则与交易时段
+        contractMap.put("longName", nullToEmpty(contractDetails.longName()));
+        contractMap.put("minTick", contractDetails.minTick());
+        contractMap.put("marketRuleIds", nullToEmpty(contractDetails.marketRuleIds()));
+        contractMap.put("validExchanges", nullToEmpty(contractDetails.validExchanges()));
+        contractMap.put("timeZoneId", nullToEmpty(contractDetails.timeZoneId()));
+        contractMap.put("tradingHours", nullToEmpty(contractDetails.tradingHours()));
+        contractMap.put("liquidHours", nullToEmpty(contractDetails.liquidHours()));
+        return contractMap;
+    }
+
+    /**
+     * 由合约Map重建可用于请求行情或下单的合约对象
+     */
+    public static Contract toContract(Map<String, Object> contractMap) {
+        Contract contract = new Contract();
+        contract.conid(((Number) contractMap.get("conId")).intValue());
+        contract.symbol(stringValue(contractMap, "symbol"));
+        contract.secType(stringValue(contractMap, "secType"));
+        contract.exchange(stringValue(contractMap, "exchange"));
+        contract.currency(stringValue(contractMap, "currency"));
+        contract.lastTradeDateOrContractMonth(stringValue(contractMap, "lastTradeDateOrContractMonth"));
+        contract.multiplier(stringValue(contractMap, "multiplier"));
+        contract.tradingClass(stringValue(contractMap, "tradingClass"));
+        contract.localSymbol(stringValue(contractMap, "localSymbol"));
+        if (contractMap.get("strike") instanceof Number && ((Number) contractMap.get("strike")).doubleValue() > 0) {
+            contract.strike(((Number) contractMap.get("strike")).doubleValue());
+        }
+        if (!stringValue(contractMap, "right").isEmpty()) {
+            contract.right(stringValue(contractMap, "right"));
+        }
+        return contract;
+    }
+
+    public static String stringValue(Map<String, Object> contractMap, String key) {
+        Object value = contractMap.get(key);
+        return value != null ? value.toString() : "";
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -0,0 +1,195 @@
+package com.gauss.trading.service;
+
+import com.ib.client.Contract;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合约注册表
+ *
+ * 每个conId只保存一份合约详情，并分配一个从0递增的整数句柄。行情订阅只保存句柄和int型conId，
+ * 暂停后恢复时由句柄按当前详情重建合约；逐笔和深度订阅只保存conId，订单只保存池中的代码字符串。
+ * 合约详情中的字符串（交易所、货币、时区等）经字符串池去重，同一品种的多个合约共用同一份；
+ * 池不淘汰，随日期变化的交易时段不入池。
+ * 合约详情更新时替换条目，句柄保持不变
+ */
+@Service
+public class ContractRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContractRegistry.class);
+
+    // 句柄表初始容量
+    private static final int INITIAL_CAPACITY = 256;
+
+    // 不进入字符串池的字段：交易时段带日期，每次更新合约详情都不同，入池只会让池不断增长
+    private static final Set<String> UNPOOLED_FIELDS = Set.of("tradingHours", "liquidHours");
+
+    @Autowired
+    private ContractDetailsCache contractCache;
+
+    private final ConcurrentHashMap<Integer, Integer> handlesByConId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> stringPool = new ConcurrentHashMap<>();
+
+    // 句柄 -> 合约，扩容时整体替换，读取无需加锁
+    private volatile ContractHandle[] handles = new ContractHandle[INITIAL_CAPACITY];
+    private int nextHandle;
+
+    private final AtomicLong internCalls = new AtomicLong();
+    private final AtomicLong dedupedStrings = new AtomicLong();
+    private final AtomicLong dedupedChars = new AtomicLong();
+
+    /**
+     * 注册表中的一个合约，不可变
+     */
+    public static final class ContractHandle {
+        public final int handle;
+        public final int conId;
+        public final String symbol;
+        public final String secType;
+        public final String exchange;
+        public final String currency;
+        public final String localSymbol;
+        // ContractDetailsMapper格式的合约详情，只读
+        public final Map<String, Object> details;
+
+        ContractHandle(int handle, Map<String, Object> details) {
+            this.handle = handle;
+            this.conId = ((Number) details.get("conId")).intValue();
+            this.symbol = ContractDetailsMapper.stringValue(details, "symbol");
+            this.secType = ContractDetailsMapper.stringValue(details, "secType");
+            this.exchange = ContractDetailsMapper.stringValue(details, "exchange");
+            this.currency = ContractDetailsMapper.stringValue(details, "currency");
+            this.localSymbol = ContractDetailsMapper.stringValue(details, "localSymbol");
+            this.details = Collections.unmodifiableMap(details);
+        }
+
+        /**
+         * 构建请求用的合约对象；Contract可变，每次返回新实例，字段引用池中的字符串
+         */
+        public Contract toContract() {
+            return ContractDetailsMapper.toContract(details);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("handle", handle);
+            map.put("conId", conId);
+            map.put("symbol", symbol);
+            map.put("secType", secType);
+            map.put("exchange", exchange);
+            map.put("currency", currency);
+            map.put("localSymbol", localSymbol);
+            return map;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        contractCache.contracts().forEach(this::intern);
+        logger.info("合约注册表已从合约缓存加载: contracts={}, strings={}", handlesByConId.size(), stringPool.size());
+    }
+
+    /**
+     * 注册合约详情，返回句柄
+     *
+     * 详情中的字符串值（交易时段除外）就地替换为池中的实例，调用方之后持有的Map与注册表共享同一份字符串
+     */
+    public int intern(Map<String, Object> details) {
+        internCalls.incrementAndGet();
+        for (Map.Entry<String, Object> entry : details.entrySet()) {
+            if (entry.getValue() instanceof String && !UNPOOLED_FIELDS.contains(entry.getKey())) {
+                entry.setValue(dedupe((String) entry.getValue()));
+            }
+        }
+        int conId = ((Number) details.get("conId")).intValue();
+        synchronized (this) {
+            Integer existing = handlesByConId.get(conId);
+            int handle = existing != null ? existing : nextHandle++;
+            ContractHandle[] table = handles;
+            if (handle >= table.length) {
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            table[handle] = new ContractHandle(handle, details);
+            handles = table;
+            if (existing == null) {
+                handlesByConId.put(conId, handle);
+            }
+            return handle;
+        }
+    }
+
+    /**
+     * 字符串去重，返回池中的实例
+     */
+    public String dedupe(String value) {
+        if (value == null || value.isEmpty()) {
+            return "";
+        }
+        String pooled = stringPool.putIfAbsent(value, value);
+        if (pooled == null) {
+            return value;
+        }
+        if (pooled != value) {
+            dedupedStrings.incrementAndGet();
+            dedupedChars.addAndGet(value.length());
+        }
+        return pooled;
+    }
+
+    /**
+     * 按句柄获取合约
+     */
+    public ContractHandle get(int handle) {
+        ContractHandle[] table = handles;
+        return handle >= 0 && handle < table.length ? table[handle] : null;
+    }
+
+    /**
+     * 按conId获取合约，未注册时返回null
+     */
+    public ContractHandle byConId(int conId) {
+        Integer handle = handlesByConId.get(conId);
+        return handle != null ? get(handle) : null;
+    }
+
+    /**
+     * conId对应的句柄，未注册时返回-1
+     */
+    public int handleOf(int conId) {
+        return handlesByConId.getOrDefault(conId, -1);
+    }
+
+    /**
+     * 由注册的合约详情构建请求用的合约对象，未注册时返回null
+     */
+    public Contract toContract(int conId) {
+        ContractHandle contract = byConId(conId);
+        return contract != null ? contract.toContract() : null;
+    }
+
+    /**
+     * 获取注册表统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("contracts", handlesByConId.size());
+        stats.put("capacity", handles.length);
+        stats.put("pooledStrings", stringPool.size());
+        stats.put("internCalls", internCalls.get());
+        stats.put("dedupedStrings", dedupedStrings.get());
+        // 按UTF-16估算，不含String对象头
+        stats.put("dedupedBytes", dedupedChars.get() * 2);
+        return stats;
+    }
+}
@@ -0,0 +1,284 @@
+package com.gauss.trading.service;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个品种的期货链
+ *
+ * 合约按最后交易时刻升序排列，到期时刻和到期日另存为有序数组，
+ * 主力合约、后续N个到期和某日有效合约都通过二分查找得到。实例不可变，刷新时整体替换
+ */
+public class FuturesChain {
+
+    private static final DateTimeFormatter EXPIRY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm[:ss]");
+
+    private final String root;
+    private final String exchange;
+    private final String currency;
+    private final List<Entry> entries;
+    // 与entries一一对应：最后交易时刻（毫秒）和到期日（epoch day）
+    private final long[] lastTradeMillis;
+    private final long[] expiryDays;
+    private final long builtAt;
+
+    /**
+     * 链中的一个合约
+     */
+    public static class Entry {
+        public final int conId;
+        public final String localSymbol;
+        public final String lastTradeDateOrContractMonth;
+        public final String realExpirationDate;
+        public final LocalDate expiryDate;
+        public final long lastTradeMillis;
+        // ContractDetailsMapper格式的完整合约详情
+        public final Map<String, Object> details;
+
+        Entry(Map<String, Object> details, LocalDate expiryDate, long lastTradeMillis) {
+            this.conId = ((Number) details.get("conId")).intValue();
+            this.localSymbol = ContractDetailsMapper.stringValue(details, "localSymbol");
+            this.lastTradeDateOrContractMonth = ContractDetailsMapper.stringValue(details, "lastTradeDateOrContractMonth");
+            this.realExpirationDate = ContractDetailsMapper.stringValue(details, "realExpirationDate");
+            this.expiryDate = expiryDate;
+            this.lastTradeMillis = lastTradeMillis;
+            this.details = details;
+        }
+
+        /**
+         * 展示用的合约代码，优先localSymbol
+         */
+        public String label() {
+            return !localSymbol.isEmpty() ? localSymbol : String.valueOf(conId);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("conId", conId);
+            map.put("localSymbol", label());
+            map.put("contractMonth", ContractDetailsMapper.stringValue(details, "contractMonth"));
+            map.put("expiry", expiryDate.toString());
+            map.put("lastTradeTime", lastTradeMillis);
+            return map;
+        }
+    }
+
+    private FuturesChain(String root, String exchange, String currency, List<Entry> sortedEntries, long builtAt) {
+        this.root = root;
+        this.exchange = exchange;
+        this.currency = currency;
+        this.entries = Collections.unmodifiableList(sortedEntries);
+        this.lastTradeMillis = new long[sortedEntries.size()];
+        this.expiryDays = new long[sortedEntries.size()];
+        for (int i = 0; i < sortedEntries.size(); i++) {
+            lastTradeMillis[i] = sortedEntries.get(i).lastTradeMillis;
+            expiryDays[i] = sortedEntries.get(i).expiryDate.toEpochDay();
+        }
+        this.builtAt = builtAt;
+    }
+
+    /**
+     * 由合约详情构建期货链，无法解析到期日的合约被忽略，同一conId只保留一个
+     */
+    public static FuturesChain build(String root, String exchange, String currency,
+                                     List<Map<String, Object>> contracts) {
+        Map<Integer, Entry> byConId = new LinkedHashMap<>();
+        for (Map<String, Object> details : contracts) {
+            Entry entry = toEntry(details);
+            if (entry != null) {
+                byConId.put(entry.conId, entry);
+            }
+        }
+        List<Entry> sorted = new ArrayList<>(byConId.values());
+        sorted.sort(Comparator.comparingLong((Entry entry) -> entry.lastTradeMillis)
+                        .thenComparingInt(entry -> entry.conId));
+        return new FuturesChain(root, exchange, currency, sorted, System.currentTimeMillis());
+    }
+
+    /**
+     * 合并新获取的合约：已有合约以新数据为准，新挂牌的合约加入，已到期的合约移除
+     */
+    public FuturesChain merge(List<Map<String, Object>> contracts, long nowMillis) {
+        List<Map<String, Object>> merged = new ArrayList<>();
+        for (int i = indexAfter(nowMillis); i < entries.size(); i++) {
+            merged.add(entries.get(i).details);
+        }
+        merged.addAll(contracts);
+        FuturesChain chain = build(root, exchange, currency, merged);
+        return chain.withoutExpired(nowMillis);
+    }
+
+    /**
+     * 去掉最后交易时刻已过的合约；没有到期合约时返回自身
+     */
+    public FuturesChain withoutExpired(long nowMillis) {
+        int first = indexAfter(nowMillis);
+        if (first == 0) {
+            return this;
+        }
+        return new FuturesChain(root, exchange, currency, new ArrayList<>(entries.subList(first, entries.size())),
+                                builtAt);
+    }
+
+    /**
+     * 第一个最后交易时刻晚于指定时刻的合约下标，没有时返回size()
+     */
+    public int indexAfter(long millis) {
+        int low = 0;
+        int high = lastTradeMillis.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lastTradeMillis[mid] <= millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 第一个到期日晚于（strict为true）或不早于指定日期的合约下标，没有时返回size()
+     */
+    public int indexByExpiryDate(LocalDate date, boolean strict) {
+        long day = date.toEpochDay();
+        int low = 0;
+        int high = expiryDays.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (expiryDays[mid] < day || (strict && expiryDays[mid] == day)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 指定时刻的主力（最近未到期）合约
+     */
+    public Entry frontMonth(long nowMillis) {
+        int index = indexAfter(nowMillis);
+        return index < entries.size() ? entries.get(index) : null;
+    }
+
+    /**
+     * 指定时刻起的后续count个到期合约（含主力）
+     */
+    public List<Entry> nextExpiries(long nowMillis, int count) {
+        int from = indexAfter(nowMillis);
+        int to = (int) Math.min(entries.size(), (long) from + Math.max(0, count));
+        return entries.subList(from, to);
+    }
+
+    /**
+     * 指定日期仍在交易的最近合约（到期日不早于该日期）
+     */
+    public Entry activeOn(LocalDate date) {
+        int index = indexByExpiryDate(date, false);
+        return index < entries.size() ? entries.get(index) : null;
+    }
+
+    public Entry get(int index) {
+        return entries.get(index);
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public String root() {
+        return root;
+    }
+
+    public long builtAt() {
+        return builtAt;
+    }
+
+    public Map<String, Object> toMap(long nowMillis, int count) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("root", root);
+        map.put("exchange", exchange);
+        map.put("currency", currency);
+        map.put("size", entries.size());
+        map.put("builtAt", builtAt);
+        Entry front = frontMonth(nowMillis);
+        map.put("front", front != null ? front.toMap() : null);
+        List<Map<String, Object>> next = new ArrayList<>();
+        nextExpiries(nowMillis, count).forEach(entry -> next.add(entry.toMap()));
+        map.put("expiries", next);
+        return map;
+    }
+
+    private static Entry toEntry(Map<String, Object> details) {
+        if (!(details.get("conId") instanceof Number)) {
+            return null;
+        }
+        LocalDate expiry = expiryDateOf(details);
+        if (expiry == null) {
+            return null;
+        }
+        return new Entry(details, expiry, lastTradeMillisOf(details, expiry));
+    }
+
+    /**
+     * 到期日，优先使用realExpirationDate
+     */
+    static LocalDate expiryDateOf(Map<String, Object> details) {
+        String expiry = ContractDetailsMapper.stringValue(details, "realExpirationDate");
+        if (expiry.length() < 8) {
+            expiry = ContractDetailsMapper.stringValue(details, "lastTradeDateOrContractMonth");
+        }
+        if (expiry.length() < 8) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(expiry.substring(0, 8), EXPIRY_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 最后交易时刻：到期日加lastTradeTime，按合约时区换算；缺少时间时取到期日结束
+     */
+    private static long lastTradeMillisOf(Map<String, Object> details, LocalDate expiry) {
+        ZoneId zone = ZoneOffset.UTC;
+        String timeZoneId = ContractDetailsMapper.stringValue(details, "timeZoneId");
+        if (!timeZoneId.isEmpty()) {
+            try {
+                zone = ZoneId.of(timeZoneId);
+            } catch (DateTimeException e) {
+                // 无法识别的时区按UTC处理
+            }
+        }
+        String lastTradeTime = ContractDetailsMapper.stringValue(details, "lastTradeTime");
+        if (!lastTradeTime.isEmpty()) {
+            try {
+                return expiry.atTime(LocalTime.parse(lastTradeTime, TIME_FORMAT)).atZone(zone)
+                    .toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // 格式不符时按到期日结束处理
+            }
+        }
+        return expiry.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli() - 1;
+    }
+}
@@ -0,0 +1,95 @@
+package com.gauss.trading.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 期货链索引
+ *
+ * 按(品种, 交易所, 货币)保存期货链，由完整的合约详情搜索结果构建。
+ * 查询时先去掉已到期的合约；剩余合约不足或超过刷新间隔时重新搜索（经合约缓存和请求节流），
+ * 并把新挂牌的合约合并进现有链
+ */
+@Service
+public class FuturesChainIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(FuturesChainIndex.class);
+
+    @Autowired
+    private TwsContractService contractService;
+
+    // 未到期合约少于该数量时重新搜索
+    @Value("${tws.futures-chain.min-contracts:3}")
+    private int minContracts;
+
+    @Value("${tws.futures-chain.refresh-hours:24}")
+    private long refreshHours;
+
+    private final ConcurrentHashMap<String, FuturesChain> chains = new ConcurrentHashMap<>();
+
+    private static String key(String root, String exchange, String currency) {
+        return ContractDetailsCache.searchKey(root, "FUT", exchange, currency);
+    }
+
+    /**
+     * 获取期货链，必要时刷新
+     */
+    public CompletableFuture<FuturesChain> getChain(String root, String exchange, String currency) {
+        String key = key(root, exchange, currency);
+        long now = System.currentTimeMillis();
+        FuturesChain current = chains.get(key);
+        if (current != null) {
+            FuturesChain pruned = current.withoutExpired(now);
+            if (pruned != current) {
+                logger.info("期货链移除到期合约: root={}, {} -> {}", root, current.size(), pruned.size());
+                chains.replace(key, current, pruned);
+            }
+            if (pruned.size() >= minContracts && now - pruned.builtAt() < TimeUnit.HOURS.toMillis(refreshHours)) {
+                return CompletableFuture.completedFuture(pruned);
+            }
+        }
+        return refresh(root, exchange, currency);
+    }
+
+    /**
+     * 重新搜索并合并到现有链
+     */
+    public CompletableFuture<FuturesChain> refresh(String root, String exchange, String currency) {
+        String key = key(root, exchange, currency);
+        return contractService.searchAll(root, "FUT", exchange, currency).thenApply(contracts -> {
+            long now = System.currentTimeMillis();
+            FuturesChain chain = chains.compute(key, (k, current) -> current == null
+                ? FuturesChain.build(root, exchange, currency, contracts).withoutExpired(now)
+                : current.merge(contracts, now));
+            logger.info("期货链已更新: root={}, exchange={}, contracts={}", root, exchange, chain.size());
+            return chain;
+        });
+    }
+
+    /**
+     * 新挂牌合约可能尚未出现在缓存的搜索结果中，强制刷新前先使缓存失效
+     */
+    public CompletableFuture<FuturesChain> forceRefresh(String root, String exchange, String currency) {
+        contractService.invalidateSearch(root, "FUT", exchange, currency);
+        return refresh(root, exchange, currency);
+    }
+
+    /**
+     * 获取已加载的期货链概况
+     */
+    public Map<String, Object> getChains() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> result = new HashMap<>();
+        chains.forEach((key, chain) -> result.put(key, chain.toMap(now, chain.size())));
+        return result;
+    }
+}
@@ -0,0 +1,181 @@
+package com.gauss.trading.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 哈希时间轮
+ *
+ * 单个线程按固定刻度推进，定时任务按到期刻度散列到各个槽，每刻只检查当前槽；
+ * 大量短周期定时任务共享一个线程，调度和取消都是O(1)。到期任务交给执行器运行，
+ * 时间轮线程只负责计时，精度为一个刻度
+ */
+public class HashedTimerWheel {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashedTimerWheel.class);
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<List<Timeout>> wheel;
+    private final Executor executor;
+    private final Thread worker;
+
+    // 新加入的任务先放入队列，由时间轮线程在下一刻放入对应的槽；槽只由时间轮线程访问
+    private final ConcurrentLinkedQueue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final long startNanos;
+    private volatile boolean running = true;
+
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * 定时任务句柄
+     */
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * 取消任务，已经开始执行的任务不受影响
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * @param threadName 时间轮线程名
+     * @param tickMillis 刻度（毫秒）
+     * @param wheelSize  槽数，向上取整为2的幂
+     * @param executor   到期任务的执行器
+     */
+    public HashedTimerWheel(String threadName, long tickMillis, int wheelSize, Executor executor) {
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.mask = size - 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.executor = executor;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, threadName);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 在delayMillis毫秒后执行任务（至少延迟一个刻度）
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long elapsed = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        // 向上取整，保证不早于要求的时间执行
+        long deadlineTick = Math.max(1, (elapsed + tickNanos - 1) / tickNanos);
+        Timeout timeout = new Timeout(task, deadlineTick);
+        pendingTimeouts.add(timeout);
+        scheduled.incrementAndGet();
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        break;
+                    }
+                }
+            }
+            tick++;
+            transferPending(tick);
+            expireBucket(tick);
+        }
+        logger.info("时间轮线程已停止: {}", worker.getName());
+    }
+
+    private void transferPending(long currentTick) {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                cancelled.incrementAndGet();
+                continue;
+            }
+            // 已经过期的任务放在当前槽，本刻立即执行
+            long targetTick = Math.max(timeout.deadlineTick, currentTick);
+            timeout.remainingRounds = (targetTick - currentTick) >>> Long.numberOfTrailingZeros(mask + 1);
+            wheel.get((int) (targetTick & mask)).add(timeout);
+        }
+    }
+
+    private void expireBucket(long currentTick) {
+        List<Timeout> bucket = wheel.get((int) (currentTick & mask));
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout timeout = bucket.get(i);
+            if (timeout.cancelled) {
+                cancelled.incrementAndGet();
+            } else if (timeout.remainingRounds <= 0) {
+                expired.incrementAndGet();
+                try {
+                    executor.execute(timeout.task);
+                } catch (Exception e) {
+                    logger.error("提交定时任务失败: {}", e.getMessage());
+                }
+            } else {
+                timeout.remainingRounds--;
+                bucket.set(kept++, timeout);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    public long scheduledCount() {
+        return scheduled.get();
+    }
+
+    public long expiredCount() {
+        return expired.get();
+    }
+
+    public long cancelledCount() {
+        return cancelled.get();
+    }
+
+    public int wheelSize() {
+        return mask + 1;
+    }
+
+    public long tickMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+}
@@ -0,0 +1,133 @@
+package com.gauss.trading.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 行情增量历史
+ *
+ * 按列保存单个合约最近N次更新（seq、变化掩码及更新后的字段值），
+ * 用于客户端从指定seq补齐缺失的增量
+ */
+public class MarketDataHistory {
+
+    private final int capacity;
+    private final int mask;
+    private final long[] seqs;
+    private final int[] changedMasks;
+    private final long[] timestamps;
+    private final double[] lastPrices;
+    private final double[] bids;
+    private final double[] asks;
+    private final int[] bidSizes;
+    private final int[] askSizes;
+    private final int[] volumes;
+    private final String[] symbols;
+    private final boolean[] pausedFlags;
+
+    // 已写入的总条数
+    private long count;
+
+    public MarketDataHistory(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.seqs = new long[size];
+        this.changedMasks = new int[size];
+        this.timestamps = new long[size];
+        this.lastPrices = new double[size];
+        this.bids = new double[size];
+        this.asks = new double[size];
+        this.bidSizes = new int[size];
+        this.askSizes = new int[size];
+        this.volumes = new int[size];
+        this.symbols = new String[size];
+        this.pausedFlags = new boolean[size];
+    }
+
+    /**
+     * 记录一次更新（在TWS消息线程调用）
+     */
+    public synchronized void record(long seq, int changedMask, TwsMarketDataService.MarketDataInfo info) {
+        int index = (int) (count & mask);
+        seqs[index] = seq;
+        changedMasks[index] = changedMask;
+        timestamps[index] = info.timestamp;
+        lastPrices[index] = info.lastPrice;
+        bids[index] = info.bid;
+        asks[index] = info.ask;
+        bidSizes[index] = info.bidSize;
+        askSizes[index] = info.askSize;
+        volumes[index] = info.volume;
+        symbols[index] = info.symbol;
+        pausedFlags[index] = info.paused;
+        count++;
+    }
+
+    /**
+     * 获取seq大于fromSeq的全部增量
+     *
+     * @return 按seq升序的增量列表；历史已被覆盖、无法从fromSeq连续补齐时返回null
+     */
+    public synchronized List<Map<String, Object>> since(long fromSeq) {
+        int available = (int) Math.min(count, capacity);
+        long oldestIndex = count - available;
+        // 环形缓冲区尚未覆盖时保存的是完整历史，任何fromSeq都可以补齐
+        if (count > capacity && fromSeq + 1 < seqs[(int) (oldestIndex & mask)]) {
+            return null;
+        }
+
+        List<Map<String, Object>> deltas = new ArrayList<>();
+        for (long i = oldestIndex; i < count; i++) {
+            int index = (int) (i & mask);
+            if (seqs[index] > fromSeq) {
+                deltas.add(toDeltaMap(seqs[index], changedMasks[index], timestamps[index], lastPrices[index],
+                                      bids[index], asks[index], bidSizes[index], askSizes[index], volumes[index],
+                                      symbols[index], pausedFlags[index]));
+            }
+        }
+        return deltas;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * 构建增量消息体，只包含掩码中标记为变化的字段
+     */
+    public static Map<String, Object> toDeltaMap(long seq, int changedMask, long timestamp, double lastPrice,
+                                                 double bid, double ask, int bidSize, int askSize, int volume,
+                                                 String symbol, boolean paused) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("seq", seq);
+        map.put("timestamp", timestamp);
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_LAST) != 0) {
+            map.put("lastPrice", lastPrice);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_BID) != 0) {
+            map.put("bid", bid);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_ASK) != 0) {
+            map.put("ask", ask);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_BID_SIZE) != 0) {
+            map.put("bidSize", bidSize);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_ASK_SIZE) != 0) {
+            map.put("askSize", askSize);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_VOLUME) != 0) {
+            map.put("volume", volume);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_SYMBOL) != 0) {
+            map.put("symbol", symbol);
+        }
+        if ((changedMask & TwsMarketDataService.MarketDataInfo.FIELD_PAUSED) != 0) {
+            map.put("paused", paused);
+        }
+        return map;
+    }
+}
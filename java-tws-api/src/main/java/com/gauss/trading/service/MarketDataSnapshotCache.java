@@ -0,0 +1,87 @@
+package com.gauss.trading.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 活跃订阅快照缓存
+ *
+ * 为每个合约保存预序列化的JSON字节，只在该合约的版本号变化时重新序列化；
+ * 整体响应按全局代数缓存，代数不变时直接复用同一份字节和ETag
+ */
+public class MarketDataSnapshotCache {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final byte[] PREFIX = "{\"success\":true,\"data\":{".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUFFIX = "}}".getBytes(StandardCharsets.UTF_8);
+
+    // 每次启动使用不同的前缀，避免重启后代数重复导致客户端误用旧缓存
+    private final String bootId = Long.toString(System.currentTimeMillis(), 36);
+
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private long cachedGeneration = -1;
+    private Snapshot cachedSnapshot;
+
+    private static class Entry {
+        long version = -1;
+        byte[] json;
+    }
+
+    /**
+     * 序列化后的快照
+     */
+    public static class Snapshot {
+        public final byte[] body;
+        public final String etag;
+
+        Snapshot(byte[] body, String etag) {
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * 获取指定代数的快照，必要时只重建版本发生变化的合约
+     */
+    public synchronized Snapshot get(long generation, Map<Integer, TwsMarketDataService.MarketDataInfo> subscriptions)
+            throws Exception {
+        if (cachedSnapshot != null && generation == cachedGeneration) {
+            return cachedSnapshot;
+        }
+
+        // 清理已取消的订阅
+        entries.keySet().retainAll(subscriptions.keySet());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(PREFIX.length + SUFFIX.length + entries.size() * 256);
+        out.write(PREFIX);
+        boolean first = true;
+        for (Map.Entry<Integer, TwsMarketDataService.MarketDataInfo> subscription : subscriptions.entrySet()) {
+            TwsMarketDataService.MarketDataInfo info = subscription.getValue();
+            Entry entry = entries.computeIfAbsent(subscription.getKey(), key -> new Entry());
+            long version = info.version;
+            if (entry.version != version || entry.json == null) {
+                entry.json = objectMapper.writeValueAsBytes(info.toMap());
+                entry.version = version;
+            }
+
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write('"');
+            out.write(String.valueOf(subscription.getKey()).getBytes(StandardCharsets.UTF_8));
+            out.write('"');
+            out.write(':');
+            out.write(entry.json);
+        }
+        out.write(SUFFIX);
+
+        cachedGeneration = generation;
+        cachedSnapshot = new Snapshot(out.toByteArray(), "\"" + bootId + "-" + generation + "\"");
+        return cachedSnapshot;
+    }
+}
@@ -0,0 +1,288 @@
+package com.gauss.trading.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内部行情事件总线
+ *
+ * 报价、逐笔、深度、K线和订单事件统一从这里分发：WebSocket等推送端以监听器方式接入，
+ * 流式接口通过stream()获得带背压的Flux。流订阅者只在下游有需求时发出事件，
+ * 需求不足时报价按合约合并为最新一条，其他事件进入有界缓冲区，满时丢弃最早的
+ */
+@Service
+public class MarketEventBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(MarketEventBus.class);
+
+    public static final String TYPE_QUOTE = "quote";
+    public static final String TYPE_TRADE = "trade";
+    public static final String TYPE_DEPTH = "depth";
+    public static final String TYPE_BAR = "bar";
+    public static final String TYPE_ORDER = "order";
+
+    @Value("${tws.stream.buffer-size:1024}")
+    private int bufferSize;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<StreamSubscriber> streamSubscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 推送端监听器
+     */
+    public interface Listener {
+        /**
+         * 报价更新，info为实时对象，changedMask为本次变化的字段
+         */
+        void onQuote(TwsMarketDataService.MarketDataInfo info, int changedMask);
+
+        /**
+         * 其他事件（trade / depth / bar / order）
+         */
+        void onEvent(String type, String symbol, Map<String, Object> data);
+
+        /**
+         * 是否有客户端关心该合约
+         */
+        boolean hasSubscribers(String symbol);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 是否有监听器或流订阅者关心该合约，生产者据此跳过构建事件
+     */
+    public boolean hasSubscribers(String symbol) {
+        for (Listener listener : listeners) {
+            if (listener.hasSubscribers(symbol)) {
+                return true;
+            }
+        }
+        for (StreamSubscriber subscriber : streamSubscribers) {
+            if (subscriber.wantsSymbol(symbol)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 发布报价更新
+     */
+    public void publishQuote(TwsMarketDataService.MarketDataInfo info, int changedMask) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onQuote(info, changedMask);
+            } catch (Exception e) {
+                logger.error("分发报价事件异常: {}", e.getMessage(), e);
+            }
+        }
+        for (StreamSubscriber subscriber : streamSubscribers) {
+            if (subscriber.wants(TYPE_QUOTE, info.symbol)) {
+                subscriber.offerQuote(info);
+            }
+        }
+    }
+
+    /**
+     * 发布其他事件
+     */
+    public void publish(String type, String symbol, Map<String, Object> data) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onEvent(type, symbol, data);
+            } catch (Exception e) {
+                logger.error("分发{}事件异常: {}", type, e.getMessage(), e);
+            }
+        }
+        for (StreamSubscriber subscriber : streamSubscribers) {
+            if (subscriber.wants(type, symbol)) {
+                subscriber.offer(type, symbol, data);
+            }
+        }
+    }
+
+    /**
+     * 订阅事件流
+     *
+     * @param symbols 关心的合约，为空表示全部；订单事件不按合约过滤
+     * @param types   关心的事件类型，为空表示全部
+     */
+    public Flux<Map<String, Object>> stream(Set<String> symbols, Set<String> types) {
+        return Flux.create(sink -> {
+            StreamSubscriber subscriber = new StreamSubscriber(sink, symbols, types, bufferSize);
+            streamSubscribers.add(subscriber);
+            sink.onRequest(n -> subscriber.drain());
+            sink.onDispose(() -> {
+                streamSubscribers.remove(subscriber);
+                logger.info("事件流订阅结束: symbols={}, types={}, 已发送={}, 合并={}, 丢弃={}",
+                            symbols, types, subscriber.emitted.get(), subscriber.conflated.get(),
+                            subscriber.dropped.get());
+            });
+            logger.info("事件流订阅: symbols={}, types={}", symbols, types);
+        });
+    }
+
+    /**
+     * 获取流订阅统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("listeners", listeners.size());
+        stats.put("streams", streamSubscribers.size());
+        long pending = 0;
+        for (StreamSubscriber subscriber : streamSubscribers) {
+            pending += subscriber.pending();
+        }
+        stats.put("pendingEvents", pending);
+        return stats;
+    }
+
+    /**
+     * 单个流订阅者：按需求发出事件，需求不足时合并或丢弃
+     */
+    private static class StreamSubscriber {
+        private final FluxSink<Map<String, Object>> sink;
+        private final Set<String> symbols;
+        private final Set<String> types;
+        private final int capacity;
+
+        // 以下结构由this加锁保护；quote条目只保存MarketDataInfo引用，发出时再读取最新值
+        private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        private final Map<String, Pending> pendingQuotes = new HashMap<>();
+
+        // 发出循环的重入计数，保证同一时刻只有一个线程调用sink.next
+        private final AtomicInteger wip = new AtomicInteger();
+
+        final AtomicLong emitted = new AtomicLong();
+        final AtomicLong conflated = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+
+        StreamSubscriber(FluxSink<Map<String, Object>> sink, Set<String> symbols, Set<String> types, int capacity) {
+            this.sink = sink;
+            this.symbols = symbols;
+            this.types = types;
+            this.capacity = Math.max(1, capacity);
+        }
+
+        boolean wantsSymbol(String symbol) {
+            return symbols.isEmpty() || symbols.contains(symbol);
+        }
+
+        boolean wants(String type, String symbol) {
+            if (!types.isEmpty() && !types.contains(type)) {
+                return false;
+            }
+            return TYPE_ORDER.equals(type) || wantsSymbol(symbol);
+        }
+
+        void offerQuote(TwsMarketDataService.MarketDataInfo info) {
+            synchronized (this) {
+                if (pendingQuotes.containsKey(info.symbol)) {
+                    // 尚未发出的报价在发出时读取最新值，相当于合并
+                    conflated.incrementAndGet();
+                } else {
+                    Pending pending = new Pending(TYPE_QUOTE, info.symbol, null, info);
+                    enqueue(pending);
+                    pendingQuotes.put(info.symbol, pending);
+                }
+            }
+            drain();
+        }
+
+        void offer(String type, String symbol, Map<String, Object> data) {
+            synchronized (this) {
+                enqueue(new Pending(type, symbol, data, null));
+            }
+            drain();
+        }
+
+        private void enqueue(Pending pending) {
+            if (queue.size() >= capacity) {
+                Pending oldest = queue.pollFirst();
+                if (oldest != null && oldest.quote != null) {
+                    pendingQuotes.remove(oldest.symbol, oldest);
+                }
+                dropped.incrementAndGet();
+            }
+            queue.addLast(pending);
+        }
+
+        synchronized int pending() {
+            return queue.size();
+        }
+
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!sink.isCancelled() && sink.requestedFromDownstream() > 0) {
+                    Pending pending;
+                    synchronized (this) {
+                        pending = queue.pollFirst();
+                        if (pending != null && pending.quote != null) {
+                            pendingQuotes.remove(pending.symbol, pending);
+                        }
+                    }
+                    if (pending == null) {
+                        break;
+                    }
+                    sink.next(pending.toEvent());
+                    emitted.incrementAndGet();
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    /**
+     * 等待发出的事件
+     */
+    private static class Pending {
+        final String type;
+        final String symbol;
+        final Map<String, Object> data;
+        final TwsMarketDataService.MarketDataInfo quote;
+
+        Pending(String type, String symbol, Map<String, Object> data, TwsMarketDataService.MarketDataInfo quote) {
+            this.type = type;
+            this.symbol = symbol;
+            this.data = data;
+            this.quote = quote;
+        }
+
+        Map<String, Object> toEvent() {
+            Map<String, Object> event = new HashMap<>();
+            event.put("type", type);
+            if (symbol != null) {
+                event.put("symbol", symbol);
+            }
+            if (quote != null) {
+                // 先读seq再读数据，与WebSocket快照一致
+                event.put("seq", quote.version);
+                event.put("data", quote.toMap());
+            } else {
+                event.put("data", data);
+            }
+            event.put("timestamp", System.currentTimeMillis());
+            return event;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.gauss.trading.service;
+
+import com.ib.client.PriceIncrement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 价格最小变动规则
+ *
+ * 对应TWS的marketRuleId：价格绝对值不低于lowEdge时使用对应的increment，分段按lowEdge升序存为数组，
+ * 查找分段为二分查找。有效价格为increment的整数倍。实例不可变
+ */
+public class MarketRule {
+
+    // 判断increment倒数是否为整数的相对误差
+    private static final double EPSILON = 1e-7;
+
+    // 判断价格是否落在刻度上的误差，以刻度数计的绝对值，只容许浮点运算误差，不随价格增大而放宽
+    private static final double TICK_TOLERANCE = 1e-9;
+
+    /**
+     * 取整方向
+     */
+    public enum Snap {
+        NEAREST, UP, DOWN
+    }
+
+    private final int ruleId;
+    private final double[] lowEdges;
+    private final double[] increments;
+    // increment的倒数为整数时保存该整数，用除法得到更精确的结果，例如0.01对应100
+    private final long[] inverseIncrements;
+
+    public MarketRule(int ruleId, double[] lowEdges, double[] increments) {
+        if (lowEdges.length == 0 || lowEdges.length != increments.length) {
+            throw new IllegalArgumentException("无效的市场规则: ruleId=" + ruleId);
+        }
+        this.ruleId = ruleId;
+        this.lowEdges = lowEdges;
+        this.increments = increments;
+        this.inverseIncrements = new long[increments.length];
+        for (int i = 0; i < increments.length; i++) {
+            double inverse = 1 / increments[i];
+            long rounded = Math.round(inverse);
+            inverseIncrements[i] = Math.abs(inverse - rounded) < EPSILON * inverse ? rounded : 0;
+        }
+    }
+
+    /**
+     * 由reqMarketRule的结果构建，分段按lowEdge排序
+     */
+    public static MarketRule of(int ruleId, PriceIncrement[] priceIncrements) {
+        List<PriceIncrement> sorted = new ArrayList<>(List.of(priceIncrements));
+        sorted.sort((left, right) -> Double.compare(left.lowEdge(), right.lowEdge()));
+        double[] lowEdges = new double[sorted.size()];
+        double[] increments = new double[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            lowEdges[i] = sorted.get(i).lowEdge();
+            increments[i] = sorted.get(i).increment();
+        }
+        return new MarketRule(ruleId, lowEdges, increments);
+    }
+
+    /**
+     * 只有一个分段的规则，合约没有marketRuleIds时按minTick构建
+     */
+    public static MarketRule uniform(double minTick) {
+        return new MarketRule(0, new double[] {0}, new double[] {minTick});
+    }
+
+    /**
+     * 价格所在分段的下标
+     */
+    private int segment(double price) {
+        double value = Math.abs(price);
+        int low = 0;
+        int high = lowEdges.length - 1;
+        // 最后一个lowEdge <= value的分段，低于第一个分段时使用第一个
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lowEdges[mid] <= value) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 该价格适用的最小变动
+     */
+    public double increment(double price) {
+        return increments[segment(price)];
+    }
+
+    /**
+     * 价格是否落在刻度上
+     */
+    public boolean isValid(double price) {
+        double ticks = price / increments[segment(price)];
+        return onTick(ticks);
+    }
+
+    /**
+     * 刻度数是否为整数；刻度数很大时按其ulp放宽，保证价格本身的表示误差不会被判为无效
+     */
+    private static boolean onTick(double ticks) {
+        return Math.abs(ticks - Math.rint(ticks)) <= TICK_TOLERANCE + 8 * Math.ulp(ticks);
+    }
+
+    /**
+     * 取整到有效价格；已在刻度上的价格原样返回。UP的结果不低于原价，DOWN的结果不高于原价
+     */
+    public double round(double price, Snap snap) {
+        int index = segment(price);
+        double ticks = price / increments[index];
+        long count;
+        if (onTick(ticks)) {
+            count = (long) Math.rint(ticks);
+        } else if (snap == Snap.UP) {
+            count = (long) Math.ceil(ticks);
+        } else if (snap == Snap.DOWN) {
+            count = (long) Math.floor(ticks);
+        } else {
+            count = (long) Math.rint(ticks);
+        }
+        double rounded = toPrice(index, count);
+        // 换算回价格时的舍入误差不能让结果越过原价
+        if (snap == Snap.UP && rounded < price && !onTick(ticks)) {
+            rounded = toPrice(index, count + 1);
+        } else if (snap == Snap.DOWN && rounded > price && !onTick(ticks)) {
+            rounded = toPrice(index, count - 1);
+        }
+        return rounded;
+    }
+
+    private double toPrice(int index, long count) {
+        return inverseIncrements[index] > 0 ? (double) count / inverseIncrements[index] : count * increments[index];
+    }
+
+    public int ruleId() {
+        return ruleId;
+    }
+
+    public int segments() {
+        return lowEdges.length;
+    }
+
+    public Map<String, Object> toMap() {
+        List<Map<String, Object>> segments = new ArrayList<>(lowEdges.length);
+        for (int i = 0; i < lowEdges.length; i++) {
+            Map<String, Object> segment = new HashMap<>();
+            segment.put("lowEdge", lowEdges[i]);
+            segment.put("increment", increments[i]);
+            segments.add(segment);
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("ruleId", ruleId);
+        map.put("increments", segments);
+        return map;
+    }
+}
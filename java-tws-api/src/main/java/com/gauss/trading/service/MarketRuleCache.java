@@ -0,0 +1,248 @@
+package com.gauss.trading.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 价格最小变动规则缓存
+ *
+ * 合约详情的marketRuleIds与validExchanges一一对应。这里定期收集合约缓存中引用的全部规则ID，
+ * 经节流发出reqMarketRule并缓存结果，之后按合约和交易所在本地校验价格或取整到有效刻度，无需等TWS拒单。
+ * 规则尚未加载时按合约的minTick处理
+ */
+@Service
+public class MarketRuleCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(MarketRuleCache.class);
+
+    // 启动后首次检查的延迟，之后按refresh-seconds检查新出现的规则ID
+    private static final long INITIAL_DELAY_SECONDS = 10;
+
+    @Autowired
+    private TwsConnectionService connectionService;
+
+    @Autowired
+    private TwsRequestPacer requestPacer;
+
+    @Autowired
+    private ContractDetailsCache contractCache;
+
+    @Autowired
+    private ContractRegistry contractRegistry;
+
+    @Value("${tws.market-rules.refresh-seconds:300}")
+    private long refreshSeconds;
+
+    private final ConcurrentHashMap<Integer, MarketRule> rules = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, CompletableFuture<MarketRule>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong loaded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    private ScheduledExecutorService refreshExecutor;
+
+    /**
+     * 合约在某个交易所适用的规则
+     */
+    public static class ResolvedRule {
+        public final int conId;
+        public final String exchange;
+        public final MarketRule rule;
+        // 规则未加载，按minTick处理
+        public final boolean fallback;
+
+        ResolvedRule(int conId, String exchange, MarketRule rule, boolean fallback) {
+            this.conId = conId;
+            this.exchange = exchange;
+            this.rule = rule;
+            this.fallback = fallback;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TWS-Market-Rules");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.scheduleWithFixedDelay(this::loadReferencedRules, INITIAL_DELAY_SECONDS, refreshSeconds,
+                                               TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 加载合约缓存中引用但尚未缓存的全部规则
+     *
+     * @return 本次发出请求的规则数
+     */
+    public int loadReferencedRules() {
+        if (!connectionService.isConnected()) {
+            return 0;
+        }
+        Set<Integer> missing = new TreeSet<>();
+        for (Map<String, Object> details : contractCache.contracts()) {
+            for (String id : ContractDetailsMapper.stringValue(details, "marketRuleIds").split(",")) {
+                Integer ruleId = parseRuleId(id);
+                if (ruleId != null && !rules.containsKey(ruleId)) {
+                    missing.add(ruleId);
+                }
+            }
+        }
+        missing.forEach(this::load);
+        if (!missing.isEmpty()) {
+            logger.info("加载市场规则: {}个", missing.size());
+        }
+        return missing.size();
+    }
+
+    /**
+     * 获取规则，未缓存时经节流请求TWS
+     */
+    public CompletableFuture<MarketRule> load(int ruleId) {
+        MarketRule cached = rules.get(ruleId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<MarketRule> future = new CompletableFuture<>();
+        CompletableFuture<MarketRule> existing = loading.putIfAbsent(ruleId, future);
+        if (existing != null) {
+            return existing;
+        }
+        requestPacer.submit(() -> connectionService.requestMarketRule(ruleId)).whenComplete((increments, error) -> {
+            loading.remove(ruleId, future);
+            if (error != null || increments.length == 0) {
+                failed.incrementAndGet();
+                future.completeExceptionally(error != null ? error : new IllegalStateException("市场规则为空: " + ruleId));
+                return;
+            }
+            MarketRule rule = MarketRule.of(ruleId, increments);
+            rules.put(ruleId, rule);
+            loaded.incrementAndGet();
+            future.complete(rule);
+        });
+        return future;
+    }
+
+    /**
+     * 已缓存的规则，未缓存时返回null
+     */
+    public MarketRule get(int ruleId) {
+        return rules.get(ruleId);
+    }
+
+    /**
+     * 合约在指定交易所适用的规则
+     *
+     * 交易所为空时使用合约详情中的exchange；规则未缓存时触发加载并按minTick返回；合约未登记时返回null
+     */
+    public ResolvedRule resolve(int conId, String exchange) {
+        ContractRegistry.ContractHandle contract = contractRegistry.byConId(conId);
+        Map<String, Object> details = contract != null ? contract.details : contractCache.get(conId);
+        if (details == null) {
+            return null;
+        }
+        String venue = exchange != null && !exchange.isEmpty() ? exchange
+                                                                : ContractDetailsMapper.stringValue(details, "exchange");
+        Integer ruleId = ruleIdFor(details, venue);
+        if (ruleId != null) {
+            MarketRule rule = rules.get(ruleId);
+            if (rule != null) {
+                return new ResolvedRule(conId, venue, rule, false);
+            }
+            load(ruleId);
+        }
+        fallbacks.incrementAndGet();
+        double minTick = details.get("minTick") instanceof Number ? ((Number) details.get("minTick")).doubleValue() : 0;
+        if (minTick <= 0 || minTick == Double.MAX_VALUE) {
+            return null;
+        }
+        return new ResolvedRule(conId, venue, MarketRule.uniform(minTick), true);
+    }
+
+    /**
+     * validExchanges中交易所的位置对应marketRuleIds中的规则ID；找不到交易所时用第一个
+     */
+    static Integer ruleIdFor(Map<String, Object> details, String exchange) {
+        String[] ruleIds = ContractDetailsMapper.stringValue(details, "marketRuleIds").split(",");
+        String[] exchanges = ContractDetailsMapper.stringValue(details, "validExchanges").split(",");
+        int index = 0;
+        for (int i = 0; i < exchanges.length; i++) {
+            if (exchanges[i].trim().equalsIgnoreCase(exchange)) {
+                index = i;
+                break;
+            }
+        }
+        return index < ruleIds.length ? parseRuleId(ruleIds[index]) : null;
+    }
+
+    private static Integer parseRuleId(String value) {
+        try {
+            return value.trim().isEmpty() ? null : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 校验价格并给出各方向的有效价格
+     *
+     * @return 合约未登记或没有可用规则时返回null
+     */
+    public Map<String, Object> check(int conId, String exchange, double price) {
+        ResolvedRule resolved = resolve(conId, exchange);
+        if (resolved == null) {
+            return null;
+        }
+        MarketRule rule = resolved.rule;
+        Map<String, Object> result = new HashMap<>();
+        result.put("conId", conId);
+        result.put("exchange", resolved.exchange);
+        result.put("ruleId", rule.ruleId());
+        result.put("fallback", resolved.fallback);
+        result.put("price", price);
+        result.put("valid", rule.isValid(price));
+        result.put("increment", rule.increment(price));
+        result.put("nearest", rule.round(price, MarketRule.Snap.NEAREST));
+        result.put("up", rule.round(price, MarketRule.Snap.UP));
+        result.put("down", rule.round(price, MarketRule.Snap.DOWN));
+        return result;
+    }
+
+    /**
+     * 获取规则缓存统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("rules", rules.size());
+        stats.put("loading", loading.size());
+        stats.put("loaded", loaded.get());
+        stats.put("failed", failed.get());
+        stats.put("fallbacks", fallbacks.get());
+        stats.put("ruleIds", new TreeSet<>(rules.keySet()));
+        return stats;
+    }
+}
@@ -0,0 +1,220 @@
+package com.gauss.trading.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个标的的期权链
+ *
+ * 由reqSecDefOptParams的结果构建，每个(交易所, 交易类别)为一个系列，系列内到期日和行权价各为一个有序数组，
+ * 到期日×行权价构成网格。网格只描述可用组合，具体合约在查看时按到期日确认。实例不可变
+ */
+public class OptionChain {
+
+    private final String underlyingSymbol;
+    private final String underlyingSecType;
+    private final int underlyingConId;
+    private final String optionSecType;
+    private final String currency;
+    private final List<Series> series;
+    private final long builtAt;
+
+    /**
+     * 一个交易所/交易类别下的到期日和行权价
+     */
+    public static class Series {
+        public final String exchange;
+        public final String tradingClass;
+        public final String multiplier;
+        private final String[] expirations;
+        private final double[] strikes;
+
+        Series(String exchange, String tradingClass, String multiplier, String[] expirations, double[] strikes) {
+            this.exchange = exchange;
+            this.tradingClass = tradingClass;
+            this.multiplier = multiplier;
+            this.expirations = expirations;
+            this.strikes = strikes;
+        }
+
+        public List<String> expirations() {
+            return Collections.unmodifiableList(Arrays.asList(expirations));
+        }
+
+        /**
+         * 不早于指定日期（yyyyMMdd）的前count个到期日
+         */
+        public List<String> expirationsFrom(String date, int count) {
+            int from = Arrays.binarySearch(expirations, date);
+            if (from < 0) {
+                from = -from - 1;
+            }
+            int to = (int) Math.min(expirations.length, (long) from + Math.max(0, count));
+            return Collections.unmodifiableList(Arrays.asList(expirations).subList(from, to));
+        }
+
+        public boolean hasExpiration(String expiry) {
+            return Arrays.binarySearch(expirations, expiry) >= 0;
+        }
+
+        public int strikeCount() {
+            return strikes.length;
+        }
+
+        /**
+         * [min, max]区间内的行权价
+         */
+        public double[] strikesBetween(double min, double max) {
+            int from = lowerBound(min);
+            int to = lowerBound(Math.nextUp(max));
+            return from < to ? Arrays.copyOfRange(strikes, from, to) : new double[0];
+        }
+
+        /**
+         * 以center为中心的count个行权价
+         */
+        public double[] strikesAround(double center, int count) {
+            if (strikes.length == 0 || count <= 0) {
+                return new double[0];
+            }
+            int index = Math.min(lowerBound(center), strikes.length - 1);
+            int from = Math.max(0, Math.min(index - count / 2, strikes.length - count));
+            int to = Math.min(strikes.length, from + count);
+            return Arrays.copyOfRange(strikes, from, to);
+        }
+
+        /**
+         * 中位行权价，没有提供中心价时使用
+         */
+        public double medianStrike() {
+            return strikes.length > 0 ? strikes[strikes.length / 2] : 0;
+        }
+
+        private int lowerBound(double value) {
+            int low = 0;
+            int high = strikes.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (strikes[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        public Map<String, Object> toMap(boolean includeGrid) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("exchange", exchange);
+            map.put("tradingClass", tradingClass);
+            map.put("multiplier", multiplier);
+            map.put("expirationCount", expirations.length);
+            map.put("strikeCount", strikes.length);
+            if (includeGrid) {
+                map.put("expirations", expirations());
+                map.put("strikes", strikes);
+            }
+            return map;
+        }
+    }
+
+    private OptionChain(String underlyingSymbol, String underlyingSecType, int underlyingConId, String optionSecType,
+                        String currency, List<Series> series) {
+        this.underlyingSymbol = underlyingSymbol;
+        this.underlyingSecType = underlyingSecType;
+        this.underlyingConId = underlyingConId;
+        this.optionSecType = optionSecType;
+        this.currency = currency;
+        this.series = Collections.unmodifiableList(series);
+        this.builtAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 由TwsConnectionService.requestOptionParams的结果构建
+     */
+    @SuppressWarnings("unchecked")
+    public static OptionChain build(String underlyingSymbol, String underlyingSecType, int underlyingConId,
+                                    String currency, List<Map<String, Object>> rows) {
+        List<Series> series = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            List<String> expirations = (List<String>) row.get("expirations");
+            List<Double> strikes = (List<Double>) row.get("strikes");
+            double[] strikeArray = new double[strikes.size()];
+            for (int i = 0; i < strikeArray.length; i++) {
+                strikeArray[i] = strikes.get(i);
+            }
+            series.add(new Series(ContractDetailsMapper.stringValue(row, "exchange"),
+                                  ContractDetailsMapper.stringValue(row, "tradingClass"),
+                                  ContractDetailsMapper.stringValue(row, "multiplier"),
+                                  expirations.toArray(new String[0]), strikeArray));
+        }
+        String optionSecType = "FUT".equalsIgnoreCase(underlyingSecType) ? "FOP" : "OPT";
+        return new OptionChain(underlyingSymbol, underlyingSecType, underlyingConId, optionSecType, currency, series);
+    }
+
+    /**
+     * 查找系列：交易所和交易类别为空时不作限制；多个匹配时优先交易类别与标的代码相同的系列
+     */
+    public Series findSeries(String exchange, String tradingClass) {
+        Series fallback = null;
+        for (Series candidate : series) {
+            if (!matches(exchange, candidate.exchange) || !matches(tradingClass, candidate.tradingClass)) {
+                continue;
+            }
+            if (candidate.tradingClass.equalsIgnoreCase(underlyingSymbol)) {
+                return candidate;
+            }
+            if (fallback == null) {
+                fallback = candidate;
+            }
+        }
+        return fallback;
+    }
+
+    private static boolean matches(String wanted, String actual) {
+        return wanted == null || wanted.isEmpty() || wanted.equalsIgnoreCase(actual);
+    }
+
+    public List<Series> series() {
+        return series;
+    }
+
+    public String underlyingSymbol() {
+        return underlyingSymbol;
+    }
+
+    public int underlyingConId() {
+        return underlyingConId;
+    }
+
+    public String optionSecType() {
+        return optionSecType;
+    }
+
+    public String currency() {
+        return currency;
+    }
+
+    public long builtAt() {
+        return builtAt;
+    }
+
+    public Map<String, Object> toMap(boolean includeGrid) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("underlyingSymbol", underlyingSymbol);
+        map.put("underlyingSecType", underlyingSecType);
+        map.put("underlyingConId", underlyingConId);
+        map.put("optionSecType", optionSecType);
+        map.put("currency", currency);
+        map.put("builtAt", builtAt);
+        List<Map<String, Object>> seriesMaps = new ArrayList<>(series.size());
+        series.forEach(entry -> seriesMaps.add(entry.toMap(includeGrid)));
+        map.put("series", seriesMaps);
+        return map;
+    }
+}
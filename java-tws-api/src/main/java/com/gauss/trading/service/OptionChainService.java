@@ -0,0 +1,359 @@
+package com.gauss.trading.service;
+
+import com.ib.client.Contract;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 期权链服务
+ *
+ * 先用reqSecDefOptParams取得到期日×行权价网格并按标的缓存，网格很小，立即返回给客户端；
+ * 具体期权合约只在客户端查看某个到期日时确认：每个(系列, 到期日)发出一次不带行权价的reqContractDetails，
+ * 一次取回该到期日的全部行权价和看涨/看跌合约，结果随链一起缓存。流式接口先发网格，再按到期日完成顺序逐个发送
+ */
+@Service
+public class OptionChainService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OptionChainService.class);
+
+    private static final DateTimeFormatter EXPIRY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    @Autowired
+    private TwsConnectionService connectionService;
+
+    @Autowired
+    private TwsContractService contractService;
+
+    @Autowired
+    private FuturesChainIndex chainIndex;
+
+    @Autowired
+    private TwsRequestPacer requestPacer;
+
+    @Value("${tws.option-chain.ttl-minutes:360}")
+    private long ttlMinutes;
+
+    @Value("${tws.option-chain.max-chains:50}")
+    private int maxChains;
+
+    // 未指定到期日时发送的到期日个数
+    @Value("${tws.option-chain.default-expirations:3}")
+    private int defaultExpirations;
+
+    // 未指定行权价范围时，以中心价为中心发送的行权价个数
+    @Value("${tws.option-chain.default-strikes:20}")
+    private int defaultStrikes;
+
+    // 单次流式请求最多确认的到期日个数
+    @Value("${tws.option-chain.max-expirations:12}")
+    private int maxExpirations;
+
+    private final ConcurrentHashMap<String, LoadedChain> chains = new ConcurrentHashMap<>();
+    private final SingleFlight<String, LoadedChain> chainLoads = new SingleFlight<>("optionChain");
+
+    private final AtomicLong chainHits = new AtomicLong();
+    private final AtomicLong chainLoadsStarted = new AtomicLong();
+    private final AtomicLong expiryHits = new AtomicLong();
+    private final AtomicLong expiryLoads = new AtomicLong();
+
+    /**
+     * 已加载的期权链及其已确认的到期日
+     */
+    private static class LoadedChain {
+        final String key;
+        final OptionChain chain;
+        final long loadedAt = System.currentTimeMillis();
+        // 系列+到期日 -> 该到期日的全部期权合约
+        final ConcurrentHashMap<String, CompletableFuture<List<Map<String, Object>>>> expiries =
+            new ConcurrentHashMap<>();
+
+        LoadedChain(String key, OptionChain chain) {
+            this.key = key;
+            this.chain = chain;
+        }
+    }
+
+    /**
+     * 流式请求参数
+     */
+    public static class ChainRequest {
+        public String symbol;
+        public String secType = "FUT";
+        public String exchange = "CME";
+        public String currency = "USD";
+        // 标的conId，为空时期货取主力合约，其他按代码搜索
+        public Integer conId;
+        // 期权系列筛选
+        public String optionExchange;
+        public String tradingClass;
+        // 为空时取今天起的前default-expirations个
+        public List<String> expirations;
+        // 行权价范围；都为空时以strikeCenter为中心取strikeCount个
+        public Double minStrike;
+        public Double maxStrike;
+        public Double strikeCenter;
+        public Integer strikeCount;
+    }
+
+    /**
+     * 获取期权链网格，必要时加载
+     */
+    public CompletableFuture<OptionChain> getChain(String symbol, String secType, String exchange, String currency,
+                                                   Integer conId) {
+        return loadChain(symbol, secType, exchange, currency, conId).thenApply(loaded -> loaded.chain);
+    }
+
+    private CompletableFuture<LoadedChain> loadChain(String symbol, String secType, String exchange, String currency,
+                                                     Integer conId) {
+        String key = ContractDetailsCache.searchKey(symbol, secType, exchange, currency) + "|" + (conId != null ? conId : "");
+        LoadedChain loaded = chains.get(key);
+        if (loaded != null && System.currentTimeMillis() - loaded.loadedAt < TimeUnit.MINUTES.toMillis(ttlMinutes)) {
+            chainHits.incrementAndGet();
+            return CompletableFuture.completedFuture(loaded);
+        }
+        return chainLoads.execute(key, () -> {
+            chainLoadsStarted.incrementAndGet();
+            return resolveUnderlying(symbol, secType, exchange, currency, conId)
+                .thenCompose(underlyingConId -> requestPacer.submit(() -> connectionService.requestOptionParams(
+                    symbol, isFuture(secType) ? exchange : "", secType.toUpperCase(Locale.ROOT), underlyingConId))
+                    .thenApply(rows -> {
+                        OptionChain chain = OptionChain.build(symbol, secType, underlyingConId, currency, rows);
+                        LoadedChain fresh = new LoadedChain(key, chain);
+                        chains.put(key, fresh);
+                        evictOldest();
+                        logger.info("期权链已加载: symbol={}, underlyingConId={}, series={}", symbol, underlyingConId,
+                                    chain.series().size());
+                        return fresh;
+                    }));
+        });
+    }
+
+    /**
+     * 标的conId：期货取主力合约，其他取搜索结果的第一个
+     */
+    private CompletableFuture<Integer> resolveUnderlying(String symbol, String secType, String exchange, String currency,
+                                                         Integer conId) {
+        if (conId != null) {
+            return CompletableFuture.completedFuture(conId);
+        }
+        if (isFuture(secType)) {
+            return chainIndex.getChain(symbol, exchange, currency).thenApply(chain -> {
+                FuturesChain.Entry front = chain.frontMonth(System.currentTimeMillis());
+                if (front == null) {
+                    throw new IllegalStateException("没有未到期的期货合约: " + symbol);
+                }
+                return front.conId;
+            });
+        }
+        return contractService.searchAll(symbol, secType, exchange, currency)
+            .thenApply(results -> ((Number) results.get(0).get("conId")).intValue());
+    }
+
+    /**
+     * 流式返回期权链：第一行为网格（type=grid），之后每确认一个到期日返回一行（type=expiry），失败的到期日返回type=error
+     */
+    public Flux<Map<String, Object>> streamChain(ChainRequest request) {
+        return Flux.create(sink -> loadChain(request.symbol, request.secType, request.exchange, request.currency,
+                                             request.conId).whenComplete((loaded, error) -> {
+            if (error != null) {
+                sink.next(errorRow(null, rootMessage(error)));
+                sink.complete();
+                return;
+            }
+            OptionChain.Series series = loaded.chain.findSeries(request.optionExchange, request.tradingClass);
+            if (series == null) {
+                sink.next(errorRow(null, "未找到期权系列: exchange=" + request.optionExchange
+                                         + ", tradingClass=" + request.tradingClass));
+                sink.complete();
+                return;
+            }
+
+            List<String> expirations = selectExpirations(series, request.expirations);
+            double[] strikes = selectStrikes(series, request);
+
+            Map<String, Object> grid = new HashMap<>();
+            grid.put("type", "grid");
+            grid.put("chain", loaded.chain.toMap(false));
+            grid.put("series", series.toMap(true));
+            grid.put("expirations", expirations);
+            grid.put("strikes", strikes);
+            sink.next(grid);
+
+            if (expirations.isEmpty()) {
+                sink.complete();
+                return;
+            }
+            AtomicInteger remaining = new AtomicInteger(expirations.size());
+            for (String expiry : expirations) {
+                qualifyExpiry(loaded, series, expiry).whenComplete((contracts, qualifyError) -> {
+                    sink.next(qualifyError != null ? errorRow(expiry, rootMessage(qualifyError))
+                                                   : expiryRow(series, expiry, contracts, strikes));
+                    if (remaining.decrementAndGet() == 0) {
+                        sink.complete();
+                    }
+                });
+            }
+        }));
+    }
+
+    private List<String> selectExpirations(OptionChain.Series series, List<String> requested) {
+        if (requested == null || requested.isEmpty()) {
+            return series.expirationsFrom(LocalDate.now().format(EXPIRY_FORMAT), defaultExpirations);
+        }
+        List<String> expirations = new ArrayList<>();
+        for (String expiry : requested) {
+            if (series.hasExpiration(expiry) && !expirations.contains(expiry) && expirations.size() < maxExpirations) {
+                expirations.add(expiry);
+            }
+        }
+        return expirations;
+    }
+
+    private double[] selectStrikes(OptionChain.Series series, ChainRequest request) {
+        if (request.minStrike != null || request.maxStrike != null) {
+            return series.strikesBetween(request.minStrike != null ? request.minStrike : Double.NEGATIVE_INFINITY,
+                                         request.maxStrike != null ? request.maxStrike : Double.POSITIVE_INFINITY);
+        }
+        double center = request.strikeCenter != null ? request.strikeCenter : series.medianStrike();
+        int count = request.strikeCount != null ? request.strikeCount : defaultStrikes;
+        return series.strikesAround(center, Math.min(count, series.strikeCount()));
+    }
+
+    /**
+     * 确认某个到期日的全部期权合约，同一到期日只请求一次
+     */
+    private CompletableFuture<List<Map<String, Object>>> qualifyExpiry(LoadedChain loaded, OptionChain.Series series,
+                                                                       String expiry) {
+        String expiryKey = series.exchange + "|" + series.tradingClass + "|" + expiry;
+        CompletableFuture<List<Map<String, Object>>> existing = loaded.expiries.get(expiryKey);
+        if (existing != null && !existing.isCompletedExceptionally()) {
+            expiryHits.incrementAndGet();
+            return existing;
+        }
+
+        OptionChain chain = loaded.chain;
+        Contract contract = new Contract();
+        contract.symbol(chain.underlyingSymbol());
+        contract.secType(chain.optionSecType());
+        contract.exchange(series.exchange);
+        contract.currency(chain.currency());
+        contract.lastTradeDateOrContractMonth(expiry);
+        contract.tradingClass(series.tradingClass);
+        contract.multiplier(series.multiplier);
+
+        CompletableFuture<List<Map<String, Object>>> future =
+            contractService.queryDetails(loaded.key + "|" + expiryKey, contract);
+        if (existing != null) {
+            loaded.expiries.replace(expiryKey, existing, future);
+        } else {
+            CompletableFuture<List<Map<String, Object>>> raced = loaded.expiries.putIfAbsent(expiryKey, future);
+            if (raced != null) {
+                expiryHits.incrementAndGet();
+                return raced;
+            }
+        }
+        expiryLoads.incrementAndGet();
+        return future;
+    }
+
+    private static Map<String, Object> expiryRow(OptionChain.Series series, String expiry,
+                                                 List<Map<String, Object>> contracts, double[] strikes) {
+        List<Map<String, Object>> options = new ArrayList<>();
+        for (Map<String, Object> details : contracts) {
+            double strike = details.get("strike") instanceof Number ? ((Number) details.get("strike")).doubleValue() : 0;
+            if (Arrays.binarySearch(strikes, strike) < 0) {
+                continue;
+            }
+            Map<String, Object> option = new HashMap<>();
+            option.put("conId", details.get("conId"));
+            option.put("strike", strike);
+            option.put("right", ContractDetailsMapper.stringValue(details, "right"));
+            option.put("localSymbol", ContractDetailsMapper.stringValue(details, "localSymbol"));
+            options.add(option);
+        }
+        options.sort(Comparator.comparingDouble((Map<String, Object> option) -> (Double) option.get("strike"))
+                         .thenComparing(option -> (String) option.get("right")));
+
+        Map<String, Object> row = new HashMap<>();
+        row.put("type", "expiry");
+        row.put("expiry", expiry);
+        row.put("exchange", series.exchange);
+        row.put("tradingClass", series.tradingClass);
+        row.put("available", contracts.size());
+        row.put("options", options);
+        return row;
+    }
+
+    private static Map<String, Object> errorRow(String expiry, String message) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("type", "error");
+        if (expiry != null) {
+            row.put("expiry", expiry);
+        }
+        row.put("error", message);
+        return row;
+    }
+
+    private void evictOldest() {
+        while (chains.size() > maxChains) {
+            chains.values().stream()
+                .min(Comparator.comparingLong((LoadedChain loaded) -> loaded.loadedAt))
+                .ifPresent(oldest -> chains.remove(oldest.key, oldest));
+        }
+    }
+
+    private static boolean isFuture(String secType) {
+        return "FUT".equalsIgnoreCase(secType);
+    }
+
+    private static String rootMessage(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    /**
+     * 获取期权链缓存统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        List<Map<String, Object>> loaded = new ArrayList<>();
+        chains.values().forEach(chain -> {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("underlyingSymbol", chain.chain.underlyingSymbol());
+            entry.put("underlyingConId", chain.chain.underlyingConId());
+            entry.put("series", chain.chain.series().size());
+            entry.put("qualifiedExpirations", chain.expiries.size());
+            entry.put("loadedAt", chain.loadedAt);
+            loaded.add(entry);
+        });
+        stats.put("chains", loaded);
+        stats.put("chainHits", chainHits.get());
+        stats.put("chainLoads", chainLoadsStarted.get());
+        stats.put("expiryHits", expiryHits.get());
+        stats.put("expiryLoads", expiryLoads.get());
+        return stats;
+    }
+}
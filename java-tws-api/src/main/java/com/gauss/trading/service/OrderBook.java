@@ -0,0 +1,269 @@
+package com.gauss.trading.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于数组的二级行情订单簿
+ *
+ * 买卖两侧各使用预分配的原始类型数组，按档位位置直接执行TWS的插入/更新/删除操作。
+ * 同时维护累计数量数组，使最优报价和累计深度查询为O(1)。
+ */
+public class OrderBook {
+
+    public static final int SIDE_ASK = 0;
+    public static final int SIDE_BID = 1;
+
+    public static final int OPERATION_INSERT = 0;
+    public static final int OPERATION_UPDATE = 1;
+    public static final int OPERATION_DELETE = 2;
+
+    private final int maxRows;
+    private final Side bids;
+    private final Side asks;
+    private long version = 0;
+    // 订单簿被重置后，下一次drainDelta发送完整快照
+    private boolean resetPending;
+
+    /**
+     * 单侧档位数据
+     */
+    private static class Side {
+        final double[] prices;
+        final double[] sizes;
+        final double[] cumulativeSizes;
+        final String[] marketMakers;
+        int count = 0;
+        // 自上次推送以来发生变化的档位（按位标记，最多64档）
+        long dirtyMask = 0;
+
+        Side(int rows) {
+            prices = new double[rows];
+            sizes = new double[rows];
+            cumulativeSizes = new double[rows];
+            marketMakers = new String[rows];
+        }
+    }
+
+    public OrderBook(int maxRows) {
+        this.maxRows = Math.max(1, Math.min(maxRows, 64));
+        this.bids = new Side(this.maxRows);
+        this.asks = new Side(this.maxRows);
+    }
+
+    /**
+     * 应用一次深度更新
+     */
+    public synchronized void apply(int position, int operation, int side, double price, double size, String marketMaker) {
+        Side book = side == SIDE_BID ? bids : asks;
+        if (position < 0 || position >= maxRows) {
+            return;
+        }
+
+        switch (operation) {
+            case OPERATION_INSERT:
+                insert(book, position, price, size, marketMaker);
+                break;
+            case OPERATION_UPDATE:
+                if (position >= book.count) {
+                    // 更新尚不存在的档位时按插入处理
+                    insert(book, position, price, size, marketMaker);
+                } else {
+                    book.prices[position] = price;
+                    book.sizes[position] = size;
+                    book.marketMakers[position] = marketMaker;
+                    recalculate(book, position);
+                    book.dirtyMask |= 1L << position;
+                }
+                break;
+            case OPERATION_DELETE:
+                delete(book, position);
+                break;
+            default:
+                return;
+        }
+        version++;
+    }
+
+    private void insert(Side book, int position, double price, double size, String marketMaker) {
+        int at = Math.min(position, book.count);
+        int moved = Math.min(book.count, maxRows - 1) - at;
+        if (moved > 0) {
+            System.arraycopy(book.prices, at, book.prices, at + 1, moved);
+            System.arraycopy(book.sizes, at, book.sizes, at + 1, moved);
+            System.arraycopy(book.marketMakers, at, book.marketMakers, at + 1, moved);
+        }
+        book.prices[at] = price;
+        book.sizes[at] = size;
+        book.marketMakers[at] = marketMaker;
+        book.count = Math.min(book.count + 1, maxRows);
+        recalculate(book, at);
+        book.dirtyMask |= dirtyFrom(at);
+    }
+
+    private void delete(Side book, int position) {
+        if (position >= book.count) {
+            return;
+        }
+        int moved = book.count - position - 1;
+        if (moved > 0) {
+            System.arraycopy(book.prices, position + 1, book.prices, position, moved);
+            System.arraycopy(book.sizes, position + 1, book.sizes, position, moved);
+            System.arraycopy(book.marketMakers, position + 1, book.marketMakers, position, moved);
+        }
+        book.count--;
+        book.prices[book.count] = 0;
+        book.sizes[book.count] = 0;
+        book.cumulativeSizes[book.count] = 0;
+        book.marketMakers[book.count] = null;
+        recalculate(book, position);
+        // 被删除的末档也需要通知客户端
+        book.dirtyMask |= dirtyFrom(position);
+    }
+
+    private void recalculate(Side book, int from) {
+        double cumulative = from > 0 ? book.cumulativeSizes[from - 1] : 0;
+        for (int i = from; i < book.count; i++) {
+            cumulative += book.sizes[i];
+            book.cumulativeSizes[i] = cumulative;
+        }
+    }
+
+    private long dirtyFrom(int position) {
+        long all = maxRows == 64 ? -1L : (1L << maxRows) - 1;
+        return all & (-1L << position);
+    }
+
+    /**
+     * 清空两侧全部档位（TWS错误317：深度数据已重置，须清空后再应用新的档位）
+     */
+    public synchronized void reset() {
+        clear(bids);
+        clear(asks);
+        resetPending = true;
+        version++;
+    }
+
+    private static void clear(Side book) {
+        Arrays.fill(book.prices, 0);
+        Arrays.fill(book.sizes, 0);
+        Arrays.fill(book.cumulativeSizes, 0);
+        Arrays.fill(book.marketMakers, null);
+        book.count = 0;
+        book.dirtyMask = 0;
+    }
+
+    public synchronized double bestBid() {
+        return bids.count > 0 ? bids.prices[0] : 0;
+    }
+
+    public synchronized double bestAsk() {
+        return asks.count > 0 ? asks.prices[0] : 0;
+    }
+
+    public synchronized double bestBidSize() {
+        return bids.count > 0 ? bids.sizes[0] : 0;
+    }
+
+    public synchronized double bestAskSize() {
+        return asks.count > 0 ? asks.sizes[0] : 0;
+    }
+
+    /**
+     * 前levels档的累计数量
+     */
+    public synchronized double cumulativeSize(int side, int levels) {
+        Side book = side == SIDE_BID ? bids : asks;
+        int index = Math.min(levels, book.count) - 1;
+        return index >= 0 ? book.cumulativeSizes[index] : 0;
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    /**
+     * 最优买卖报价
+     */
+    public synchronized Map<String, Object> topOfBook() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("bid", bestBid());
+        map.put("bidSize", bestBidSize());
+        map.put("ask", bestAsk());
+        map.put("askSize", bestAskSize());
+        map.put("version", version);
+        return map;
+    }
+
+    /**
+     * 完整订单簿快照
+     */
+    public synchronized Map<String, Object> snapshot(int levels) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("bids", levels(bids, Math.min(levels, bids.count)));
+        map.put("asks", levels(asks, Math.min(levels, asks.count)));
+        map.put("version", version);
+        return map;
+    }
+
+    /**
+     * 取出自上次调用以来合并后的变化档位，无变化时返回null
+     *
+     * 同一档位在推送间隔内的多次变化只保留最新值；超出当前档数的位置以size=0表示删除。
+     * 重置后的第一次调用返回带reset=true的完整快照，客户端应先清空本地订单簿
+     */
+    public synchronized Map<String, Object> drainDelta() {
+        if (resetPending) {
+            Map<String, Object> map = snapshot(maxRows);
+            map.put("reset", true);
+            resetPending = false;
+            bids.dirtyMask = 0;
+            asks.dirtyMask = 0;
+            return map;
+        }
+        if (bids.dirtyMask == 0 && asks.dirtyMask == 0) {
+            return null;
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("bids", dirtyLevels(bids));
+        map.put("asks", dirtyLevels(asks));
+        map.put("version", version);
+        bids.dirtyMask = 0;
+        asks.dirtyMask = 0;
+        return map;
+    }
+
+    private List<Map<String, Object>> levels(Side book, int count) {
+        List<Map<String, Object>> levels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            levels.add(level(book, i));
+        }
+        return levels;
+    }
+
+    private List<Map<String, Object>> dirtyLevels(Side book) {
+        List<Map<String, Object>> levels = new ArrayList<>(Long.bitCount(book.dirtyMask));
+        long mask = book.dirtyMask;
+        while (mask != 0) {
+            int position = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            levels.add(level(book, position));
+        }
+        return levels;
+    }
+
+    private Map<String, Object> level(Side book, int position) {
+        Map<String, Object> level = new HashMap<>();
+        level.put("position", position);
+        level.put("price", book.prices[position]);
+        level.put("size", book.sizes[position]);
+        level.put("cumulativeSize", book.cumulativeSizes[position]);
+        if (book.marketMakers[position] != null) {
+            level.put("marketMaker", book.marketMakers[position]);
+        }
+        return level;
+    }
+}
@@ -0,0 +1,160 @@
+package com.gauss.trading.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带登记时间的请求状态表
+ *
+ * 按请求ID保存进行中的请求状态并记录登记时刻。持有方负责在请求结束、取消或超时时移除；
+ * report按存活时长汇总，存活过久的条目即疑似泄漏
+ */
+public class RequestStateMap<K, V> {
+
+    // 报告中列出的最久条目数
+    private static final int OLDEST_LIMIT = 5;
+
+    private static final long[] AGE_LIMITS = {1_000, 10_000, 60_000, 600_000, 3_600_000};
+    private static final String[] AGE_LABELS = {"<1s", "<10s", "<1m", "<10m", "<1h", ">=1h"};
+
+    private final String type;
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong registered = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+
+    private static class Entry<V> {
+        final V value;
+        final long createdAt;
+
+        Entry(V value) {
+            this.value = value;
+            this.createdAt = System.currentTimeMillis();
+        }
+    }
+
+    public RequestStateMap(String type) {
+        this.type = type;
+    }
+
+    public void put(K key, V value) {
+        registered.incrementAndGet();
+        if (entries.put(key, new Entry<>(value)) != null) {
+            released.incrementAndGet();
+        }
+    }
+
+    /**
+     * 已有条目时返回已有的值，不覆盖
+     */
+    public V putIfAbsent(K key, V value) {
+        Entry<V> existing = entries.putIfAbsent(key, new Entry<>(value));
+        if (existing != null) {
+            return existing.value;
+        }
+        registered.incrementAndGet();
+        return null;
+    }
+
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry != null ? entry.value : null;
+    }
+
+    public V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        released.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * 仅当条目仍是value时移除，避免误删同一ID上的新请求
+     */
+    public boolean remove(K key, V value) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.value == value && entries.remove(key, entry)) {
+            released.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 移除并返回全部条目的值
+     */
+    public List<V> drain() {
+        List<V> values = new ArrayList<>();
+        for (K key : entries.keySet()) {
+            V value = remove(key);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public String type() {
+        return type;
+    }
+
+    /**
+     * 按存活时长汇总
+     *
+     * @param staleMillis 存活超过该时长的条目计入stale
+     */
+    public Map<String, Object> report(long nowMillis, long staleMillis) {
+        Map<String, Integer> ages = new LinkedHashMap<>();
+        for (String label : AGE_LABELS) {
+            ages.put(label, 0);
+        }
+        List<Map.Entry<K, Entry<V>>> live = new ArrayList<>(entries.entrySet());
+        int stale = 0;
+        for (Map.Entry<K, Entry<V>> entry : live) {
+            long age = nowMillis - entry.getValue().createdAt;
+            ages.merge(AGE_LABELS[bucket(age)], 1, Integer::sum);
+            if (age > staleMillis) {
+                stale++;
+            }
+        }
+        live.sort((left, right) -> Long.compare(left.getValue().createdAt, right.getValue().createdAt));
+        List<Map<String, Object>> oldest = new ArrayList<>();
+        for (int i = 0; i < live.size() && i < OLDEST_LIMIT; i++) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("key", String.valueOf(live.get(i).getKey()));
+            item.put("ageMs", nowMillis - live.get(i).getValue().createdAt);
+            oldest.add(item);
+        }
+
+        Map<String, Object> report = new HashMap<>();
+        report.put("type", type);
+        report.put("live", live.size());
+        report.put("stale", stale);
+        report.put("registered", registered.get());
+        report.put("released", released.get());
+        report.put("oldestAgeMs", live.isEmpty() ? 0 : nowMillis - live.get(0).getValue().createdAt);
+        report.put("ages", ages);
+        report.put("oldest", oldest);
+        return report;
+    }
+
+    private static int bucket(long age) {
+        for (int i = 0; i < AGE_LIMITS.length; i++) {
+            if (age < AGE_LIMITS[i]) {
+                return i;
+            }
+        }
+        return AGE_LIMITS.length;
+    }
+}
@@ -0,0 +1,169 @@
+package com.gauss.trading.service;
+
+import com.gauss.trading.shm.QuoteTableWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 共享内存报价发布
+ *
+ * 把实时报价表写入内存映射文件（布局见 QuoteTableLayout），同机的策略、风控进程通过
+ * QuoteTableReader直接读取，不经过JSON和TCP。每个订阅占用一个槽，在TWS消息线程中按seqlock写入
+ */
+@Service
+public class SharedMemoryQuotePublisher implements MarketEventBus.Listener {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedMemoryQuotePublisher.class);
+
+    @Autowired
+    private MarketEventBus eventBus;
+
+    @Value("${tws.shm.enabled:false}")
+    private boolean enabled;
+
+    @Value("${tws.shm.path:/dev/shm/tws-quotes}")
+    private String path;
+
+    @Value("${tws.shm.slots:1024}")
+    private int slotCount;
+
+    // 以下结构及写端都由this加锁保护：报价在TWS消息线程写入，取消订阅来自请求线程
+    private volatile QuoteTableWriter writer;
+    private final Map<Integer, SlotEntry> slots = new HashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private int nextSlot;
+    private long writes;
+    private long rejected;
+
+    /**
+     * 订阅占用的槽
+     */
+    private static class SlotEntry {
+        final int slot;
+        String symbol;
+
+        SlotEntry(int slot, String symbol) {
+            this.slot = slot;
+            this.symbol = symbol;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Path file = Paths.get(path);
+        try {
+            writer = new QuoteTableWriter(file, slotCount);
+            eventBus.addListener(this);
+            logger.info("共享内存报价表: path={}, slots={}", file, slotCount);
+        } catch (Exception e) {
+            logger.error("创建共享内存报价表失败: {} - {}", file, e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (Exception e) {
+                logger.warn("关闭共享内存报价表异常: {}", e.getMessage());
+            }
+            writer = null;
+        }
+    }
+
+    @Override
+    public synchronized void onQuote(TwsMarketDataService.MarketDataInfo info, int changedMask) {
+        if (writer == null) {
+            return;
+        }
+        SlotEntry entry = slots.get(info.tickerId);
+        if (entry == null) {
+            // release之后才到达的在途行情不能为已取消的订阅重新分配槽
+            if (info.cancelled) {
+                return;
+            }
+            entry = allocate(info);
+            if (entry == null) {
+                return;
+            }
+        } else if (!entry.symbol.equals(info.symbol)) {
+            writer.relabel(entry.slot, info.symbol);
+            entry.symbol = info.symbol;
+        }
+        writer.writeQuote(entry.slot, changedMask, info.version, info.timestamp, info.lastPrice, info.bid, info.ask,
+                          info.bidSize, info.askSize, info.volume);
+        writes++;
+    }
+
+    private SlotEntry allocate(TwsMarketDataService.MarketDataInfo info) {
+        Integer slot = freeSlots.pollFirst();
+        if (slot == null) {
+            if (nextSlot >= writer.slotCount()) {
+                if (rejected++ == 0) {
+                    logger.warn("共享内存报价表槽已用完: slots={}, 忽略 {}", writer.slotCount(), info.symbol);
+                }
+                return null;
+            }
+            slot = nextSlot++;
+        }
+        writer.activate(slot, info.tickerId, info.symbol, info.conId);
+        SlotEntry entry = new SlotEntry(slot, info.symbol);
+        slots.put(info.tickerId, entry);
+        logger.info("共享内存报价槽: slot={}, tickerId={}, symbol={}", slot, info.tickerId, info.symbol);
+        return entry;
+    }
+
+    /**
+     * 取消订阅时释放对应的槽，调用前订阅须已标记为cancelled
+     */
+    public synchronized void release(int tickerId) {
+        SlotEntry entry = slots.remove(tickerId);
+        if (entry != null && writer != null) {
+            writer.deactivate(entry.slot);
+            freeSlots.addLast(entry.slot);
+        }
+    }
+
+    @Override
+    public void onEvent(String type, String symbol, Map<String, Object> data) {
+        // 报价表只包含报价
+    }
+
+    /**
+     * 启用后镜像全部报价，不按订阅过滤
+     */
+    @Override
+    public boolean hasSubscribers(String symbol) {
+        return writer != null;
+    }
+
+    /**
+     * 获取报价表统计
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", writer != null);
+        stats.put("path", path);
+        stats.put("slots", slotCount);
+        stats.put("usedSlots", slots.size());
+        stats.put("freeSlots", freeSlots.size());
+        stats.put("writes", writes);
+        stats.put("rejected", rejected);
+        return stats;
+    }
+}
@@ -0,0 +1,104 @@
+package com.gauss.trading.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 相同请求合并
+ *
+ * 同一个键已有请求在进行中时，后来的调用不再发出请求，而是等待同一个结果；
+ * 请求完成（成功或失败）后立即移除，之后的调用重新发出请求。只合并进行中的请求，不缓存结果
+ *
+ * @param <K> 请求键，需实现equals/hashCode
+ * @param <V> 结果类型
+ */
+public class SingleFlight<K, V> {
+
+    private final String name;
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger peakWaiters = new AtomicInteger();
+
+    /**
+     * 进行中的请求
+     */
+    private static class Flight<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final AtomicInteger waiters = new AtomicInteger(1);
+    }
+
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 执行请求，相同键的进行中请求只执行一次
+     *
+     * 每个调用方拿到独立的Future，单个调用方取消不影响其他等待者和上游请求
+     *
+     * @param call 发出请求的函数，只在没有进行中的请求时调用
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        requests.incrementAndGet();
+        Flight<V> flight = new Flight<>();
+        Flight<V> existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            merged.incrementAndGet();
+            peakWaiters.accumulateAndGet(existing.waiters.incrementAndGet(), Math::max);
+            return existing.result.copy();
+        }
+
+        executions.incrementAndGet();
+        CompletableFuture<V> upstream;
+        try {
+            upstream = call.get();
+        } catch (Exception e) {
+            upstream = CompletableFuture.failedFuture(e);
+        }
+        upstream.whenComplete((value, error) -> {
+            // 先移除再完成，完成之后到达的调用会重新发出请求
+            flights.remove(key, flight);
+            if (error != null) {
+                failures.incrementAndGet();
+                flight.result.completeExceptionally(error);
+            } else {
+                flight.result.complete(value);
+            }
+        });
+        return flight.result.copy();
+    }
+
+    /**
+     * 当前进行中的请求数
+     */
+    public int inFlight() {
+        return flights.size();
+    }
+
+    /**
+     * 获取合并统计
+     */
+    public Map<String, Object> getStats() {
+        long total = requests.get();
+        long mergedCount = merged.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("inFlight", flights.size());
+        stats.put("requests", total);
+        stats.put("executions", executions.get());
+        stats.put("merged", mergedCount);
+        stats.put("failures", failures.get());
+        stats.put("mergeRate", total > 0 ? (double) mergedCount / total : 0.0);
+        stats.put("peakWaiters", peakWaiters.get());
+        return stats;
+    }
+}
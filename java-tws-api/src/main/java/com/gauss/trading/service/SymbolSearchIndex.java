@@ -0,0 +1,447 @@
+package com.gauss.trading.service;
+
+import com.ib.client.Contract;
+import com.ib.client.ContractDescription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地代码搜索索引
+ *
+ * 收集reqMatchingSymbols和合约详情的结果，按代码、本地代码和名称中的每个词建立前缀索引。
+ * 输入联想直接查内存；本地结果不足且该关键字近期未向TWS查询过时，才经节流发出reqMatchingSymbols，
+ * 结果合并进索引后再返回
+ */
+@Service
+public class SymbolSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SymbolSearchIndex.class);
+
+    // 索引键为 词 + 分隔符 + conId，同一前缀的键在跳表中相邻
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    // 匹配方式，数值越小排序越靠前
+    private static final int MATCH_SYMBOL_EXACT = 0;
+    private static final int MATCH_SYMBOL_PREFIX = 1;
+    private static final int MATCH_LOCAL_SYMBOL = 2;
+    private static final int MATCH_DESCRIPTION = 3;
+
+    // 每次查询最多检查的索引键数，避免单字母前缀扫描过多
+    private static final int MAX_SCAN = 500;
+
+    // 查询记录的上限；过期记录在每次记录新查询时清理，这里只防止配置了很长的TTL时无限增长
+    private static final int MAX_LOOKED_UP = 10000;
+
+    public static final String SOURCE_LOCAL = "local";
+    public static final String SOURCE_TWS = "tws";
+
+    @Autowired
+    private TwsConnectionService connectionService;
+
+    @Autowired
+    private TwsRequestPacer requestPacer;
+
+    @Autowired
+    private ContractDetailsCache contractCache;
+
+    @Value("${tws.symbol-search.max-entries:200000}")
+    private int maxEntries;
+
+    // 本地结果达到该数量时不再查询TWS
+    @Value("${tws.symbol-search.min-local-results:5}")
+    private int minLocalResults;
+
+    // 同一关键字在该时间内只向TWS查询一次
+    @Value("${tws.symbol-search.lookup-ttl-minutes:60}")
+    private long lookupTtlMinutes;
+
+    // TWS限制reqMatchingSymbols每秒一次
+    @Value("${tws.symbol-search.min-interval-ms:1000}")
+    private long minIntervalMillis;
+
+    // 排队等待超过该时间的查询直接返回本地结果
+    @Value("${tws.symbol-search.max-wait-ms:3000}")
+    private long maxWaitMillis;
+
+    private final ConcurrentSkipListMap<String, SymbolEntry> index = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Integer, SymbolEntry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> lookedUp = new ConcurrentHashMap<>();
+    private final SingleFlight<String, List<ContractDescription>> lookups = new SingleFlight<>("matchingSymbols");
+
+    // 下一次可以发出reqMatchingSymbols的时刻
+    private long nextLookupAt;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong localAnswers = new AtomicLong();
+    private final AtomicLong twsLookups = new AtomicLong();
+    private final AtomicLong skippedLookups = new AtomicLong();
+    private final AtomicLong totalQueryNanos = new AtomicLong();
+
+    private static final Comparator<RankedEntry> RANKING =
+        Comparator.comparingInt((RankedEntry ranked) -> ranked.rank)
+                  .thenComparingInt(ranked -> ranked.entry.symbol.length())
+                  .thenComparing(ranked -> ranked.entry.symbol);
+
+    /**
+     * 带匹配方式的查询结果，排序时不再重复计算
+     */
+    private static class RankedEntry {
+        final SymbolEntry entry;
+        final int rank;
+
+        RankedEntry(SymbolEntry entry, int rank) {
+            this.entry = entry;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * 索引中的一个合约
+     */
+    public static class SymbolEntry {
+        public final int conId;
+        public final String symbol;
+        public final String localSymbol;
+        public final String secType;
+        public final String exchange;
+        public final String currency;
+        public final String description;
+        public final List<String> derivativeSecTypes;
+        final List<String> tokens;
+        private final String upperSymbol;
+        private final String upperLocalSymbol;
+
+        SymbolEntry(int conId, String symbol, String localSymbol, String secType, String exchange, String currency,
+                    String description, List<String> derivativeSecTypes) {
+            this.conId = conId;
+            this.symbol = symbol;
+            this.localSymbol = localSymbol;
+            this.secType = secType;
+            this.exchange = exchange;
+            this.currency = currency;
+            this.description = description;
+            this.derivativeSecTypes = derivativeSecTypes;
+            this.tokens = tokensOf(symbol, localSymbol, description);
+            this.upperSymbol = normalize(symbol);
+            this.upperLocalSymbol = normalize(localSymbol);
+        }
+
+        /**
+         * 查询词与该合约的匹配方式
+         */
+        int matchRank(String query) {
+            if (upperSymbol.equals(query)) {
+                return MATCH_SYMBOL_EXACT;
+            }
+            if (upperSymbol.startsWith(query)) {
+                return MATCH_SYMBOL_PREFIX;
+            }
+            if (upperLocalSymbol.startsWith(query)) {
+                return MATCH_LOCAL_SYMBOL;
+            }
+            return MATCH_DESCRIPTION;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("conId", conId);
+            map.put("symbol", symbol);
+            map.put("localSymbol", localSymbol);
+            map.put("secType", secType);
+            map.put("exchange", exchange);
+            map.put("currency", currency);
+            map.put("description", description);
+            map.put("derivativeSecTypes", derivativeSecTypes);
+            return map;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        List<Map<String, Object>> cached = contractCache.contracts();
+        addContracts(cached);
+        logger.info("代码搜索索引已从合约缓存加载: contracts={}, keys={}", entries.size(), index.size());
+    }
+
+    /**
+     * 搜索代码，本地结果不足时查询TWS
+     */
+    public CompletableFuture<Map<String, Object>> search(String query, int limit) {
+        long startNanos = System.nanoTime();
+        queries.incrementAndGet();
+        String normalized = normalize(query);
+        List<SymbolEntry> local = searchLocal(normalized, limit);
+        totalQueryNanos.addAndGet(System.nanoTime() - startNanos);
+
+        if (normalized.isEmpty() || local.size() >= Math.min(limit, minLocalResults) || recentlyLookedUp(normalized)) {
+            localAnswers.incrementAndGet();
+            return CompletableFuture.completedFuture(result(query, local, SOURCE_LOCAL, startNanos));
+        }
+
+        return lookups.execute(normalized, () -> lookup(normalized)).handle((descriptions, error) -> {
+            if (error != null) {
+                logger.warn("TWS代码搜索失败: query={}, error={}", query, error.getMessage());
+                return result(query, local, SOURCE_LOCAL, startNanos);
+            }
+            if (descriptions == null) {
+                return result(query, local, SOURCE_LOCAL, startNanos);
+            }
+            return result(query, searchLocal(normalized, limit), SOURCE_TWS, startNanos);
+        });
+    }
+
+    /**
+     * 只查本地索引
+     *
+     * 查询含多个词时按第一个词的前缀扫描，其余每个词都须是该合约某个索引词的前缀
+     */
+    public List<SymbolEntry> searchLocal(String query, int limit) {
+        String[] words = normalize(query).split("\\s+");
+        String prefix = words[0];
+        if (prefix.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        Map<Integer, SymbolEntry> matches = new LinkedHashMap<>();
+        int scanned = 0;
+        for (Map.Entry<String, SymbolEntry> entry : index.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix) || ++scanned > MAX_SCAN) {
+                break;
+            }
+            SymbolEntry candidate = entry.getValue();
+            if (!matches.containsKey(candidate.conId) && matchesAll(candidate, words)) {
+                matches.put(candidate.conId, candidate);
+            }
+        }
+        List<RankedEntry> ranked = new ArrayList<>(matches.size());
+        matches.values().forEach(entry -> ranked.add(new RankedEntry(entry, entry.matchRank(prefix))));
+        ranked.sort(RANKING);
+        List<SymbolEntry> results = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            results.add(ranked.get(i).entry);
+        }
+        return results;
+    }
+
+    private static boolean matchesAll(SymbolEntry entry, String[] words) {
+        for (int i = 1; i < words.length; i++) {
+            String word = words[i];
+            if (entry.tokens.stream().noneMatch(token -> token.startsWith(word))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 收集合约详情（ContractDetailsMapper格式）
+     */
+    public void addContracts(List<Map<String, Object>> contracts) {
+        for (Map<String, Object> details : contracts) {
+            if (!(details.get("conId") instanceof Number)) {
+                continue;
+            }
+            String description = ContractDetailsMapper.stringValue(details, "longName");
+            if (description.isEmpty()) {
+                description = ContractDetailsMapper.stringValue(details, "description");
+            }
+            add(new SymbolEntry(((Number) details.get("conId")).intValue(),
+                                ContractDetailsMapper.stringValue(details, "symbol"),
+                                ContractDetailsMapper.stringValue(details, "localSymbol"),
+                                ContractDetailsMapper.stringValue(details, "secType"),
+                                ContractDetailsMapper.stringValue(details, "exchange"),
+                                ContractDetailsMapper.stringValue(details, "currency"),
+                                description, List.of()));
+        }
+    }
+
+    /**
+     * 收集reqMatchingSymbols的结果
+     */
+    public void addDescriptions(List<ContractDescription> descriptions) {
+        for (ContractDescription description : descriptions) {
+            Contract contract = description.contract();
+            if (contract == null || contract.conid() == 0) {
+                continue;
+            }
+            String[] derivatives = description.derivativeSecTypes();
+            add(new SymbolEntry(contract.conid(), nullToEmpty(contract.symbol()), nullToEmpty(contract.localSymbol()),
+                                contract.secType() != null ? contract.secType().name() : "",
+                                nullToEmpty(contract.primaryExch()), nullToEmpty(contract.currency()),
+                                nullToEmpty(contract.description()),
+                                derivatives != null ? List.of(derivatives) : List.of()));
+        }
+    }
+
+    /**
+     * 登记或合并一个合约；TWS消息线程和节流线程都会调用，同一conId的更新在compute内串行完成，
+     * 不会留下旧条目的索引键
+     */
+    private void add(SymbolEntry update) {
+        entries.compute(update.conId, (conId, previous) -> {
+            if (previous == null && entries.size() >= maxEntries) {
+                return null;
+            }
+            SymbolEntry entry = update;
+            if (previous != null) {
+                entry = mergeEntry(previous, update);
+                for (String token : previous.tokens) {
+                    index.remove(indexKey(token, conId), previous);
+                }
+            }
+            for (String token : entry.tokens) {
+                index.put(indexKey(token, conId), entry);
+            }
+            return entry;
+        });
+    }
+
+    /**
+     * 两个来源字段不同：合约详情有本地代码和全称，reqMatchingSymbols有衍生品类型，合并后保留非空字段
+     */
+    private static SymbolEntry mergeEntry(SymbolEntry previous, SymbolEntry update) {
+        return new SymbolEntry(update.conId,
+                               firstNonEmpty(update.symbol, previous.symbol),
+                               firstNonEmpty(update.localSymbol, previous.localSymbol),
+                               firstNonEmpty(update.secType, previous.secType),
+                               firstNonEmpty(update.exchange, previous.exchange),
+                               firstNonEmpty(update.currency, previous.currency),
+                               firstNonEmpty(update.description, previous.description),
+                               !update.derivativeSecTypes.isEmpty() ? update.derivativeSecTypes
+                                                                    : previous.derivativeSecTypes);
+    }
+
+    private boolean recentlyLookedUp(String query) {
+        Long at = lookedUp.get(query);
+        return at != null && System.currentTimeMillis() - at < TimeUnit.MINUTES.toMillis(lookupTtlMinutes);
+    }
+
+    /**
+     * 记录已向TWS查询的关键字，同时清理过期的记录
+     */
+    private void recordLookup(String query) {
+        long now = System.currentTimeMillis();
+        long ttlMillis = TimeUnit.MINUTES.toMillis(lookupTtlMinutes);
+        lookedUp.values().removeIf(at -> now - at >= ttlMillis);
+        if (lookedUp.size() >= MAX_LOOKED_UP) {
+            lookedUp.clear();
+        }
+        lookedUp.put(query, now);
+    }
+
+    /**
+     * 预留一次reqMatchingSymbols的发送时刻，返回需要等待的毫秒数；等待超过上限时返回-1
+     */
+    private synchronized long reserveLookupSlot() {
+        long now = System.currentTimeMillis();
+        long at = Math.max(now, nextLookupAt);
+        if (at - now > maxWaitMillis) {
+            return -1;
+        }
+        nextLookupAt = at + minIntervalMillis;
+        return at - now;
+    }
+
+    /**
+     * 按发送间隔排队查询TWS；排队过长时不查询，返回null
+     */
+    private CompletableFuture<List<ContractDescription>> lookup(String query) {
+        long delayMillis = reserveLookupSlot();
+        if (delayMillis < 0) {
+            skippedLookups.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+        twsLookups.incrementAndGet();
+        Executor delayed = CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS);
+        return CompletableFuture.runAsync(() -> { }, delayed)
+            .thenCompose(ignored -> requestPacer.submit(() -> connectionService.requestMatchingSymbols(query)))
+            .thenApply(descriptions -> {
+                addDescriptions(descriptions);
+                recordLookup(query);
+                logger.info("TWS代码搜索: query={}, results={}, indexed={}", query, descriptions.size(), entries.size());
+                return descriptions;
+            });
+    }
+
+    private Map<String, Object> result(String query, List<SymbolEntry> matches, String source, long startNanos) {
+        List<Map<String, Object>> results = new ArrayList<>(matches.size());
+        matches.forEach(entry -> results.add(entry.toMap()));
+        Map<String, Object> result = new HashMap<>();
+        result.put("query", query);
+        result.put("source", source);
+        result.put("results", results);
+        result.put("elapsedMicros", (System.nanoTime() - startNanos) / 1000);
+        return result;
+    }
+
+    /**
+     * 获取索引统计
+     */
+    public Map<String, Object> getStats() {
+        long queryCount = queries.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("contracts", entries.size());
+        stats.put("keys", index.size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("queries", queryCount);
+        stats.put("localAnswers", localAnswers.get());
+        stats.put("twsLookups", twsLookups.get());
+        stats.put("skippedLookups", skippedLookups.get());
+        stats.put("lookedUpQueries", lookedUp.size());
+        stats.put("avgLocalQueryMicros", queryCount > 0 ? totalQueryNanos.get() / queryCount / 1000.0 : 0.0);
+        stats.put("inFlight", lookups.getStats());
+        return stats;
+    }
+
+    private static String indexKey(String token, int conId) {
+        return token + KEY_SEPARATOR + conId;
+    }
+
+    /**
+     * 代码、本地代码和名称中的每个词，去重后作为索引词
+     */
+    private static List<String> tokensOf(String symbol, String localSymbol, String description) {
+        List<String> tokens = new ArrayList<>();
+        addToken(tokens, normalize(symbol));
+        addToken(tokens, normalize(localSymbol));
+        for (String word : normalize(description).split("[^\\p{L}\\p{N}]+")) {
+            addToken(tokens, word);
+        }
+        return tokens;
+    }
+
+    private static void addToken(List<String> tokens, String token) {
+        if (!token.isEmpty() && !tokens.contains(token)) {
+            tokens.add(token);
+        }
+    }
+
+    private static String normalize(String value) {
+        return value != null ? value.trim().toUpperCase(Locale.ROOT) : "";
+    }
+
+    private static String firstNonEmpty(String value, String fallback) {
+        return !value.isEmpty() ? value : fallback;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
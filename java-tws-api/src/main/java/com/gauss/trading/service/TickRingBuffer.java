@@ -0,0 +1,119 @@
+package com.gauss.trading.service;
+
+import java.util.Arrays;
+
+/**
+ * 逐笔成交环形缓冲区
+ *
+ * 固定容量的原始类型数组，按列存储时间、价格、数量和标志位。
+ * 单线程写入（TWS消息处理线程），任意线程读取，写入路径不产生对象分配。
+ */
+public class TickRingBuffer {
+
+    public static final int FLAG_PAST_LIMIT = 1;
+    public static final int FLAG_UNREPORTED = 1 << 1;
+    public static final int FLAG_MIDPOINT = 1 << 2;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] times;
+    private final double[] prices;
+    private final double[] sizes;
+    private final int[] flags;
+
+    // 已写入的总条数，volatile写入用于向读线程发布数组内容
+    private volatile long writeSeq = 0;
+
+    /**
+     * 逐笔快照，由读线程持有的独立副本
+     */
+    public static class Snapshot {
+        public final long[] times;
+        public final double[] prices;
+        public final double[] sizes;
+        public final int[] flags;
+        public final int count;
+        public final long firstSeq;
+
+        Snapshot(long[] times, double[] prices, double[] sizes, int[] flags, int count, long firstSeq) {
+            this.times = times;
+            this.prices = prices;
+            this.sizes = sizes;
+            this.flags = flags;
+            this.count = count;
+            this.firstSeq = firstSeq;
+        }
+    }
+
+    public TickRingBuffer(int requestedCapacity) {
+        // 容量向上取整到2的幂，用位运算代替取模
+        int cap = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.times = new long[cap];
+        this.prices = new double[cap];
+        this.sizes = new double[cap];
+        this.flags = new int[cap];
+    }
+
+    /**
+     * 追加一条逐笔记录（仅限单一写线程调用）
+     */
+    public void append(long time, double price, double size, int flag) {
+        long seq = writeSeq;
+        int index = (int) (seq & mask);
+        times[index] = time;
+        prices[index] = price;
+        sizes[index] = size;
+        flags[index] = flag;
+        writeSeq = seq + 1;
+    }
+
+    /**
+     * 复制最近的n条记录，按时间先后排列
+     *
+     * 复制完成后重新检查写序号，丢弃复制期间被覆盖的最早记录
+     */
+    public Snapshot latest(int n) {
+        long end = writeSeq;
+        long start = Math.max(0, Math.max(end - n, end - capacity));
+        int count = (int) (end - start);
+
+        long[] t = new long[count];
+        double[] p = new double[count];
+        double[] s = new double[count];
+        int[] f = new int[count];
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((start + i) & mask);
+            t[i] = times[index];
+            p[i] = prices[index];
+            s[i] = sizes[index];
+            f[i] = flags[index];
+        }
+
+        // 写线程在复制期间可能已经绕回覆盖了开头部分；序号为writeSeq的写入可能正在进行，
+        // 它覆盖的槽位也不可信
+        long overwritten = writeSeq - capacity - start + 1;
+        if (overwritten > 0) {
+            int skip = (int) Math.min(overwritten, count);
+            return new Snapshot(
+                Arrays.copyOfRange(t, skip, count),
+                Arrays.copyOfRange(p, skip, count),
+                Arrays.copyOfRange(s, skip, count),
+                Arrays.copyOfRange(f, skip, count),
+                count - skip, start + skip);
+        }
+        return new Snapshot(t, p, s, f, count, start);
+    }
+
+    /**
+     * 已写入的总条数（包括已被覆盖的）
+     */
+    public long totalCount() {
+        return writeSeq;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
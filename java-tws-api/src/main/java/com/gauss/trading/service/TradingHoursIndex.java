@@ -0,0 +1,122 @@
+package com.gauss.trading.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 合约交易时段索引
+ *
+ * 按conId缓存解析后的交易时段（tradingHours）和流动性时段（liquidHours）。合约详情更新后
+ * 时段字符串变化时重新解析，否则直接复用
+ */
+@Service
+public class TradingHoursIndex {
+
+    @Autowired
+    private ContractRegistry contractRegistry;
+
+    @Autowired
+    private ContractDetailsCache contractCache;
+
+    private final ConcurrentHashMap<Integer, ParsedHours> schedules = new ConcurrentHashMap<>();
+
+    /**
+     * 一个合约解析后的时段，连同解析所用的原始字符串
+     */
+    private static class ParsedHours {
+        final String tradingHours;
+        final String liquidHours;
+        final String timeZoneId;
+        final TradingSchedule trading;
+        final TradingSchedule liquid;
+
+        ParsedHours(String tradingHours, String liquidHours, String timeZoneId) {
+            this.tradingHours = tradingHours;
+            this.liquidHours = liquidHours;
+            this.timeZoneId = timeZoneId;
+            this.trading = TradingSchedule.parse(tradingHours, timeZoneId);
+            this.liquid = TradingSchedule.parse(liquidHours, timeZoneId);
+        }
+
+        boolean matches(String tradingHours, String liquidHours, String timeZoneId) {
+            return this.tradingHours.equals(tradingHours) && this.liquidHours.equals(liquidHours)
+                && this.timeZoneId.equals(timeZoneId);
+        }
+    }
+
+    /**
+     * 获取合约的交易时段
+     *
+     * @param liquid true时返回流动性时段
+     * @return 合约未登记或没有时段信息时返回null
+     */
+    public TradingSchedule get(int conId, boolean liquid) {
+        ParsedHours parsed = parsed(conId);
+        if (parsed == null) {
+            return null;
+        }
+        TradingSchedule schedule = liquid ? parsed.liquid : parsed.trading;
+        return schedule.isEmpty() ? null : schedule;
+    }
+
+    private ParsedHours parsed(int conId) {
+        ContractRegistry.ContractHandle contract = contractRegistry.byConId(conId);
+        Map<String, Object> details = contract != null ? contract.details : contractCache.get(conId);
+        if (details == null) {
+            return null;
+        }
+        String tradingHours = ContractDetailsMapper.stringValue(details, "tradingHours");
+        String liquidHours = ContractDetailsMapper.stringValue(details, "liquidHours");
+        String timeZoneId = ContractDetailsMapper.stringValue(details, "timeZoneId");
+        ParsedHours cached = schedules.get(conId);
+        if (cached != null && cached.matches(tradingHours, liquidHours, timeZoneId)) {
+            return cached;
+        }
+        ParsedHours fresh = new ParsedHours(tradingHours, liquidHours, timeZoneId);
+        schedules.put(conId, fresh);
+        return fresh;
+    }
+
+    /**
+     * 合约当前的时段状态
+     *
+     * @return 合约未登记时返回null
+     */
+    public Map<String, Object> status(int conId, long nowMillis, int upcoming) {
+        ParsedHours parsed = parsed(conId);
+        if (parsed == null) {
+            return null;
+        }
+        Map<String, Object> status = new HashMap<>();
+        status.put("conId", conId);
+        status.put("timeZoneId", parsed.timeZoneId);
+        status.put("trading", scheduleStatus(parsed.trading, nowMillis, upcoming));
+        status.put("liquid", scheduleStatus(parsed.liquid, nowMillis, upcoming));
+        return status;
+    }
+
+    private static Map<String, Object> scheduleStatus(TradingSchedule schedule, long nowMillis, int upcoming) {
+        Map<String, Object> status = new HashMap<>();
+        boolean known = schedule.covers(nowMillis);
+        status.put("known", known);
+        status.put("open", known && schedule.isOpen(nowMillis));
+        status.put("nextOpen", instantOrNull(schedule.nextOpen(nowMillis)));
+        status.put("nextClose", instantOrNull(schedule.nextClose(nowMillis)));
+        status.put("coveredUntil", instantOrNull(schedule.coveredUntil()));
+        status.put("sessions", schedule.upcoming(nowMillis, upcoming));
+        return status;
+    }
+
+    private static String instantOrNull(long millis) {
+        return millis >= 0 ? Instant.ofEpochMilli(millis).toString() : null;
+    }
+
+    public int size() {
+        return schedules.size();
+    }
+}
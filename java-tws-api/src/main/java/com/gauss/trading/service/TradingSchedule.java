@@ -0,0 +1,224 @@
+package com.gauss.trading.service;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 交易时段索引
+ *
+ * 解析合约详情的tradingHours/liquidHours，按合约时区换算为UTC毫秒，合并重叠和相接的时段后
+ * 存为两个有序数组（开盘、收盘）。是否开盘、下次开盘和下次收盘都是二分查找。
+ * 只覆盖TWS给出的日期范围（通常一周左右，从列出的第一天0点起，包括CLOSED的日期），范围之外视为未知。实例不可变
+ */
+public class TradingSchedule {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HHmm");
+
+    private static final TradingSchedule EMPTY = new TradingSchedule(new long[0], new long[0], Long.MAX_VALUE);
+
+    private final long[] opens;
+    private final long[] closes;
+    // 覆盖范围的起点：列出的第一天（可能是CLOSED）的0点
+    private final long coveredFrom;
+
+    private TradingSchedule(long[] opens, long[] closes, long coveredFrom) {
+        this.opens = opens;
+        this.closes = closes;
+        this.coveredFrom = coveredFrom;
+    }
+
+    /**
+     * 解析交易时段
+     *
+     * 支持两种格式：新格式 20250310:1700-20250311:1600;20250315:CLOSED，
+     * 旧格式 20090507:0700-1830,1830-2330;20090508:CLOSED（结束时间早于开始时间时视为次日）。
+     * 无法解析的段被忽略
+     */
+    public static TradingSchedule parse(String hours, String timeZoneId) {
+        if (hours == null || hours.isEmpty()) {
+            return EMPTY;
+        }
+        ZoneId zone = zoneOf(timeZoneId);
+        List<long[]> intervals = new ArrayList<>();
+        long firstDay = Long.MAX_VALUE;
+        for (String day : hours.split(";")) {
+            day = day.trim();
+            int colon = day.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            try {
+                LocalDate date = LocalDate.parse(day.substring(0, colon), DATE_FORMAT);
+                // 周末等CLOSED的日期同样在覆盖范围内：此时确定是休市，而不是未知
+                firstDay = Math.min(firstDay, date.atStartOfDay(zone).toInstant().toEpochMilli());
+                if (day.endsWith("CLOSED")) {
+                    continue;
+                }
+                for (String range : day.substring(colon + 1).split(",")) {
+                    long[] interval = parseRange(date, range.trim(), zone);
+                    if (interval != null) {
+                        intervals.add(interval);
+                    }
+                }
+            } catch (DateTimeParseException | StringIndexOutOfBoundsException e) {
+                // 跳过格式不符的段
+            }
+        }
+        return merge(intervals, firstDay);
+    }
+
+    private static long[] parseRange(LocalDate date, String range, ZoneId zone) {
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        String start = range.substring(0, dash);
+        String end = range.substring(dash + 1);
+        LocalTime startTime = LocalTime.parse(start, TIME_FORMAT);
+        LocalDate endDate = date;
+        int endColon = end.indexOf(':');
+        if (endColon >= 0) {
+            endDate = LocalDate.parse(end.substring(0, endColon), DATE_FORMAT);
+            end = end.substring(endColon + 1);
+        }
+        // 2400表示当日结束
+        LocalTime endTime;
+        if ("2400".equals(end)) {
+            endTime = LocalTime.MIDNIGHT;
+            endDate = endDate.plusDays(1);
+        } else {
+            endTime = LocalTime.parse(end, TIME_FORMAT);
+            if (endColon < 0 && !endTime.isAfter(startTime)) {
+                endDate = endDate.plusDays(1);
+            }
+        }
+        long open = date.atTime(startTime).atZone(zone).toInstant().toEpochMilli();
+        long close = endDate.atTime(endTime).atZone(zone).toInstant().toEpochMilli();
+        return close > open ? new long[] {open, close} : null;
+    }
+
+    private static TradingSchedule merge(List<long[]> intervals, long firstDay) {
+        if (intervals.isEmpty()) {
+            return EMPTY;
+        }
+        intervals.sort((left, right) -> Long.compare(left[0], right[0]));
+        long[] opens = new long[intervals.size()];
+        long[] closes = new long[intervals.size()];
+        int count = 0;
+        for (long[] interval : intervals) {
+            if (count > 0 && interval[0] <= closes[count - 1]) {
+                closes[count - 1] = Math.max(closes[count - 1], interval[1]);
+            } else {
+                opens[count] = interval[0];
+                closes[count] = interval[1];
+                count++;
+            }
+        }
+        return new TradingSchedule(Arrays.copyOf(opens, count), Arrays.copyOf(closes, count),
+                                   Math.min(firstDay, opens[0]));
+    }
+
+    private static ZoneId zoneOf(String timeZoneId) {
+        if (timeZoneId != null && !timeZoneId.isEmpty()) {
+            try {
+                return ZoneId.of(timeZoneId.trim(), ZoneId.SHORT_IDS);
+            } catch (DateTimeException e) {
+                // 无法识别的时区按UTC处理
+            }
+        }
+        return ZoneOffset.UTC;
+    }
+
+    /**
+     * 最后一个开盘时刻不晚于t的时段下标，没有时返回-1
+     */
+    private int floorIndex(long t) {
+        int low = 0;
+        int high = opens.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (opens[mid] <= t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * t是否在时段范围内，超出范围时无法判断
+     */
+    public boolean covers(long t) {
+        return opens.length > 0 && t >= coveredFrom && t < closes[closes.length - 1];
+    }
+
+    public boolean isOpen(long t) {
+        int index = floorIndex(t);
+        return index >= 0 && t < closes[index];
+    }
+
+    /**
+     * t之后的下一次开盘时刻（开盘中返回下一时段的开盘），未知时返回-1
+     */
+    public long nextOpen(long t) {
+        int index = floorIndex(t) + 1;
+        return index < opens.length ? opens[index] : -1;
+    }
+
+    /**
+     * 开盘中返回本时段收盘时刻，否则返回下一时段的收盘时刻，未知时返回-1
+     */
+    public long nextClose(long t) {
+        int index = floorIndex(t);
+        if (index >= 0 && t < closes[index]) {
+            return closes[index];
+        }
+        return index + 1 < closes.length ? closes[index + 1] : -1;
+    }
+
+    /**
+     * 时段覆盖到的最后时刻，没有时段时返回-1
+     */
+    public long coveredUntil() {
+        return closes.length > 0 ? closes[closes.length - 1] : -1;
+    }
+
+    public int size() {
+        return opens.length;
+    }
+
+    public boolean isEmpty() {
+        return opens.length == 0;
+    }
+
+    /**
+     * 从t起的后续count个时段（含当前时段）
+     */
+    public List<Map<String, Object>> upcoming(long t, int count) {
+        List<Map<String, Object>> sessions = new ArrayList<>();
+        int index = Math.max(0, floorIndex(t));
+        if (index < closes.length && closes[index] <= t) {
+            index++;
+        }
+        for (int i = index; i < opens.length && sessions.size() < count; i++) {
+            Map<String, Object> session = new HashMap<>();
+            session.put("open", Instant.ofEpochMilli(opens[i]).toString());
+            session.put("close", Instant.ofEpochMilli(closes[i]).toString());
+            sessions.add(session);
+        }
+        return sessions;
+    }
+}
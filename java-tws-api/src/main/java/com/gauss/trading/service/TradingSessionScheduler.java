@@ -0,0 +1,181 @@
+package com.gauss.trading.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 交易时段调度
+ *
+ * 定期检查行情订阅：合约休市且距下次开盘足够久时暂停订阅，释放行情线路；开盘前resume-lead-seconds恢复。
+ * 时段未知（合约未登记、没有时段信息或超出TWS给出的范围）时不暂停，已暂停的立即恢复。
+ * 时段快用完时在后台重新获取合约详情
+ */
+@Service
+public class TradingSessionScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TradingSessionScheduler.class);
+
+    // 同一合约重新获取合约详情的最短间隔
+    private static final long REFRESH_RETRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Autowired
+    private TwsConnectionService connectionService;
+
+    @Autowired
+    private TwsMarketDataService marketDataService;
+
+    @Autowired
+    private TwsContractService contractService;
+
+    @Autowired
+    private TradingHoursIndex hoursIndex;
+
+    @Value("${tws.sessions.enabled:true}")
+    private boolean enabled;
+
+    @Value("${tws.sessions.check-seconds:30}")
+    private long checkSeconds;
+
+    // 开盘前提前恢复的秒数
+    @Value("${tws.sessions.resume-lead-seconds:120}")
+    private long resumeLeadSeconds;
+
+    // 距下次开盘少于该分钟数时不暂停，避免短暂休市反复取消/订阅
+    @Value("${tws.sessions.min-pause-minutes:15}")
+    private long minPauseMinutes;
+
+    // true时按liquidHours判断，否则按tradingHours
+    @Value("${tws.sessions.use-liquid-hours:false}")
+    private boolean useLiquidHours;
+
+    // 时段剩余不足该小时数时重新获取合约详情
+    @Value("${tws.sessions.refresh-before-hours:48}")
+    private long refreshBeforeHours;
+
+    private final ConcurrentHashMap<Integer, Long> refreshAttempts = new ConcurrentHashMap<>();
+
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong pauses = new AtomicLong();
+    private final AtomicLong resumes = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            logger.info("交易时段调度已关闭");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TWS-Session-Scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, checkSeconds, checkSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 检查全部行情订阅，按时段暂停或恢复
+     */
+    public void check() {
+        if (!connectionService.isConnected()) {
+            return;
+        }
+        checks.incrementAndGet();
+        long now = System.currentTimeMillis();
+        marketDataService.getAllMarketData().forEach((tickerId, info) -> {
+            try {
+                checkSubscription(tickerId, info, now);
+            } catch (Exception e) {
+                logger.error("交易时段检查异常: tickerId={}, error={}", tickerId, e.getMessage(), e);
+            }
+        });
+    }
+
+    private void checkSubscription(int tickerId, TwsMarketDataService.MarketDataInfo info, long now) {
+        int conId = info.conId;
+        TradingSchedule schedule = hoursIndex.get(conId, useLiquidHours);
+        if (schedule == null || schedule.coveredUntil() - now < TimeUnit.HOURS.toMillis(refreshBeforeHours)) {
+            refreshDetails(conId, now);
+        }
+
+        boolean known = schedule != null && schedule.covers(now);
+        long nextOpen = known ? schedule.nextOpen(now) : -1;
+        if (info.paused) {
+            // 时段未知、已开盘或临近开盘时恢复
+            if (!known || schedule.isOpen(now) || nextOpen < 0
+                || nextOpen - now <= TimeUnit.SECONDS.toMillis(resumeLeadSeconds)) {
+                if (marketDataService.resumeMarketData(tickerId)) {
+                    resumes.incrementAndGet();
+                }
+            }
+            return;
+        }
+        if (known && !schedule.isOpen(now) && nextOpen > 0
+            && nextOpen - now > TimeUnit.MINUTES.toMillis(minPauseMinutes) + TimeUnit.SECONDS.toMillis(resumeLeadSeconds)) {
+            if (marketDataService.pauseMarketData(tickerId)) {
+                pauses.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 后台重新获取合约详情以取得新的时段，同一合约每小时最多一次
+     */
+    private void refreshDetails(int conId, long now) {
+        Long last = refreshAttempts.get(conId);
+        if (last != null && now - last < REFRESH_RETRY_MILLIS) {
+            return;
+        }
+        refreshAttempts.put(conId, now);
+        refreshes.incrementAndGet();
+        contractService.refreshContractDetails(conId).whenComplete((details, error) -> {
+            if (error != null) {
+                logger.warn("更新交易时段失败: conId={}, error={}", conId, error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 获取调度统计
+     */
+    public Map<String, Object> getStats() {
+        int paused = 0;
+        for (TwsMarketDataService.MarketDataInfo info : marketDataService.getAllMarketData().values()) {
+            if (info.paused) {
+                paused++;
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("useLiquidHours", useLiquidHours);
+        stats.put("pausedSubscriptions", paused);
+        stats.put("indexedContracts", hoursIndex.size());
+        stats.put("checks", checks.get());
+        stats.put("pauses", pauses.get());
+        stats.put("resumes", resumes.get());
+        stats.put("detailRefreshes", refreshes.get());
+        return stats;
+    }
+}
@@ -0,0 +1,207 @@
+package com.gauss.trading.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * K线聚合服务
+ *
+ * 由实时LAST/VOLUME tick增量生成多周期OHLCV K线，每个tick只遍历一次所有周期
+ */
+@Service
+public class TwsBarAggregationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwsBarAggregationService.class);
+
+    @Autowired
+    private MarketEventBus eventBus;
+
+    @Value("${tws.bars.history-size:1000}")
+    private int historySize;
+
+    private final ConcurrentHashMap<String, SymbolBars> barsBySymbol = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService sweepExecutor;
+
+    /**
+     * 支持的K线周期
+     */
+    public enum Timeframe {
+        S1("1s", 1_000L),
+        S5("5s", 5_000L),
+        M1("1m", 60_000L),
+        M5("5m", 300_000L),
+        M15("15m", 900_000L),
+        H1("1h", 3_600_000L);
+
+        public final String label;
+        public final long millis;
+
+        Timeframe(String label, long millis) {
+            this.label = label;
+            this.millis = millis;
+        }
+
+        public static Timeframe fromLabel(String label) {
+            for (Timeframe timeframe : values()) {
+                if (timeframe.label.equalsIgnoreCase(label)) {
+                    return timeframe;
+                }
+            }
+            throw new RuntimeException("不支持的K线周期: " + label);
+        }
+    }
+
+    /**
+     * 单个合约的全部周期K线
+     */
+    private class SymbolBars implements BarSeries.BarCloseListener {
+        final String symbol;
+        final BarSeries[] series = new BarSeries[Timeframe.values().length];
+        // 上一次收到的累计成交量及其来源订阅，用于计算增量
+        double lastCumulativeVolume = -1;
+        int volumeTickerId = -1;
+
+        SymbolBars(String symbol) {
+            this.symbol = symbol;
+            for (Timeframe timeframe : Timeframe.values()) {
+                series[timeframe.ordinal()] = new BarSeries(timeframe.millis, historySize);
+            }
+        }
+
+        @Override
+        public void onBarClose(BarSeries closed, long startTime, double open, double high, double low, double close,
+                               double volume) {
+            if (!eventBus.hasSubscribers(symbol)) {
+                return;
+            }
+            Timeframe timeframe = timeframeOf(closed);
+            Map<String, Object> bar = BarSeries.toMap(startTime, open, high, low, close, volume, true);
+            bar.put("timeframe", timeframe.label);
+            eventBus.publish(MarketEventBus.TYPE_BAR, symbol, bar);
+        }
+
+        Timeframe timeframeOf(BarSeries closed) {
+            for (Timeframe timeframe : Timeframe.values()) {
+                if (series[timeframe.ordinal()] == closed) {
+                    return timeframe;
+                }
+            }
+            return null;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        sweepExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TWS-Bar-Sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 没有新tick时也要按时收盘K线
+        sweepExecutor.scheduleAtFixedRate(this::closeExpiredBars, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sweepExecutor != null) {
+            sweepExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 处理最新成交价
+     */
+    public void onLastPrice(String symbol, double price, long timestamp) {
+        if (symbol == null || price <= 0) {
+            return;
+        }
+        SymbolBars bars = barsBySymbol.computeIfAbsent(symbol, SymbolBars::new);
+        for (BarSeries series : bars.series) {
+            series.onPrice(timestamp, price, bars);
+        }
+    }
+
+    /**
+     * 处理累计成交量，增量计入各周期当前K线
+     *
+     * 累计量只在同一订阅内可比：连续合约换月后同一代码改由新合约的订阅提供，来源变化时重新取基准值
+     */
+    public void onCumulativeVolume(String symbol, int tickerId, double cumulativeVolume) {
+        if (symbol == null) {
+            return;
+        }
+        SymbolBars bars = barsBySymbol.computeIfAbsent(symbol, SymbolBars::new);
+        boolean sameSource = bars.volumeTickerId == tickerId && bars.lastCumulativeVolume >= 0;
+        double delta = sameSource ? cumulativeVolume - bars.lastCumulativeVolume : 0;
+        bars.lastCumulativeVolume = cumulativeVolume;
+        bars.volumeTickerId = tickerId;
+        if (delta <= 0) {
+            // 首次收到或交易日重置时只记录基准值
+            return;
+        }
+        for (BarSeries series : bars.series) {
+            series.onVolume(delta);
+        }
+    }
+
+    private void closeExpiredBars() {
+        try {
+            long now = System.currentTimeMillis();
+            barsBySymbol.values().forEach(bars -> {
+                for (BarSeries series : bars.series) {
+                    series.closeIfExpired(now, bars);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("K线收盘处理异常: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 获取K线
+     */
+    public Map<String, Object> getBars(String symbol, String timeframeLabel, int limit, boolean includeCurrent) {
+        Timeframe timeframe = Timeframe.fromLabel(timeframeLabel);
+        SymbolBars bars = barsBySymbol.get(symbol);
+        if (bars == null) {
+            throw new RuntimeException("没有K线数据: " + symbol);
+        }
+
+        List<Map<String, Object>> list = bars.series[timeframe.ordinal()].latest(limit, includeCurrent);
+        Map<String, Object> result = new HashMap<>();
+        result.put("symbol", symbol);
+        result.put("timeframe", timeframe.label);
+        result.put("count", list.size());
+        result.put("bars", list);
+        return result;
+    }
+
+    /**
+     * 获取有K线数据的合约
+     */
+    public Map<String, Object> getSymbols() {
+        Map<String, Object> result = new HashMap<>();
+        barsBySymbol.forEach((symbol, bars) -> {
+            Map<String, Object> counts = new HashMap<>();
+            for (Timeframe timeframe : Timeframe.values()) {
+                counts.put(timeframe.label, bars.series[timeframe.ordinal()].closedCount());
+            }
+            result.put(symbol, counts);
+        });
+        return result;
+    }
+}
@@ -3,10 +3,18 @@ package com.gauss.trading.service;
 import com.ib.client.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -25,16 +33,58 @@ public class TwsConnectionService {
     private TwsWrapper wrapper;
 
     private final AtomicInteger nextRequestId = new AtomicInteger(1);
-    private final ConcurrentHashMap<Integer, CompletableFuture<Object>> pendingRequests = new ConcurrentHashMap<>();
+    // 进行中的请求按类型登记，结束、失败、超时或断开连接时移除
+    private final RequestStateMap<Integer, CompletableFuture<Object>> pendingRequests =
+        new RequestStateMap<>("pendingRequests");
+    private final RequestStateMap<Integer, ContractDetailsRequest> pendingContractDetails =
+        new RequestStateMap<>("contractDetails");
+    private final RequestStateMap<Integer, CompletableFuture<List<ContractDescription>>> pendingSymbolSamples =
+        new RequestStateMap<>("symbolSamples");
+    private final RequestStateMap<Integer, OptionParamsRequest> pendingOptionParams =
+        new RequestStateMap<>("optionParams");
+    // marketRule回调只带规则ID，按规则ID等待
+    private final RequestStateMap<Integer, CompletableFuture<PriceIncrement[]>> pendingMarketRules =
+        new RequestStateMap<>("marketRules");
+
+    @Autowired
+    private ContractRegistry contractRegistry;
+
+    @Value("${tws.message-timeout:30000}")
+    private long messageTimeout;
 
     private String host = "localhost";
     private int port = 4002;
     private int clientId = 0;
     private boolean isConnected = false;
+
+    /**
+     * 多行合约详情请求，收集到contractDetailsEnd为止
+     */
+    private static class ContractDetailsRequest {
+        final List<ContractDetails> results = new ArrayList<>();
+        final CompletableFuture<List<ContractDetails>> future = new CompletableFuture<>();
+    }
     
+    /**
+     * 期权参数请求，每个交易所/交易类别一行，收集到securityDefinitionOptionalParameterEnd为止
+     */
+    private static class OptionParamsRequest {
+        final List<Map<String, Object>> results = new ArrayList<>();
+        final CompletableFuture<List<Map<String, Object>>> future = new CompletableFuture<>();
+    }
+
     // 添加市场数据服务引用
     private TwsMarketDataService marketDataService;
 
+    // 逐笔数据服务引用
+    private TwsTickByTickService tickByTickService;
+
+    // 市场深度服务引用
+    private TwsMarketDepthService marketDepthService;
+
+    // 事件总线引用，用于发布订单事件
+    private MarketEventBus eventBus;
+
     /**
      * 连接到TWS Gateway
      */
@@ -89,6 +139,7 @@ public class TwsConnectionService {
             
             // 停止消息处理
             stopMessageProcessing();
+            failPendingRequests("TWS连接已断开");
             
             // 断开连接
             client.eDisconnect();
@@ -112,10 +163,12 @@ public class TwsConnectionService {
     }
 
     /**
-     * 注册待处理的请求
+     * 注册待处理的请求，完成或超时后移除
      */
     public void registerPendingRequest(int requestId, CompletableFuture<Object> future) {
         pendingRequests.put(requestId, future);
+        future.whenComplete((result, error) -> pendingRequests.remove(requestId, future));
+        future.orTimeout(messageTimeout, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -138,6 +191,106 @@ public class TwsConnectionService {
         }
     }
 
+    /**
+     * 请求合约详情并收集全部结果
+     *
+     * 与registerPendingRequest不同，这里会等待contractDetailsEnd后返回所有匹配的合约
+     */
+    public CompletableFuture<List<ContractDetails>> requestContractDetails(Contract contract) {
+        if (!isConnected()) {
+            CompletableFuture<List<ContractDetails>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new RuntimeException("TWS未连接"));
+            return failed;
+        }
+
+        int reqId = getNextRequestId();
+        ContractDetailsRequest request = new ContractDetailsRequest();
+        pendingContractDetails.put(reqId, request);
+        request.future.whenComplete((result, error) -> pendingContractDetails.remove(reqId, request));
+
+        client.reqContractDetails(reqId, contract);
+        return request.future.orTimeout(messageTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 收集合约详情，请求不是通过requestContractDetails发起时返回false
+     */
+    public boolean collectContractDetails(int reqId, ContractDetails contractDetails) {
+        ContractDetailsRequest request = pendingContractDetails.get(reqId);
+        if (request == null) {
+            return false;
+        }
+        synchronized (request) {
+            request.results.add(contractDetails);
+        }
+        return true;
+    }
+
+    /**
+     * 合约详情接收完毕
+     */
+    public void completeContractDetails(int reqId) {
+        ContractDetailsRequest request = pendingContractDetails.get(reqId);
+        if (request != null) {
+            synchronized (request) {
+                request.future.complete(new ArrayList<>(request.results));
+            }
+        }
+    }
+
+    /**
+     * 合约详情请求失败
+     */
+    public void failContractDetails(int reqId, Throwable error) {
+        ContractDetailsRequest request = pendingContractDetails.get(reqId);
+        if (request != null) {
+            request.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 按代码或名称片段搜索匹配的合约（reqMatchingSymbols）
+     *
+     * TWS每秒只接受一次该请求，调用方负责控制频率
+     */
+    public CompletableFuture<List<ContractDescription>> requestMatchingSymbols(String pattern) {
+        if (!isConnected()) {
+            CompletableFuture<List<ContractDescription>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new RuntimeException("TWS未连接"));
+            return failed;
+        }
+
+        int reqId = getNextRequestId();
+        CompletableFuture<List<ContractDescription>> future = new CompletableFuture<>();
+        pendingSymbolSamples.put(reqId, future);
+        future.whenComplete((result, error) -> pendingSymbolSamples.remove(reqId, future));
+
+        client.reqMatchingSymbols(reqId, pattern);
+        return future.orTimeout(messageTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 匹配合约结果到达，请求不是通过requestMatchingSymbols发起时返回false
+     */
+    public boolean completeSymbolSamples(int reqId, ContractDescription[] descriptions) {
+        CompletableFuture<List<ContractDescription>> future = pendingSymbolSamples.get(reqId);
+        if (future == null) {
+            return false;
+        }
+        future.complete(descriptions != null ? List.of(descriptions) : List.of());
+        return true;
+    }
+
+    /**
+     * 匹配合约请求失败
+     */
+    public void failSymbolSamples(int reqId, Throwable error) {
+        CompletableFuture<List<ContractDescription>> future = pendingSymbolSamples.get(reqId);
+        if (future != null) {
+            future.completeExceptionally(error);
+        }
+    }
+
     /**
      * 获取客户端实例
      */
@@ -145,6 +298,153 @@ public class TwsConnectionService {
         return client;
     }
 
+    /**
+     * 请求期权链参数（reqSecDefOptParams）
+     *
+     * 每行包含exchange、underlyingConId、tradingClass、multiplier以及升序的expirations和strikes
+     *
+     * @param futFopExchange 期货期权填期货交易所，股票期权填空字符串
+     */
+    public CompletableFuture<List<Map<String, Object>>> requestOptionParams(String underlyingSymbol, String futFopExchange,
+                                                                          String underlyingSecType, int underlyingConId) {
+        if (!isConnected()) {
+            CompletableFuture<List<Map<String, Object>>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new RuntimeException("TWS未连接"));
+            return failed;
+        }
+
+        int reqId = getNextRequestId();
+        OptionParamsRequest request = new OptionParamsRequest();
+        pendingOptionParams.put(reqId, request);
+        request.future.whenComplete((result, error) -> pendingOptionParams.remove(reqId, request));
+
+        client.reqSecDefOptParams(reqId, underlyingSymbol, futFopExchange, underlyingSecType, underlyingConId);
+        return request.future.orTimeout(messageTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 收集一行期权参数，请求不是通过requestOptionParams发起时返回false
+     */
+    public boolean collectOptionParams(int reqId, String exchange, int underlyingConId, String tradingClass,
+                                       String multiplier, Set<String> expirations, Set<Double> strikes) {
+        OptionParamsRequest request = pendingOptionParams.get(reqId);
+        if (request == null) {
+            return false;
+        }
+        Map<String, Object> row = new HashMap<>();
+        row.put("exchange", exchange != null ? exchange : "");
+        row.put("underlyingConId", underlyingConId);
+        row.put("tradingClass", tradingClass != null ? tradingClass : "");
+        row.put("multiplier", multiplier != null ? multiplier : "");
+        row.put("expirations", expirations != null ? new ArrayList<>(new TreeSet<>(expirations)) : List.of());
+        row.put("strikes", strikes != null ? new ArrayList<>(new TreeSet<>(strikes)) : List.of());
+        synchronized (request) {
+            request.results.add(row);
+        }
+        return true;
+    }
+
+    /**
+     * 期权参数接收完毕
+     */
+    public void completeOptionParams(int reqId) {
+        OptionParamsRequest request = pendingOptionParams.get(reqId);
+        if (request != null) {
+            synchronized (request) {
+                request.future.complete(new ArrayList<>(request.results));
+            }
+        }
+    }
+
+    /**
+     * 期权参数请求失败
+     */
+    public void failOptionParams(int reqId, Throwable error) {
+        OptionParamsRequest request = pendingOptionParams.get(reqId);
+        if (request != null) {
+            request.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 请求价格最小变动规则（reqMarketRule），同一规则ID的请求共用一个结果
+     */
+    public CompletableFuture<PriceIncrement[]> requestMarketRule(int marketRuleId) {
+        if (!isConnected()) {
+            CompletableFuture<PriceIncrement[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new RuntimeException("TWS未连接"));
+            return failed;
+        }
+
+        CompletableFuture<PriceIncrement[]> future = new CompletableFuture<>();
+        CompletableFuture<PriceIncrement[]> existing = pendingMarketRules.putIfAbsent(marketRuleId, future);
+        if (existing != null) {
+            return existing;
+        }
+        future.whenComplete((result, error) -> pendingMarketRules.remove(marketRuleId, future));
+
+        client.reqMarketRule(marketRuleId);
+        return future.orTimeout(messageTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 价格最小变动规则到达
+     */
+    public void completeMarketRule(int marketRuleId, PriceIncrement[] priceIncrements) {
+        CompletableFuture<PriceIncrement[]> future = pendingMarketRules.get(marketRuleId);
+        if (future != null) {
+            future.complete(priceIncrements != null ? priceIncrements : new PriceIncrement[0]);
+        }
+    }
+
+    /**
+     * 连接断开时结束全部进行中的请求，TWS不会再回应这些请求
+     */
+    public void failPendingRequests(String reason) {
+        int failed = 0;
+        for (CompletableFuture<Object> future : pendingRequests.drain()) {
+            failed += future.completeExceptionally(new RuntimeException(reason)) ? 1 : 0;
+        }
+        for (ContractDetailsRequest request : pendingContractDetails.drain()) {
+            failed += request.future.completeExceptionally(new RuntimeException(reason)) ? 1 : 0;
+        }
+        for (CompletableFuture<List<ContractDescription>> future : pendingSymbolSamples.drain()) {
+            failed += future.completeExceptionally(new RuntimeException(reason)) ? 1 : 0;
+        }
+        for (OptionParamsRequest request : pendingOptionParams.drain()) {
+            failed += request.future.completeExceptionally(new RuntimeException(reason)) ? 1 : 0;
+        }
+        for (CompletableFuture<PriceIncrement[]> future : pendingMarketRules.drain()) {
+            failed += future.completeExceptionally(new RuntimeException(reason)) ? 1 : 0;
+        }
+        if (failed > 0) {
+            logger.warn("结束进行中的请求: {}个, 原因: {}", failed, reason);
+        }
+    }
+
+    /**
+     * 连接层持有的请求状态，供泄漏检查
+     */
+    public List<RequestStateMap<?, ?>> getRequestStates() {
+        List<RequestStateMap<?, ?>> states = new ArrayList<>(List.of(pendingRequests, pendingContractDetails,
+            pendingSymbolSamples, pendingOptionParams, pendingMarketRules));
+        if (wrapper != null) {
+            states.add(wrapper.getOrderSymbols());
+        }
+        return states;
+    }
+
+    public long getMessageTimeout() {
+        return messageTimeout;
+    }
+
+    /**
+     * 获取合约注册表
+     */
+    public ContractRegistry getContractRegistry() {
+        return contractRegistry;
+    }
+
     /**
      * 获取包装器实例
      */
@@ -160,6 +460,30 @@ public class TwsConnectionService {
         return marketDataService;
     }
 
+    public void setTickByTickService(TwsTickByTickService tickByTickService) {
+        this.tickByTickService = tickByTickService;
+    }
+
+    public TwsTickByTickService getTickByTickService() {
+        return tickByTickService;
+    }
+
+    public void setMarketDepthService(TwsMarketDepthService marketDepthService) {
+        this.marketDepthService = marketDepthService;
+    }
+
+    public TwsMarketDepthService getMarketDepthService() {
+        return marketDepthService;
+    }
+
+    public void setEventBus(MarketEventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    public MarketEventBus getEventBus() {
+        return eventBus;
+    }
+
     /**
      * 启动消息处理
      */
@@ -0,0 +1,350 @@
+package com.gauss.trading.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连续期货换月服务
+ *
+ * 根据合约详情解析主力和次主力合约，在换月前预先订阅次主力合约，
+ * 到达换月规则时把逻辑代码（如MES）的行情流切换到新合约，并提供后复权的连续K线
+ */
+@Service
+public class TwsContinuousFuturesService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwsContinuousFuturesService.class);
+
+    @Autowired
+    private FuturesChainIndex chainIndex;
+
+    @Autowired
+    private TwsMarketDataService marketDataService;
+
+    @Autowired
+    private TwsBarAggregationService barAggregationService;
+
+    // 到期前多少个自然日换月
+    @Value("${tws.roll.days-before-expiry:8}")
+    private int rollDaysBeforeExpiry;
+
+    // 换月前多少个自然日开始预订阅次主力合约
+    @Value("${tws.roll.pre-subscribe-days:3}")
+    private int preSubscribeDays;
+
+    @Value("${tws.roll.check-interval-minutes:30}")
+    private long checkIntervalMinutes;
+
+    // 按 root|FUT|exchange|currency 索引，同一root在不同交易所或币种下是不同的连续合约
+    private final ConcurrentHashMap<String, ContinuousContract> continuousContracts = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService rollExecutor;
+
+    /**
+     * 换月记录
+     */
+    public static class RollEvent {
+        public final long time;
+        public final int fromConId;
+        public final int toConId;
+        // 新合约价格减旧合约价格，用于后复权
+        public final double adjustment;
+        // 换月时缺少任一合约的价格则为false，adjustment记为0，换月前后的K线之间存在未复权的跳空
+        public final boolean adjusted;
+
+        public RollEvent(long time, int fromConId, int toConId, double adjustment, boolean adjusted) {
+            this.time = time;
+            this.fromConId = fromConId;
+            this.toConId = toConId;
+            this.adjustment = adjustment;
+            this.adjusted = adjusted;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("time", time);
+            map.put("fromConId", fromConId);
+            map.put("toConId", toConId);
+            map.put("adjustment", adjustment);
+            map.put("adjusted", adjusted);
+            return map;
+        }
+    }
+
+    /**
+     * 连续合约状态
+     */
+    private static class ContinuousContract {
+        final String root;
+        final String exchange;
+        final String currency;
+        FuturesChain.Entry front;
+        FuturesChain.Entry next;
+        int frontTickerId = -1;
+        int nextTickerId = -1;
+        final List<RollEvent> rolls = new ArrayList<>();
+
+        ContinuousContract(String root, String exchange, String currency) {
+            this.root = root;
+            this.exchange = exchange;
+            this.currency = currency;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        rollExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TWS-Roll-Engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rollExecutor.scheduleWithFixedDelay(this::evaluateAll, checkIntervalMinutes, checkIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (rollExecutor != null) {
+            rollExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 订阅连续合约的逻辑行情流
+     */
+    public CompletableFuture<Object> subscribe(String root, String exchange, String currency) {
+        logger.info("订阅连续合约: root={}, exchange={}, currency={}", root, exchange, currency);
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                ContinuousContract continuous =
+                    continuousContracts.computeIfAbsent(key(root, exchange, currency),
+                        key -> new ContinuousContract(root, exchange, currency));
+                synchronized (continuous) {
+                    evaluate(continuous);
+                    return toMap(continuous);
+                }
+            } catch (Exception e) {
+                logger.error("订阅连续合约异常: {}", e.getMessage(), e);
+                throw new RuntimeException("订阅连续合约失败: " + e.getMessage());
+            }
+        });
+    }
+
+    private void evaluateAll() {
+        continuousContracts.values().forEach(continuous -> {
+            try {
+                synchronized (continuous) {
+                    evaluate(continuous);
+                }
+            } catch (Exception e) {
+                logger.error("换月检查异常: root={}, error={}", continuous.root, e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * 按换月规则确定主力/次主力合约，并执行预订阅和换月
+     */
+    private void evaluate(ContinuousContract continuous) throws Exception {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        FuturesChain chain = chainIndex.getChain(continuous.root, continuous.exchange, continuous.currency).get();
+
+        // 主力合约为换月日尚未到达的第一个合约，即到期日晚于 today + 换月天数 的第一个合约
+        int frontIndex = chain.indexByExpiryDate(today.plusDays(rollDaysBeforeExpiry), true);
+        if (frontIndex + 1 >= chain.size()) {
+            // 缺少次主力合约时重新搜索，取得新挂牌的合约
+            chain = chainIndex.forceRefresh(continuous.root, continuous.exchange, continuous.currency).get();
+            frontIndex = chain.indexByExpiryDate(today.plusDays(rollDaysBeforeExpiry), true);
+            if (frontIndex >= chain.size()) {
+                throw new RuntimeException("没有可用的期货合约: " + continuous.root);
+            }
+        }
+
+        FuturesChain.Entry targetFront = chain.get(frontIndex);
+        FuturesChain.Entry targetNext = frontIndex + 1 < chain.size() ? chain.get(frontIndex + 1) : null;
+
+        if (continuous.front == null) {
+            // 首次订阅
+            continuous.front = targetFront;
+            continuous.frontTickerId = subscribe(targetFront, continuous.root);
+        } else if (continuous.front.conId != targetFront.conId) {
+            roll(continuous, targetFront);
+        }
+        continuous.next = targetNext;
+
+        // 换月前预订阅次主力合约
+        if (targetNext != null && continuous.nextTickerId < 0
+                && !today.isBefore(rollDateOf(targetFront).minusDays(preSubscribeDays))) {
+            continuous.nextTickerId = subscribe(targetNext, targetNext.label());
+            logger.info("已预订阅次主力合约: root={}, conId={}", continuous.root, targetNext.conId);
+        }
+    }
+
+    /**
+     * 执行换月：把逻辑代码切换到新主力合约并取消旧合约
+     */
+    private void roll(ContinuousContract continuous, FuturesChain.Entry newFront) {
+        int oldTickerId = continuous.frontTickerId;
+        int oldConId = continuous.front.conId;
+
+        int newTickerId;
+        if (continuous.next != null && continuous.next.conId == newFront.conId && continuous.nextTickerId >= 0) {
+            newTickerId = continuous.nextTickerId;
+        } else {
+            newTickerId = subscribe(newFront, newFront.label());
+        }
+
+        double newPrice = priceOf(newTickerId);
+        double oldPrice = priceOf(oldTickerId);
+        boolean adjusted = newPrice > 0 && oldPrice > 0;
+        double adjustment = adjusted ? newPrice - oldPrice : 0;
+        if (!adjusted) {
+            logger.warn("换月时缺少价格，本次换月不复权: root={}, oldPrice={}, newPrice={}",
+                        continuous.root, oldPrice, newPrice);
+        }
+
+        // 先取消旧合约，避免旧合约的行情在切换后继续计入逻辑代码的K线
+        marketDataService.cancelMarketData(oldTickerId);
+        marketDataService.relabelSubscription(newTickerId, continuous.root);
+        // 预订阅的次主力不是新主力时不再需要
+        if (continuous.nextTickerId >= 0 && continuous.nextTickerId != newTickerId) {
+            marketDataService.cancelMarketData(continuous.nextTickerId);
+        }
+
+        continuous.rolls.add(new RollEvent(System.currentTimeMillis(), oldConId, newFront.conId, adjustment, adjusted));
+        continuous.front = newFront;
+        continuous.frontTickerId = newTickerId;
+        continuous.nextTickerId = -1;
+
+        logger.info("✅ 连续合约已换月: root={}, {} -> {}, adjustment={}",
+                    continuous.root, oldConId, newFront.conId, adjustment);
+    }
+
+    private int subscribe(FuturesChain.Entry entry, String symbol) {
+        return marketDataService.subscribeFutures(
+            String.valueOf(entry.conId), symbol,
+            entry.lastTradeDateOrContractMonth, entry.realExpirationDate).tickerId;
+    }
+
+    private double priceOf(int tickerId) {
+        TwsMarketDataService.MarketDataInfo info = marketDataService.getMarketData(tickerId);
+        if (info == null) {
+            return 0;
+        }
+        if (info.lastPrice > 0) {
+            return info.lastPrice;
+        }
+        return info.bid > 0 && info.ask > 0 ? (info.bid + info.ask) / 2 : 0;
+    }
+
+    private static String key(String root, String exchange, String currency) {
+        return ContractDetailsCache.searchKey(root, "FUT", exchange, currency);
+    }
+
+    private LocalDate rollDateOf(FuturesChain.Entry entry) {
+        return entry.expiryDate.minusDays(rollDaysBeforeExpiry);
+    }
+
+    /**
+     * 获取后复权的连续K线
+     *
+     * 每次换月的价差累加到换月前的K线上，使历史价格与当前主力合约衔接
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getContinuousBars(String root, String exchange, String currency,
+                                                 String timeframe, int limit) {
+        ContinuousContract continuous = continuousContracts.get(key(root, exchange, currency));
+        List<RollEvent> rolls;
+        if (continuous == null) {
+            rolls = new ArrayList<>();
+        } else {
+            synchronized (continuous) {
+                rolls = new ArrayList<>(continuous.rolls);
+            }
+        }
+
+        Map<String, Object> result = barAggregationService.getBars(root, timeframe, limit, true);
+        List<Map<String, Object>> adjustedBars = new ArrayList<>();
+        for (Map<String, Object> bar : (List<Map<String, Object>>) result.get("bars")) {
+            long time = (Long) bar.get("time");
+            double adjustment = 0;
+            for (RollEvent roll : rolls) {
+                if (time < roll.time) {
+                    adjustment += roll.adjustment;
+                }
+            }
+            if (adjustment != 0) {
+                Map<String, Object> adjusted = new HashMap<>(bar);
+                for (String field : new String[] {"open", "high", "low", "close"}) {
+                    adjusted.put(field, (Double) bar.get(field) + adjustment);
+                }
+                adjustedBars.add(adjusted);
+            } else {
+                adjustedBars.add(bar);
+            }
+        }
+
+        result.put("bars", adjustedBars);
+        result.put("backAdjusted", true);
+        result.put("rolls", rolls.size());
+        result.put("unadjustedRolls", rolls.stream().filter(roll -> !roll.adjusted).count());
+        return result;
+    }
+
+    /**
+     * 获取所有连续合约状态
+     */
+    public Map<String, Object> getContinuousContracts() {
+        Map<String, Object> result = new HashMap<>();
+        continuousContracts.forEach((key, continuous) -> {
+            synchronized (continuous) {
+                result.put(key, toMap(continuous));
+            }
+        });
+        return result;
+    }
+
+    private Map<String, Object> toMap(ContinuousContract continuous) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("root", continuous.root);
+        map.put("exchange", continuous.exchange);
+        map.put("currency", continuous.currency);
+        map.put("rollDaysBeforeExpiry", rollDaysBeforeExpiry);
+        if (continuous.front != null) {
+            map.put("front", contractMap(continuous.front, continuous.frontTickerId));
+        }
+        if (continuous.next != null) {
+            map.put("next", contractMap(continuous.next, continuous.nextTickerId));
+        }
+        List<Map<String, Object>> rolls = new ArrayList<>();
+        continuous.rolls.forEach(roll -> rolls.add(roll.toMap()));
+        map.put("rolls", rolls);
+        return map;
+    }
+
+    private Map<String, Object> contractMap(FuturesChain.Entry entry, int tickerId) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("conId", entry.conId);
+        map.put("localSymbol", entry.label());
+        map.put("expiry", String.valueOf(entry.expiryDate));
+        map.put("rollDate", String.valueOf(rollDateOf(entry)));
+        map.put("tickerId", tickerId);
+        return map;
+    }
+}
@@ -1,14 +1,24 @@
 package com.gauss.trading.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ib.client.Contract;
+import com.ib.client.ContractDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TWS合约服务
@@ -20,87 +30,383 @@ public class TwsContractService {
 
     private static final Logger logger = LoggerFactory.getLogger(TwsContractService.class);
 
+    // 批量结果的来源
+    public static final String SOURCE_CACHE = "cache";
+    public static final String SOURCE_TWS = "tws";
+
     @Autowired
     private TwsConnectionService connectionService;
 
+    @Autowired
+    private ContractDetailsCache contractCache;
+
+    @Autowired
+    private TwsRequestPacer requestPacer;
+
+    @Autowired
+    private SymbolSearchIndex symbolIndex;
+
+    @Autowired
+    private ContractRegistry contractRegistry;
+
+    @Value("${tws.contract-batch.max-size:500}")
+    private int maxBatchSize;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
     // 已配置的合约映射
     private final Map<String, Integer> configuredContracts = new ConcurrentHashMap<>();
 
+    // 合并进行中的相同请求：多个页面同时打开时只发出一次reqContractDetails
+    private final SingleFlight<String, List<Map<String, Object>>> searchFlights = new SingleFlight<>("contractSearch");
+    private final SingleFlight<Integer, Map<String, Object>> detailsFlights = new SingleFlight<>("contractDetails");
+    private final SingleFlight<String, List<Map<String, Object>>> queryFlights = new SingleFlight<>("contractQuery");
+
     /**
      * 搜索合约
+     *
+     * 优先使用缓存；未命中时收集TWS返回的全部匹配合约写入缓存，返回第一个合约
      */
     public CompletableFuture<Object> searchContracts(String symbol, String secType, String exchange, String currency) {
         logger.info("搜索合约: symbol={}, secType={}, exchange={}, currency={}", symbol, secType, exchange, currency);
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                if (!connectionService.isConnected()) {
-                    throw new RuntimeException("TWS未连接");
-                }
+        List<Map<String, Object>> cached = contractCache.search(symbol, secType, exchange, currency);
+        if (cached != null && !cached.isEmpty()) {
+            logger.info("合约搜索命中缓存: symbol={}, 结果数={}", symbol, cached.size());
+            return CompletableFuture.completedFuture(toJson(cached.get(0)));
+        }
 
-                // 创建合约对象
-                Contract contract = new Contract();
-                contract.symbol(symbol);
-                contract.secType(secType);
-                contract.exchange(exchange);
-                contract.currency(currency);
+        return fetchSearch(symbol, secType, exchange, currency).handle((results, error) -> {
+            if (error != null) {
+                logger.error("搜索合约异常: {}", rootMessage(error), error);
+                throw new RuntimeException("搜索合约失败: " + rootMessage(error));
+            }
+            Object result = toJson(results.get(0));
+            logger.info("合约搜索完成: {}", result);
+            return result;
+        });
+    }
 
-                // 注册请求
-                int reqId = connectionService.getNextRequestId();
-                CompletableFuture<Object> future = new CompletableFuture<>();
-                connectionService.registerPendingRequest(reqId, future);
+    /**
+     * 获取合约详情
+     */
+    public CompletableFuture<Object> getContractDetails(int conId) {
+        logger.info("获取合约详情: conId={}", conId);
 
-                // 请求合约详情
-                connectionService.getClient().reqContractDetails(reqId, contract);
+        Map<String, Object> cached = contractCache.get(conId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(toJson(cached));
+        }
 
-                // 等待响应
-                Object result = future.get();
-                logger.info("合约搜索完成: {}", result);
-                return result;
+        return fetchByConId(conId).handle((details, error) -> {
+            if (error != null) {
+                logger.error("获取合约详情异常: {}", rootMessage(error), error);
+                throw new RuntimeException("获取合约详情失败: " + rootMessage(error));
+            }
+            Object result = toJson(details);
+            logger.info("合约详情获取完成: {}", result);
+            return result;
+        });
+    }
 
-            } catch (Exception e) {
-                logger.error("搜索合约异常: {}", e.getMessage(), e);
-                throw new RuntimeException("搜索合约失败: " + e.getMessage());
+    /**
+     * 跳过缓存重新获取合约详情并更新缓存，例如交易时段快要用完时
+     */
+    public CompletableFuture<Map<String, Object>> refreshContractDetails(int conId) {
+        return fetchByConId(conId);
+    }
+
+    /**
+     * 按条件获取全部匹配的合约详情（ContractDetailsMapper格式），优先使用缓存
+     */
+    public CompletableFuture<List<Map<String, Object>>> searchAll(String symbol, String secType, String exchange,
+                                                                  String currency) {
+        List<Map<String, Object>> cached = contractCache.search(symbol, secType, exchange, currency);
+        if (cached != null && !cached.isEmpty()) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return fetchSearch(symbol, secType, exchange, currency);
+    }
+
+    /**
+     * 使缓存的搜索结果失效，下次搜索重新请求TWS
+     */
+    public void invalidateSearch(String symbol, String secType, String exchange, String currency) {
+        contractCache.invalidateSearch(symbol, secType, exchange, currency);
+    }
+
+    /**
+     * 批量确认合约，返回汇总结果
+     *
+     * @param specs 合约条件列表，每项为 {conId} 或 {symbol, secType, exchange, currency}
+     */
+    public CompletableFuture<Map<String, Object>> qualifyContracts(List<Map<String, Object>> specs) {
+        List<CompletableFuture<Map<String, Object>>> futures = startQualification(specs);
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<Map<String, Object>> results = new ArrayList<>(futures.size());
+            int cached = 0;
+            int failed = 0;
+            for (CompletableFuture<Map<String, Object>> future : futures) {
+                Map<String, Object> result = future.join();
+                results.add(result);
+                if (!Boolean.TRUE.equals(result.get("success"))) {
+                    failed++;
+                } else if (SOURCE_CACHE.equals(result.get("source"))) {
+                    cached++;
+                }
             }
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("requested", specs.size());
+            summary.put("unique", results.size());
+            summary.put("cached", cached);
+            summary.put("fetched", results.size() - cached - failed);
+            summary.put("failed", failed);
+            summary.put("results", results);
+            return summary;
         });
     }
 
     /**
-     * 获取合约详情
+     * 批量确认合约，按完成顺序逐条返回（缓存命中的最先返回）
      */
-    public CompletableFuture<Object> getContractDetails(int conId) {
-        logger.info("获取合约详情: conId={}", conId);
+    public Flux<Map<String, Object>> streamQualifyContracts(List<Map<String, Object>> specs) {
+        List<CompletableFuture<Map<String, Object>>> futures = startQualification(specs);
+        return Flux.create(sink -> {
+            if (futures.isEmpty()) {
+                sink.complete();
+                return;
+            }
+            AtomicInteger remaining = new AtomicInteger(futures.size());
+            for (CompletableFuture<Map<String, Object>> future : futures) {
+                future.thenAccept(result -> {
+                    sink.next(result);
+                    if (remaining.decrementAndGet() == 0) {
+                        sink.complete();
+                    }
+                });
+            }
+        });
+    }
 
-        return CompletableFuture.supplyAsync(() -> {
+    /**
+     * 去重后逐项处理：缓存命中立即完成，未命中的经节流器并发请求TWS；返回的结果不会异常完成
+     */
+    private List<CompletableFuture<Map<String, Object>>> startQualification(List<Map<String, Object>> specs) {
+        if (specs.size() > maxBatchSize) {
+            throw new IllegalArgumentException("批量合约数超过上限: " + specs.size() + " > " + maxBatchSize);
+        }
+
+        Map<String, Map<String, Object>> unique = new LinkedHashMap<>();
+        List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
+        for (Map<String, Object> spec : specs) {
+            String key;
             try {
-                if (!connectionService.isConnected()) {
-                    throw new RuntimeException("TWS未连接");
-                }
+                key = batchKey(spec);
+            } catch (IllegalArgumentException e) {
+                futures.add(CompletableFuture.completedFuture(failure(null, spec, e.getMessage())));
+                continue;
+            }
+            unique.putIfAbsent(key, spec);
+        }
+        logger.info("批量确认合约: 请求数={}, 去重后={}", specs.size(), unique.size());
 
-                // 创建合约对象
-                Contract contract = new Contract();
-                contract.conid(conId);
+        unique.forEach((key, spec) -> futures.add(qualify(key, spec)));
+        return futures;
+    }
 
-                // 注册请求
-                int reqId = connectionService.getNextRequestId();
-                CompletableFuture<Object> future = new CompletableFuture<>();
-                connectionService.registerPendingRequest(reqId, future);
+    private CompletableFuture<Map<String, Object>> qualify(String key, Map<String, Object> spec) {
+        Integer conId = conIdOf(spec);
+        CompletableFuture<List<Map<String, Object>>> lookup;
+        if (conId != null) {
+            Map<String, Object> cached = contractCache.get(conId);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(success(key, spec, List.of(cached), SOURCE_CACHE));
+            }
+            lookup = fetchByConId(conId).thenApply(List::of);
+        } else {
+            String symbol = ContractDetailsMapper.stringValue(spec, "symbol");
+            String secType = stringOrDefault(spec, "secType", "FUT");
+            String exchange = stringOrDefault(spec, "exchange", "CME");
+            String currency = stringOrDefault(spec, "currency", "USD");
+            List<Map<String, Object>> cached = contractCache.search(symbol, secType, exchange, currency);
+            if (cached != null && !cached.isEmpty()) {
+                return CompletableFuture.completedFuture(success(key, spec, cached, SOURCE_CACHE));
+            }
+            lookup = fetchSearch(symbol, secType, exchange, currency);
+        }
+        return lookup.handle((contracts, error) -> error != null
+            ? failure(key, spec, rootMessage(error))
+            : success(key, spec, contracts, SOURCE_TWS));
+    }
+
+    /**
+     * 去重键：conId优先，否则使用与缓存相同的搜索键（含默认值）
+     */
+    private static String batchKey(Map<String, Object> spec) {
+        Integer conId = conIdOf(spec);
+        if (conId != null) {
+            return "conId:" + conId;
+        }
+        String symbol = ContractDetailsMapper.stringValue(spec, "symbol");
+        if (symbol.isEmpty()) {
+            throw new IllegalArgumentException("缺少conId或symbol");
+        }
+        return ContractDetailsCache.searchKey(symbol, stringOrDefault(spec, "secType", "FUT"),
+                                              stringOrDefault(spec, "exchange", "CME"),
+                                              stringOrDefault(spec, "currency", "USD"));
+    }
 
-                // 请求合约详情
-                connectionService.getClient().reqContractDetails(reqId, contract);
+    private static Integer conIdOf(Map<String, Object> spec) {
+        Object value = spec.get("conId");
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof String && !((String) value).isEmpty()) {
+            try {
+                return Integer.parseInt((String) value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("无效的conId: " + value);
+            }
+        }
+        return null;
+    }
 
-                // 等待响应
-                Object result = future.get();
-                logger.info("合约详情获取完成: {}", result);
-                return result;
+    private static String stringOrDefault(Map<String, Object> spec, String key, String defaultValue) {
+        String value = ContractDetailsMapper.stringValue(spec, key);
+        return value.isEmpty() ? defaultValue : value;
+    }
 
-            } catch (Exception e) {
-                logger.error("获取合约详情异常: {}", e.getMessage(), e);
-                throw new RuntimeException("获取合约详情失败: " + e.getMessage());
+    private static Map<String, Object> success(String key, Map<String, Object> spec,
+                                               List<Map<String, Object>> contracts, String source) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("key", key);
+        result.put("request", spec);
+        result.put("success", true);
+        result.put("source", source);
+        result.put("contracts", contracts);
+        return result;
+    }
+
+    private static Map<String, Object> failure(String key, Map<String, Object> spec, String error) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("key", key);
+        result.put("request", spec);
+        result.put("success", false);
+        result.put("error", error);
+        return result;
+    }
+
+    /**
+     * 经节流器按条件搜索合约，结果写入缓存；相同条件的进行中请求只发出一次
+     */
+    private CompletableFuture<List<Map<String, Object>>> fetchSearch(String symbol, String secType, String exchange,
+                                                                   String currency) {
+        return searchFlights.execute(ContractDetailsCache.searchKey(symbol, secType, exchange, currency),
+                                     () -> requestSearch(symbol, secType, exchange, currency));
+    }
+
+    private CompletableFuture<List<Map<String, Object>>> requestSearch(String symbol, String secType, String exchange,
+                                                                     String currency) {
+        Contract contract = new Contract();
+        contract.symbol(symbol);
+        contract.secType(secType);
+        contract.exchange(exchange);
+        contract.currency(currency);
+
+        return requestDetails(contract, "未找到合约: " + symbol, true).thenApply(results -> {
+            contractCache.putSearch(symbol, secType, exchange, currency, results);
+            symbolIndex.addContracts(results);
+            return results;
+        });
+    }
+
+    /**
+     * 经节流器按conId获取合约详情，结果写入缓存；相同conId的进行中请求只发出一次
+     */
+    private CompletableFuture<Map<String, Object>> fetchByConId(int conId) {
+        return detailsFlights.execute(conId, () -> requestByConId(conId));
+    }
+
+    private CompletableFuture<Map<String, Object>> requestByConId(int conId) {
+        Contract contract = new Contract();
+        contract.conid(conId);
+
+        return requestDetails(contract, "未找到合约: conId=" + conId, true).thenApply(results -> {
+            contractCache.put(results.get(0));
+            symbolIndex.addContracts(results);
+            return results.get(0);
+        });
+    }
+
+    /**
+     * 按任意合约条件经节流器查询全部匹配的合约详情，例如不指定行权价查询某到期日的全部期权
+     *
+     * 结果不写入合约缓存，也不登记到合约注册表（注册表不淘汰），由调用方自行缓存和释放；
+     * 相同key的进行中请求只发出一次
+     *
+     * @param key 调用方给出的查询条件标识
+     */
+    public CompletableFuture<List<Map<String, Object>>> queryDetails(String key, Contract contract) {
+        return queryFlights.execute(key, () -> requestDetails(contract, "未找到合约: " + key, false));
+    }
+
+    /**
+     * 获取进行中请求的合并统计
+     */
+    public Map<String, Object> getInFlightStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("search", searchFlights.getStats());
+        stats.put("details", detailsFlights.getStats());
+        stats.put("query", queryFlights.getStats());
+        return stats;
+    }
+
+    /**
+     * 请求合约详情并等待contractDetailsEnd，不占用调用线程
+     *
+     * @param register 是否登记到合约注册表
+     */
+    private CompletableFuture<List<Map<String, Object>>> requestDetails(Contract contract, String notFoundMessage,
+                                                                       boolean register) {
+        return requestPacer.submit(() -> connectionService.requestContractDetails(contract)).thenApply(details -> {
+            if (details.isEmpty()) {
+                throw new RuntimeException(notFoundMessage);
             }
+            List<Map<String, Object>> results = toMaps(details);
+            if (register) {
+                results.forEach(contractRegistry::intern);
+            }
+            return results;
         });
     }
 
+    private static String rootMessage(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private static List<Map<String, Object>> toMaps(List<ContractDetails> details) {
+        List<Map<String, Object>> results = new ArrayList<>(details.size());
+        for (ContractDetails contractDetails : details) {
+            results.add(ContractDetailsMapper.toMap(contractDetails));
+        }
+        return results;
+    }
+
+    /**
+     * 与合约详情回调相同，返回JSON字符串
+     */
+    private String toJson(Map<String, Object> contractMap) {
+        try {
+            return objectMapper.writeValueAsString(contractMap);
+        } catch (Exception e) {
+            throw new RuntimeException("序列化合约详情失败: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * 配置合约
      */
@@ -5,12 +5,17 @@ import com.ib.client.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * TWS市场数据服务
@@ -26,19 +31,55 @@ public class TwsMarketDataService {
     private TwsConnectionService connectionService;
 
     @Autowired
-    private TwsWebSocketController webSocketController;
+    private MarketEventBus eventBus;
 
-    private final AtomicInteger nextTickerId = new AtomicInteger(1000);
-    private final ConcurrentHashMap<Integer, CompletableFuture<Object>> marketDataRequests = new ConcurrentHashMap<>();
+    @Autowired
+    private ContractRegistry contractRegistry;
+
+    @Autowired
+    private TwsBarAggregationService barAggregationService;
+
+    @Autowired
+    private SharedMemoryQuotePublisher sharedQuotePublisher;
+
+    // 等待首笔行情的订阅请求，收到首笔行情、取消或超时后移除
+    private final RequestStateMap<Integer, CompletableFuture<Object>> marketDataRequests =
+        new RequestStateMap<>("marketDataFirstTick");
     private final ConcurrentHashMap<Integer, MarketDataInfo> activeSubscriptions = new ConcurrentHashMap<>();
+    // 未在注册表登记的订阅按请求参数创建的合约，休市暂停后按同一tickerId恢复；已登记的由句柄重建
+    private final ConcurrentHashMap<Integer, Contract> unregisteredContracts = new ConcurrentHashMap<>();
+
+    // 订阅集合或任一合约数据变化时递增，用于快照缓存和ETag
+    private final AtomicLong subscriptionsGeneration = new AtomicLong();
+    private final MarketDataSnapshotCache snapshotCache = new MarketDataSnapshotCache();
+
+    // 每个订阅最近的增量历史，供WebSocket客户端断档后补齐
+    @Value("${tws.market-data.history-size:256}")
+    private int historySize;
+    private final ConcurrentHashMap<Integer, MarketDataHistory> histories = new ConcurrentHashMap<>();
 
     /**
      * 市场数据信息
      */
     public static class MarketDataInfo {
+        // 字段变化掩码，用于二进制协议的changedMask
+        public static final int FIELD_LAST = 1;
+        public static final int FIELD_BID = 1 << 1;
+        public static final int FIELD_ASK = 1 << 2;
+        public static final int FIELD_BID_SIZE = 1 << 3;
+        public static final int FIELD_ASK_SIZE = 1 << 4;
+        public static final int FIELD_VOLUME = 1 << 5;
+        // 对外发布的代码变化（连续合约换月）
+        public static final int FIELD_SYMBOL = 1 << 6;
+        // 休市暂停状态变化
+        public static final int FIELD_PAUSED = 1 << 7;
+
         public int tickerId;
-        public String symbol;
-        public String conId;
+        // 换月时由换月线程修改
+        public volatile String symbol;
+        public final int conId;
+        // 注册表句柄，合约未登记时为-1
+        public final int handle;
         public double lastPrice;
         public double bid;
         public double ask;
@@ -49,11 +90,20 @@ public class TwsMarketDataService {
         public String exchange;
         public String contractMonth;
         public String expiration;
+        // 增量seq，只在publishUpdate中持有本对象的锁时递增；也用于快照缓存判断是否需要重新序列化
+        public volatile long version;
+        // 自上次推送以来变化的字段，只在TWS消息线程读写
+        public int changedMask;
+        // 休市期间已暂停，行情线路已释放
+        public volatile boolean paused;
+        // 已取消订阅，取消前已在途的行情不再分配共享内存槽
+        public volatile boolean cancelled;
 
-        public MarketDataInfo(int tickerId, String symbol, String conId) {
+        public MarketDataInfo(int tickerId, String symbol, int conId, int handle) {
             this.tickerId = tickerId;
             this.symbol = symbol;
             this.conId = conId;
+            this.handle = handle;
             this.timestamp = System.currentTimeMillis();
         }
 
@@ -61,7 +111,7 @@ public class TwsMarketDataService {
             Map<String, Object> map = new ConcurrentHashMap<>();
             map.put("tickerId", tickerId);
             map.put("symbol", symbol);
-            map.put("conId", conId);
+            map.put("conId", String.valueOf(conId));
             map.put("lastPrice", lastPrice);
             map.put("bid", bid);
             map.put("ask", ask);
@@ -72,6 +122,7 @@ public class TwsMarketDataService {
             map.put("exchange", exchange != null ? exchange : "");
             map.put("contractMonth", contractMonth != null ? contractMonth : "");
             map.put("expiration", expiration != null ? expiration : "");
+            map.put("paused", paused);
             return map;
         }
     }
@@ -84,49 +135,8 @@ public class TwsMarketDataService {
 
         return CompletableFuture.supplyAsync(() -> {
             try {
-                if (!connectionService.isConnected()) {
-                    throw new RuntimeException("TWS未连接");
-                }
-
-                // 创建合约对象
-                Contract contract = new Contract();
-                contract.conid(Integer.parseInt(conId));
-                contract.symbol(symbol);
-                contract.secType("FUT");
-                contract.exchange("CME");
-                contract.currency("USD");
-                
-                // 设置合约月份和到期日
-                if (contractMonth != null && !contractMonth.isEmpty()) {
-                    contract.lastTradeDateOrContractMonth(contractMonth);
-                }
-                if (expiration != null && !expiration.isEmpty()) {
-                    contract.lastTradeDate(expiration);
-                }
-
-                // 获取下一个ticker ID
-                int tickerId = nextTickerId.getAndIncrement();
-                
-                // 创建市场数据信息对象
-                MarketDataInfo marketDataInfo = new MarketDataInfo(tickerId, symbol, conId);
-                marketDataInfo.contractMonth = contractMonth;
-                marketDataInfo.expiration = expiration;
-                marketDataInfo.exchange = "CME";
-                
-                // 存储订阅信息
-                activeSubscriptions.put(tickerId, marketDataInfo);
-                
-                // 注册请求
-                CompletableFuture<Object> future = new CompletableFuture<>();
-                marketDataRequests.put(tickerId, future);
-
-                // 订阅市场数据
-                connectionService.getClient().reqMktData(tickerId, contract, "", false, false, null);
-
-                logger.info("✅ 已发起期货市场数据订阅: tickerId={}, symbol={}", tickerId, symbol);
-                
                 // 返回初始市场数据信息
-                return marketDataInfo.toMap();
+                return subscribeFutures(conId, symbol, contractMonth, expiration).toMap();
 
             } catch (Exception e) {
                 logger.error("订阅期货市场数据异常: {}", e.getMessage(), e);
@@ -135,6 +145,78 @@ public class TwsMarketDataService {
         });
     }
 
+    /**
+     * 同步发起期货市场数据订阅，返回订阅信息
+     */
+    public MarketDataInfo subscribeFutures(String conId, String symbol, String contractMonth, String expiration) {
+        if (!connectionService.isConnected()) {
+            throw new RuntimeException("TWS未连接");
+        }
+
+        // 已登记的合约直接由注册表构建，否则按参数创建
+        int contractId = Integer.parseInt(conId);
+        int handle = contractRegistry.handleOf(contractId);
+        Contract contract = handle >= 0 ? contractRegistry.get(handle).toContract() : null;
+        if (contract == null) {
+            contract = new Contract();
+            contract.conid(contractId);
+            contract.symbol(symbol);
+            contract.secType("FUT");
+            contract.exchange("CME");
+            contract.currency("USD");
+            
+            // 设置合约月份和到期日
+            if (contractMonth != null && !contractMonth.isEmpty()) {
+                contract.lastTradeDateOrContractMonth(contractMonth);
+            }
+            if (expiration != null && !expiration.isEmpty()) {
+                contract.lastTradeDate(expiration);
+            }
+        }
+
+        // ticker ID与其他请求共用同一计数器，避免TWS错误回调按ID路由时串到别的请求
+        int tickerId = connectionService.getNextRequestId();
+        
+        // 创建市场数据信息对象
+        MarketDataInfo marketDataInfo = new MarketDataInfo(tickerId, symbol, contractId, handle);
+        marketDataInfo.contractMonth = contractMonth;
+        marketDataInfo.expiration = expiration;
+        marketDataInfo.exchange = "CME";
+        
+        // 存储订阅信息
+        activeSubscriptions.put(tickerId, marketDataInfo);
+        if (handle < 0) {
+            unregisteredContracts.put(tickerId, contract);
+        }
+        subscriptionsGeneration.incrementAndGet();
+        
+        // 注册请求
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        marketDataRequests.put(tickerId, future);
+        future.whenComplete((result, error) -> marketDataRequests.remove(tickerId, future));
+        future.orTimeout(connectionService.getMessageTimeout(), TimeUnit.MILLISECONDS);
+
+        // 订阅市场数据
+        connectionService.getClient().reqMktData(tickerId, contract, "", false, false, null);
+
+        logger.info("✅ 已发起期货市场数据订阅: tickerId={}, symbol={}", tickerId, symbol);
+        return marketDataInfo;
+    }
+
+    /**
+     * 修改订阅对外发布的代码，用于连续合约换月时切换逻辑行情流
+     */
+    public void relabelSubscription(int tickerId, String symbol) {
+        MarketDataInfo info = activeSubscriptions.get(tickerId);
+        if (info != null) {
+            logger.info("订阅代码切换: tickerId={}, {} -> {}", tickerId, info.symbol, symbol);
+            synchronized (info) {
+                info.symbol = symbol;
+                publishUpdate(tickerId, info, MarketDataInfo.FIELD_SYMBOL);
+            }
+        }
+    }
+
     /**
      * 取消市场数据订阅
      */
@@ -142,8 +224,18 @@ public class TwsMarketDataService {
         try {
             if (connectionService.isConnected()) {
                 connectionService.getClient().cancelMktData(tickerId);
-                activeSubscriptions.remove(tickerId);
-                marketDataRequests.remove(tickerId);
+                MarketDataInfo info = activeSubscriptions.remove(tickerId);
+                if (info != null) {
+                    info.cancelled = true;
+                }
+                unregisteredContracts.remove(tickerId);
+                CompletableFuture<Object> request = marketDataRequests.remove(tickerId);
+                if (request != null) {
+                    request.cancel(false);
+                }
+                histories.remove(tickerId);
+                sharedQuotePublisher.release(tickerId);
+                subscriptionsGeneration.incrementAndGet();
                 logger.info("✅ 已取消市场数据订阅: tickerId={}", tickerId);
             }
         } catch (Exception e) {
@@ -151,6 +243,56 @@ public class TwsMarketDataService {
         }
     }
 
+    /**
+     * 休市时暂停订阅：取消TWS行情以释放行情线路，保留订阅信息和tickerId
+     *
+     * @return 订阅不存在、已暂停或未连接时返回false
+     */
+    public boolean pauseMarketData(int tickerId) {
+        MarketDataInfo info = activeSubscriptions.get(tickerId);
+        if (info == null || info.paused || !connectionService.isConnected()) {
+            return false;
+        }
+        connectionService.getClient().cancelMktData(tickerId);
+        synchronized (info) {
+            info.paused = true;
+            publishUpdate(tickerId, info, MarketDataInfo.FIELD_PAUSED);
+        }
+        logger.info("⏸ 休市暂停市场数据订阅: tickerId={}, symbol={}", tickerId, info.symbol);
+        return true;
+    }
+
+    /**
+     * 恢复暂停的订阅，沿用原tickerId
+     *
+     * @return 订阅不存在、未暂停或未连接时返回false
+     */
+    public boolean resumeMarketData(int tickerId) {
+        MarketDataInfo info = activeSubscriptions.get(tickerId);
+        if (info == null || !info.paused || !connectionService.isConnected()) {
+            return false;
+        }
+        Contract contract = contractOf(info);
+        if (contract == null) {
+            return false;
+        }
+        connectionService.getClient().reqMktData(tickerId, contract, "", false, false, null);
+        synchronized (info) {
+            info.paused = false;
+            publishUpdate(tickerId, info, MarketDataInfo.FIELD_PAUSED);
+        }
+        logger.info("▶ 开盘恢复市场数据订阅: tickerId={}, symbol={}", tickerId, info.symbol);
+        return true;
+    }
+
+    /**
+     * 订阅的合约：已登记的由注册表按当前详情重建，否则取订阅时按参数创建的合约
+     */
+    private Contract contractOf(MarketDataInfo info) {
+        ContractRegistry.ContractHandle registered = contractRegistry.get(info.handle);
+        return registered != null ? registered.toContract() : unregisteredContracts.get(info.tickerId);
+    }
+
     /**
      * 获取活跃的市场数据订阅
      */
@@ -162,6 +304,18 @@ public class TwsMarketDataService {
         return result;
     }
 
+    /**
+     * 获取预序列化的活跃订阅快照，数据未变化时复用缓存的字节
+     */
+    public MarketDataSnapshotCache.Snapshot getActiveSubscriptionsSnapshot() {
+        try {
+            return snapshotCache.get(subscriptionsGeneration.get(), activeSubscriptions);
+        } catch (Exception e) {
+            logger.error("生成订阅快照异常: {}", e.getMessage(), e);
+            throw new RuntimeException("生成订阅快照失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 处理tick价格更新
      */
@@ -173,12 +327,16 @@ public class TwsMarketDataService {
             switch (field) {
                 case 1: // Bid
                     info.bid = price;
+                    info.changedMask |= MarketDataInfo.FIELD_BID;
                     break;
                 case 2: // Ask
                     info.ask = price;
+                    info.changedMask |= MarketDataInfo.FIELD_ASK;
                     break;
                 case 4: // Last
                     info.lastPrice = price;
+                    info.changedMask |= MarketDataInfo.FIELD_LAST;
+                    barAggregationService.onLastPrice(info.symbol, price, info.timestamp);
                     break;
                 case 6: // High
                     // 可以添加high字段
@@ -209,15 +367,19 @@ public class TwsMarketDataService {
             switch (field) {
                 case 0: // Bid Size
                     info.bidSize = (int) size.longValue();
+                    info.changedMask |= MarketDataInfo.FIELD_BID_SIZE;
                     break;
                 case 3: // Ask Size
                     info.askSize = (int) size.longValue();
+                    info.changedMask |= MarketDataInfo.FIELD_ASK_SIZE;
                     break;
                 case 5: // Last Size
                     // 可以添加lastSize字段
                     break;
                 case 8: // Volume
                     info.volume = (int) size.longValue();
+                    info.changedMask |= MarketDataInfo.FIELD_VOLUME;
+                    barAggregationService.onCumulativeVolume(info.symbol, tickerId, size.value().doubleValue());
                     break;
             }
             
@@ -232,27 +394,67 @@ public class TwsMarketDataService {
      * 通知前端市场数据更新
      */
     private void notifyMarketDataUpdate(int tickerId, MarketDataInfo info) {
-        try {
-            // 完成对应的请求
-            CompletableFuture<Object> future = marketDataRequests.get(tickerId);
-            if (future != null && !future.isDone()) {
-                future.complete(info.toMap());
+        int changedMask = info.changedMask;
+        info.changedMask = 0;
+        publishUpdate(tickerId, info, changedMask);
+
+        // 完成对应的请求
+        CompletableFuture<Object> future = marketDataRequests.get(tickerId);
+        if (future != null) {
+            future.complete(info.toMap());
+        }
+    }
+
+    /**
+     * 分配seq、写入增量历史并推送
+     *
+     * seq（即info.version）只在这里递增，且递增与写入历史在同一把锁内完成，每个seq都有对应的历史记录，
+     * 客户端可以从任意seq连续补齐。推送也在锁内，保证各客户端收到的seq有序
+     */
+    private void publishUpdate(int tickerId, MarketDataInfo info, int changedMask) {
+        synchronized (info) {
+            long seq = info.version + 1;
+            histories.computeIfAbsent(tickerId, key -> new MarketDataHistory(historySize))
+                .record(seq, changedMask, info);
+            info.version = seq;
+            subscriptionsGeneration.incrementAndGet();
+
+            try {
+                // 记录市场数据更新日志
+                logger.info("📊 市场数据更新: tickerId={}, symbol={}, lastPrice={}, bid={}, ask={}, volume={}", 
+                    tickerId, info.symbol, info.lastPrice, info.bid, info.ask, info.volume);
+                
+                // 通过事件总线推送实时数据（WebSocket及事件流）
+                if (eventBus.hasSubscribers(info.symbol)) {
+                    eventBus.publishQuote(info, changedMask);
+                    logger.debug("发布市场数据: symbol={}, changedMask={}", info.symbol, changedMask);
+                }
+                
+            } catch (Exception e) {
+                logger.error("通知市场数据更新异常: {}", e.getMessage(), e);
             }
-            
-            // 记录市场数据更新日志
-            logger.info("📊 市场数据更新: tickerId={}, symbol={}, lastPrice={}, bid={}, ask={}, volume={}", 
-                tickerId, info.symbol, info.lastPrice, info.bid, info.ask, info.volume);
-            
-            // 通过WebSocket推送实时数据到前端
-            if (webSocketController != null) {
-                Map<String, Object> marketData = info.toMap();
-                webSocketController.broadcastMarketData(info.symbol, marketData);
-                logger.debug("WebSocket推送市场数据: symbol={}, data={}", info.symbol, marketData);
+        }
+    }
+
+    /**
+     * 查找合约代码对应的订阅，symbol为通配符时返回全部
+     */
+    public List<MarketDataInfo> findBySymbol(String symbol) {
+        List<MarketDataInfo> result = new ArrayList<>();
+        for (MarketDataInfo info : activeSubscriptions.values()) {
+            if (TwsWebSocketController.WILDCARD_TOPIC.equals(symbol) || symbol.equals(info.symbol)) {
+                result.add(info);
             }
-            
-        } catch (Exception e) {
-            logger.error("通知市场数据更新异常: {}", e.getMessage(), e);
         }
+        return result;
+    }
+
+    /**
+     * 获取seq大于fromSeq的增量，历史不足以补齐时返回null
+     */
+    public List<Map<String, Object>> getDeltasSince(int tickerId, long fromSeq) {
+        MarketDataHistory history = histories.get(tickerId);
+        return history != null ? history.since(fromSeq) : null;
     }
 
     /**
@@ -262,6 +464,21 @@ public class TwsMarketDataService {
         return activeSubscriptions.get(tickerId);
     }
 
+    /**
+     * 行情订阅持有的状态，供泄漏检查；各表条目数应与订阅数一致
+     */
+    public Map<String, Object> getRequestState() {
+        Map<String, Object> state = new HashMap<>();
+        state.put("subscriptions", activeSubscriptions.size());
+        state.put("unregisteredContracts", unregisteredContracts.size());
+        state.put("histories", histories.size());
+        return state;
+    }
+
+    public RequestStateMap<Integer, CompletableFuture<Object>> getFirstTickRequests() {
+        return marketDataRequests;
+    }
+
     /**
      * 获取所有活跃的市场数据
      */
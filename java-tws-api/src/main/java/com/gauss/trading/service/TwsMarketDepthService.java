@@ -0,0 +1,269 @@
+package com.gauss.trading.service;
+
+import com.ib.client.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TWS市场深度服务
+ *
+ * 通过reqMktDepth订阅二级行情，在预分配数组中维护每个合约的订单簿，
+ * 并按固定间隔发布合并后的变化档位
+ */
+@Service
+public class TwsMarketDepthService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwsMarketDepthService.class);
+
+    @Autowired
+    private TwsConnectionService connectionService;
+
+    @Autowired
+    private MarketEventBus eventBus;
+
+    @Autowired
+    private ContractRegistry contractRegistry;
+
+    @Value("${tws.market-depth.flush-interval-ms:100}")
+    private long flushIntervalMs;
+
+    private final ConcurrentHashMap<Integer, DepthSubscription> subscriptions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DepthSubscription> subscriptionsBySymbol = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flushExecutor;
+
+    /**
+     * 深度订阅信息
+     */
+    public static class DepthSubscription {
+        public final int tickerId;
+        public final String symbol;
+        public final int conId;
+        public final int numRows;
+        public final boolean smartDepth;
+        public final OrderBook book;
+
+        public DepthSubscription(int tickerId, String symbol, int conId, int numRows, boolean smartDepth) {
+            this.tickerId = tickerId;
+            this.symbol = symbol;
+            this.conId = conId;
+            this.numRows = numRows;
+            this.smartDepth = smartDepth;
+            this.book = new OrderBook(numRows);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("tickerId", tickerId);
+            map.put("symbol", symbol);
+            map.put("conId", String.valueOf(conId));
+            map.put("numRows", numRows);
+            map.put("smartDepth", smartDepth);
+            map.put("version", book.version());
+            return map;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TWS-Depth-Flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleAtFixedRate(this::flushDeltas, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 订阅市场深度
+     */
+    public CompletableFuture<Object> subscribe(String conId, String symbol, String exchange, int numRows, boolean smartDepth) {
+        logger.info("订阅市场深度: conId={}, symbol={}, exchange={}, numRows={}, smartDepth={}",
+                    conId, symbol, exchange, numRows, smartDepth);
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                if (!connectionService.isConnected()) {
+                    throw new RuntimeException("TWS未连接");
+                }
+
+                DepthSubscription existing = subscriptionsBySymbol.get(symbol);
+                if (existing != null) {
+                    logger.info("市场深度已订阅: symbol={}, tickerId={}", symbol, existing.tickerId);
+                    return existing.toMap();
+                }
+
+                // 已登记的合约直接由注册表构建，否则按参数创建
+                int contractId = Integer.parseInt(conId);
+                Contract contract = contractRegistry.toContract(contractId);
+                if (contract == null) {
+                    contract = new Contract();
+                    contract.conid(contractId);
+                    contract.symbol(symbol);
+                    contract.secType("FUT");
+                    contract.currency("USD");
+                }
+                contract.exchange(exchange);
+
+                int tickerId = connectionService.getNextRequestId();
+                DepthSubscription subscription = new DepthSubscription(tickerId, symbol, contractId, numRows, smartDepth);
+                // 并发订阅同一代码时只有一个请求发往TWS
+                existing = subscriptionsBySymbol.putIfAbsent(symbol, subscription);
+                if (existing != null) {
+                    logger.info("市场深度已订阅: symbol={}, tickerId={}", symbol, existing.tickerId);
+                    return existing.toMap();
+                }
+                subscriptions.put(tickerId, subscription);
+
+                try {
+                    connectionService.getClient().reqMktDepth(tickerId, contract, numRows, smartDepth, null);
+                } catch (RuntimeException e) {
+                    remove(subscription);
+                    throw e;
+                }
+
+                logger.info("✅ 已发起市场深度订阅: tickerId={}, symbol={}", tickerId, symbol);
+                return subscription.toMap();
+
+            } catch (Exception e) {
+                logger.error("订阅市场深度异常: {}", e.getMessage(), e);
+                throw new RuntimeException("订阅市场深度失败: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 取消市场深度订阅
+     */
+    public void cancel(int tickerId) {
+        try {
+            DepthSubscription subscription = subscriptions.remove(tickerId);
+            if (subscription != null) {
+                subscriptionsBySymbol.remove(subscription.symbol, subscription);
+                if (connectionService.isConnected()) {
+                    connectionService.getClient().cancelMktDepth(tickerId, subscription.smartDepth);
+                }
+            }
+            logger.info("✅ 已取消市场深度订阅: tickerId={}", tickerId);
+        } catch (Exception e) {
+            logger.error("取消市场深度订阅异常: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 深度请求出错时移除订阅，TWS不会再推送该tickerId的数据
+     *
+     * 317（深度数据重置）不是失败：清空订单簿后保留订阅，之后到达的档位从空订单簿开始应用
+     */
+    public void handleError(int tickerId, int errorCode, String errorMsg) {
+        DepthSubscription subscription = subscriptions.get(tickerId);
+        if (subscription == null) {
+            return;
+        }
+        if (errorCode == 317) {
+            subscription.book.reset();
+            logger.info("市场深度已重置: tickerId={}, symbol={}", tickerId, subscription.symbol);
+            return;
+        }
+        remove(subscription);
+        logger.warn("市场深度订阅失败，已移除: tickerId={}, symbol={}, code={}, message={}",
+                    tickerId, subscription.symbol, errorCode, errorMsg);
+    }
+
+    private void remove(DepthSubscription subscription) {
+        subscriptions.remove(subscription.tickerId, subscription);
+        subscriptionsBySymbol.remove(subscription.symbol, subscription);
+    }
+
+    /**
+     * 处理深度更新（updateMktDepth / updateMktDepthL2）
+     */
+    public void handleDepthUpdate(int tickerId, int position, String marketMaker, int operation, int side,
+                                  double price, Decimal size) {
+        DepthSubscription subscription = subscriptions.get(tickerId);
+        if (subscription == null) {
+            return;
+        }
+        double sizeValue = Decimal.isValid(size) ? size.value().doubleValue() : 0;
+        subscription.book.apply(position, operation, side, price, sizeValue, marketMaker);
+    }
+
+    /**
+     * 推送合并后的深度变化
+     */
+    private void flushDeltas() {
+        try {
+            subscriptions.values().forEach(subscription -> {
+                if (!eventBus.hasSubscribers(subscription.symbol)) {
+                    return;
+                }
+                Map<String, Object> delta = subscription.book.drainDelta();
+                if (delta != null) {
+                    eventBus.publish(MarketEventBus.TYPE_DEPTH, subscription.symbol, delta);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("推送市场深度异常: {}", e.getMessage(), e);
+        }
+    }
+
+    private DepthSubscription requireSubscription(String symbol) {
+        DepthSubscription subscription = subscriptionsBySymbol.get(symbol);
+        if (subscription == null) {
+            throw new RuntimeException("未订阅市场深度: " + symbol);
+        }
+        return subscription;
+    }
+
+    /**
+     * 获取订单簿快照
+     */
+    public Map<String, Object> getBook(String symbol, int levels) {
+        DepthSubscription subscription = requireSubscription(symbol);
+        Map<String, Object> result = subscription.book.snapshot(levels);
+        result.put("symbol", symbol);
+        return result;
+    }
+
+    /**
+     * 获取最优买卖报价及累计深度
+     */
+    public Map<String, Object> getTopOfBook(String symbol, int levels) {
+        OrderBook book = requireSubscription(symbol).book;
+        Map<String, Object> result = book.topOfBook();
+        result.put("symbol", symbol);
+        result.put("levels", levels);
+        result.put("cumulativeBidSize", book.cumulativeSize(OrderBook.SIDE_BID, levels));
+        result.put("cumulativeAskSize", book.cumulativeSize(OrderBook.SIDE_ASK, levels));
+        return result;
+    }
+
+    /**
+     * 获取所有深度订阅
+     */
+    public Map<String, Object> getSubscriptions() {
+        Map<String, Object> result = new HashMap<>();
+        subscriptions.forEach((tickerId, subscription) -> result.put(String.valueOf(tickerId), subscription.toMap()));
+        return result;
+    }
+}
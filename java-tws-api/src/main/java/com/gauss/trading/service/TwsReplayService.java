@@ -0,0 +1,355 @@
+package com.gauss.trading.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 逐笔数据回放服务
+ *
+ * 把逐笔环形缓冲区中已记录的成交按原始节奏（1x、10x或最快速度）重新推送给客户端，
+ * 消息格式与实时trade消息相同，另带replayId区分。所有回放共享一个时间轮线程计时，
+ * 各自维护独立的回放时钟；发送在单独的低优先级工作线程完成，不经过TWS消息线程和实时事件总线。
+ * 客户端发送队列积压超过阈值时回放暂停、时钟停走，避免回放挤占实时行情
+ */
+@Service
+public class TwsReplayService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwsReplayService.class);
+
+    // 速度为0表示不按时间间隔，尽可能快地发送
+    public static final double SPEED_MAX = 0;
+
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_COMPLETED = "completed";
+    public static final String STATUS_STOPPED = "stopped";
+
+    @Autowired
+    private TwsTickByTickService tickByTickService;
+
+    @Value("${tws.replay.tick-ms:5}")
+    private long tickMillis;
+
+    @Value("${tws.replay.wheel-size:512}")
+    private int wheelSize;
+
+    @Value("${tws.replay.worker-threads:2}")
+    private int workerThreads;
+
+    @Value("${tws.replay.max-batch:500}")
+    private int maxBatch;
+
+    @Value("${tws.replay.max-backlog:256}")
+    private int maxBacklog;
+
+    @Value("${tws.replay.max-replays:100}")
+    private int maxReplays;
+
+    @Value("${tws.replay.max-replays-per-session:4}")
+    private int maxReplaysPerSession;
+
+    @Value("${tws.replay.max-speed:1000}")
+    private double maxSpeed;
+
+    private ExecutorService workerExecutor;
+    private HashedTimerWheel timerWheel;
+
+    private final Map<String, Replay> replays = new ConcurrentHashMap<>();
+    private final AtomicLong replayIdGenerator = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong stoppedCount = new AtomicLong();
+
+    /**
+     * 回放消息的接收端（通常是一个WebSocket会话）
+     */
+    public interface ReplaySink {
+        /**
+         * 发送一条消息，接收端已关闭时返回false
+         */
+        boolean send(Map<String, Object> message);
+
+        /**
+         * 接收端尚未发出的消息数，超过阈值时回放暂停
+         */
+        int backlog();
+    }
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        workerExecutor = Executors.newFixedThreadPool(Math.max(1, workerThreads), runnable -> {
+            Thread thread = new Thread(runnable, "TWS-Replay-Worker-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            // 回放让位于实时推送
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        timerWheel = new HashedTimerWheel("TWS-Replay-Timer", tickMillis, wheelSize, workerExecutor);
+        logger.info("逐笔回放服务: tick={}ms, wheelSize={}, workers={}, maxReplays={}",
+                    tickMillis, timerWheel.wheelSize(), workerThreads, maxReplays);
+    }
+
+    @PreDestroy
+    public void stop() {
+        replays.values().forEach(replay -> replay.finish(STATUS_STOPPED));
+        if (timerWheel != null) {
+            timerWheel.stop();
+        }
+        if (workerExecutor != null) {
+            workerExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 开始回放
+     *
+     * @param owner  回放所属的会话ID，会话断开时由stopAll清理
+     * @param symbol 合约代码，需已订阅逐笔数据
+     * @param speed  回放倍速，SPEED_MAX（0）表示最快速度
+     * @param from   起始时间（毫秒，含），为null表示缓冲区最早一笔
+     * @param to     结束时间（毫秒，含），为null表示开始回放时的最新一笔
+     */
+    public Map<String, Object> startReplay(String owner, String symbol, double speed, Long from, Long to,
+                                           ReplaySink sink) {
+        if (speed < 0 || speed > maxSpeed || Double.isNaN(speed)) {
+            throw new IllegalArgumentException("回放速度必须在0到" + maxSpeed + "之间（0表示最快）: " + speed);
+        }
+        if (replays.size() >= maxReplays) {
+            throw new IllegalStateException("回放数已达上限: " + maxReplays);
+        }
+        long ownerReplays = replays.values().stream().filter(replay -> replay.owner.equals(owner)).count();
+        if (ownerReplays >= maxReplaysPerSession) {
+            throw new IllegalStateException("单个会话回放数已达上限: " + maxReplaysPerSession);
+        }
+
+        // 开始时复制一份快照，回放期间实时写入不影响回放内容
+        TickRingBuffer.Snapshot snapshot = tickByTickService.snapshotTicks(symbol);
+        int begin = 0;
+        int end = snapshot.count;
+        if (from != null) {
+            while (begin < end && snapshot.times[begin] < from) {
+                begin++;
+            }
+        }
+        if (to != null) {
+            while (end > begin && snapshot.times[end - 1] > to) {
+                end--;
+            }
+        }
+
+        String replayId = "R" + replayIdGenerator.incrementAndGet();
+        Replay replay = new Replay(replayId, owner, symbol, speed, snapshot, begin, end, sink);
+        replays.put(replayId, replay);
+        logger.info("开始回放: {} {} speed={} ticks={} owner={}", replayId, symbol,
+                    speed == SPEED_MAX ? "max" : speed, end - begin, owner);
+        replay.schedule(0);
+        return replay.toMap();
+    }
+
+    /**
+     * 停止指定回放
+     *
+     * @return 回放不存在时返回false
+     */
+    public boolean stopReplay(String replayId) {
+        Replay replay = replays.get(replayId);
+        if (replay == null) {
+            return false;
+        }
+        replay.finish(STATUS_STOPPED);
+        return true;
+    }
+
+    /**
+     * 停止会话的全部回放（会话断开时调用）
+     */
+    public void stopAll(String owner) {
+        replays.values().forEach(replay -> {
+            if (replay.owner.equals(owner)) {
+                replay.finish(STATUS_STOPPED);
+            }
+        });
+    }
+
+    /**
+     * 获取回放统计
+     */
+    public Map<String, Object> getStats() {
+        List<Map<String, Object>> active = new ArrayList<>();
+        replays.values().forEach(replay -> active.add(replay.toMap()));
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("active", active);
+        stats.put("activeCount", active.size());
+        stats.put("completed", completedCount.get());
+        stats.put("stopped", stoppedCount.get());
+        stats.put("maxReplays", maxReplays);
+        stats.put("timerScheduled", timerWheel.scheduledCount());
+        stats.put("timerExpired", timerWheel.expiredCount());
+        stats.put("timerCancelled", timerWheel.cancelledCount());
+        return stats;
+    }
+
+    /**
+     * 单个回放
+     *
+     * 同一时刻最多只有一个待执行的定时任务，step()由时间轮依次触发，不会并发执行
+     */
+    private class Replay {
+        final String replayId;
+        final String owner;
+        final String symbol;
+        final double speed;
+        final TickRingBuffer.Snapshot snapshot;
+        final int begin;
+        final int end;
+        final ReplaySink sink;
+        final long startedAt = System.currentTimeMillis();
+
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private volatile HashedTimerWheel.Timeout timeout;
+        private volatile int index;
+        private volatile long pausedSteps;
+
+        // 回放时钟：已回放的行情时间（毫秒，相对第一笔），只在未暂停时随墙上时间按倍速推进
+        private double replayedMillis;
+        private long lastStepNanos;
+
+        Replay(String replayId, String owner, String symbol, double speed, TickRingBuffer.Snapshot snapshot,
+               int begin, int end, ReplaySink sink) {
+            this.replayId = replayId;
+            this.owner = owner;
+            this.symbol = symbol;
+            this.speed = speed;
+            this.snapshot = snapshot;
+            this.begin = begin;
+            this.end = end;
+            this.sink = sink;
+            this.index = begin;
+            this.lastStepNanos = System.nanoTime();
+        }
+
+        void schedule(long delayMillis) {
+            timeout = timerWheel.schedule(this::step, delayMillis);
+        }
+
+        void step() {
+            if (finished.get()) {
+                return;
+            }
+            try {
+                long now = System.nanoTime();
+                long elapsedNanos = now - lastStepNanos;
+                lastStepNanos = now;
+                if (sink.backlog() > maxBacklog) {
+                    // 客户端消化不过来时暂停，时钟不前进
+                    pausedSteps++;
+                    schedule(timerWheel.tickMillis());
+                    return;
+                }
+
+                boolean unpaced = speed == SPEED_MAX;
+                long dueTime = Long.MAX_VALUE;
+                if (!unpaced && index < end) {
+                    replayedMillis += elapsedNanos / 1_000_000.0 * speed;
+                    dueTime = snapshot.times[begin] + (long) replayedMillis;
+                }
+
+                int i = index;
+                int sentInStep = 0;
+                while (i < end && sentInStep < maxBatch && snapshot.times[i] <= dueTime && !finished.get()) {
+                    if (!sink.send(toTradeMessage(i))) {
+                        index = i;
+                        finish(STATUS_STOPPED);
+                        return;
+                    }
+                    i++;
+                    sentInStep++;
+                }
+                index = i;
+
+                if (i >= end) {
+                    finish(STATUS_COMPLETED);
+                } else if (!finished.get()) {
+                    long delay = 0;
+                    if (!unpaced && snapshot.times[i] > dueTime) {
+                        delay = (long) Math.ceil((snapshot.times[i] - dueTime) / speed);
+                    }
+                    schedule(delay);
+                }
+            } catch (Exception e) {
+                logger.error("回放{}异常: {}", replayId, e.getMessage(), e);
+                finish(STATUS_STOPPED);
+            }
+        }
+
+        private Map<String, Object> toTradeMessage(int i) {
+            Map<String, Object> tick = new HashMap<>();
+            tick.put("time", snapshot.times[i]);
+            tick.put("price", snapshot.prices[i]);
+            tick.put("size", snapshot.sizes[i]);
+            tick.put("flags", snapshot.flags[i]);
+
+            Map<String, Object> message = new HashMap<>();
+            message.put("type", MarketEventBus.TYPE_TRADE);
+            message.put("symbol", symbol);
+            message.put("data", tick);
+            message.put("timestamp", System.currentTimeMillis());
+            message.put("replayId", replayId);
+            return message;
+        }
+
+        void finish(String status) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            HashedTimerWheel.Timeout pending = timeout;
+            if (pending != null) {
+                pending.cancel();
+            }
+            replays.remove(replayId);
+            if (STATUS_COMPLETED.equals(status)) {
+                completedCount.incrementAndGet();
+            } else {
+                stoppedCount.incrementAndGet();
+            }
+
+            Map<String, Object> message = toMap();
+            message.put("type", "replay");
+            message.put("status", status);
+            sink.send(message);
+            logger.info("回放结束: {} {} status={} sent={}/{}", replayId, symbol, status, index - begin, end - begin);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("replayId", replayId);
+            map.put("sessionId", owner);
+            map.put("symbol", symbol);
+            map.put("speed", speed == SPEED_MAX ? "max" : speed);
+            map.put("status", finished.get() ? STATUS_STOPPED : STATUS_RUNNING);
+            map.put("total", end - begin);
+            map.put("sent", index - begin);
+            map.put("from", end > begin ? snapshot.times[begin] : null);
+            map.put("to", end > begin ? snapshot.times[end - 1] : null);
+            map.put("pausedSteps", pausedSteps);
+            map.put("startedAt", startedAt);
+            return map;
+        }
+    }
+}
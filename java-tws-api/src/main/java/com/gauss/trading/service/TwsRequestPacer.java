@@ -0,0 +1,173 @@
+package com.gauss.trading.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * TWS请求节流
+ *
+ * 合约详情等查询类请求受Gateway的消息速率限制，这里按令牌桶控制每秒发出的请求数，
+ * 并限制同时等待响应的请求数。请求在队列中排队，不占用调用线程；由单个调度线程按预算发出
+ */
+@Service
+public class TwsRequestPacer {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwsRequestPacer.class);
+
+    @Value("${tws.pacing.requests-per-second:40}")
+    private double requestsPerSecond;
+
+    @Value("${tws.pacing.max-in-flight:20}")
+    private int maxInFlight;
+
+    private final ConcurrentLinkedQueue<PacedRequest<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean(false);
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // 令牌桶状态，只在调度线程访问
+    private double tokens;
+    private long lastRefillNanos;
+
+    private ScheduledExecutorService dispatcher;
+
+    /**
+     * 排队中的请求
+     */
+    private static class PacedRequest<T> {
+        final Supplier<CompletableFuture<T>> request;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        PacedRequest(Supplier<CompletableFuture<T>> request) {
+            this.request = request;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TWS-Request-Pacer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tokens = Math.max(1, requestsPerSecond);
+        lastRefillNanos = System.nanoTime();
+        logger.info("TWS请求节流: {}次/秒, 最多{}个并发请求", requestsPerSecond, maxInFlight);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+        PacedRequest<?> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new IllegalStateException("服务正在关闭"));
+        }
+    }
+
+    /**
+     * 提交请求，按节流预算发出
+     *
+     * @param request 发出请求并返回其结果的函数，在调度线程中调用，不能阻塞
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        PacedRequest<T> pacedRequest = new PacedRequest<>(request);
+        queue.add(pacedRequest);
+        queued.incrementAndGet();
+        submitted.incrementAndGet();
+        scheduleDispatch(0);
+        return pacedRequest.result;
+    }
+
+    private void scheduleDispatch(long delayNanos) {
+        if (dispatchScheduled.compareAndSet(false, true)) {
+            dispatcher.schedule(this::dispatch, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void dispatch() {
+        dispatchScheduled.set(false);
+        long now = System.nanoTime();
+        double capacity = Math.max(1, requestsPerSecond);
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) / 1_000_000_000.0 * requestsPerSecond);
+        lastRefillNanos = now;
+
+        while (tokens >= 1 && inFlight.get() < maxInFlight) {
+            PacedRequest<?> pacedRequest = queue.poll();
+            if (pacedRequest == null) {
+                return;
+            }
+            queued.decrementAndGet();
+            if (pacedRequest.result.isDone()) {
+                // 调用方已取消
+                continue;
+            }
+            tokens -= 1;
+            inFlight.incrementAndGet();
+            start(pacedRequest);
+        }
+
+        if (!queue.isEmpty() && tokens < 1) {
+            // 等待下一个令牌；并发数已满时由请求完成时重新调度
+            long waitNanos = (long) ((1 - tokens) / requestsPerSecond * 1_000_000_000L);
+            scheduleDispatch(Math.max(1, waitNanos));
+        }
+    }
+
+    private <T> void start(PacedRequest<T> pacedRequest) {
+        CompletableFuture<T> future;
+        try {
+            future = pacedRequest.request.get();
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((result, error) -> {
+            inFlight.decrementAndGet();
+            if (error != null) {
+                failed.incrementAndGet();
+                pacedRequest.result.completeExceptionally(error);
+            } else {
+                completed.incrementAndGet();
+                pacedRequest.result.complete(result);
+            }
+            if (!queue.isEmpty()) {
+                scheduleDispatch(0);
+            }
+        });
+    }
+
+    /**
+     * 获取节流统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("requestsPerSecond", requestsPerSecond);
+        stats.put("maxInFlight", maxInFlight);
+        stats.put("queued", queued.get());
+        stats.put("inFlight", inFlight.get());
+        stats.put("submitted", submitted.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+}
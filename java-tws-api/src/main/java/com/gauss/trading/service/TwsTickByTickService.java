@@ -0,0 +1,294 @@
+package com.gauss.trading.service;
+
+import com.ib.client.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TWS逐笔数据服务
+ *
+ * 处理reqTickByTickData订阅，每个合约对应一个固定大小的逐笔环形缓冲区
+ */
+@Service
+public class TwsTickByTickService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwsTickByTickService.class);
+
+    @Autowired
+    private TwsConnectionService connectionService;
+
+    @Autowired
+    private MarketEventBus eventBus;
+
+    @Autowired
+    private ContractRegistry contractRegistry;
+
+    @Value("${tws.tick-by-tick.buffer-size:65536}")
+    private int bufferSize;
+
+    private final ConcurrentHashMap<Integer, TickByTickSubscription> subscriptions = new ConcurrentHashMap<>();
+    // 按 代码|逐笔类型 索引，同一合约可以同时订阅成交和中间价
+    private final ConcurrentHashMap<String, TickByTickSubscription> subscriptionsBySymbol = new ConcurrentHashMap<>();
+
+    // 按代码查找时的优先顺序
+    private static final String[] TICK_TYPES = {"Last", "AllLast", "MidPoint"};
+
+    /**
+     * 逐笔订阅信息
+     */
+    public static class TickByTickSubscription {
+        public final int reqId;
+        public final String symbol;
+        public final int conId;
+        public final String tickType;
+        public final TickRingBuffer buffer;
+
+        public TickByTickSubscription(int reqId, String symbol, int conId, String tickType, TickRingBuffer buffer) {
+            this.reqId = reqId;
+            this.symbol = symbol;
+            this.conId = conId;
+            this.tickType = tickType;
+            this.buffer = buffer;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("reqId", reqId);
+            map.put("symbol", symbol);
+            map.put("conId", String.valueOf(conId));
+            map.put("tickType", tickType);
+            map.put("capacity", buffer.capacity());
+            map.put("totalTicks", buffer.totalCount());
+            return map;
+        }
+    }
+
+    /**
+     * 订阅逐笔数据
+     *
+     * tickType支持 Last、AllLast（成交）和 MidPoint（中间价）
+     */
+    public CompletableFuture<Object> subscribe(String conId, String symbol, String exchange, String tickType) {
+        logger.info("订阅逐笔数据: conId={}, symbol={}, exchange={}, tickType={}", conId, symbol, exchange, tickType);
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                if (!connectionService.isConnected()) {
+                    throw new RuntimeException("TWS未连接");
+                }
+                if (!"Last".equals(tickType) && !"AllLast".equals(tickType) && !"MidPoint".equals(tickType)) {
+                    throw new RuntimeException("不支持的逐笔类型: " + tickType);
+                }
+
+                TickByTickSubscription existing = subscriptionsBySymbol.get(key(symbol, tickType));
+                if (existing != null) {
+                    logger.info("逐笔数据已订阅: symbol={}, tickType={}, reqId={}", symbol, tickType, existing.reqId);
+                    return existing.toMap();
+                }
+
+                // 已登记的合约直接由注册表构建，否则按参数创建
+                int contractId = Integer.parseInt(conId);
+                Contract contract = contractRegistry.toContract(contractId);
+                if (contract == null) {
+                    contract = new Contract();
+                    contract.conid(contractId);
+                    contract.symbol(symbol);
+                    contract.secType("FUT");
+                    contract.currency("USD");
+                }
+                contract.exchange(exchange);
+
+                int reqId = connectionService.getNextRequestId();
+                TickByTickSubscription subscription =
+                    new TickByTickSubscription(reqId, symbol, contractId, tickType, new TickRingBuffer(bufferSize));
+                // 并发订阅同一代码和类型时只有一个请求发往TWS
+                existing = subscriptionsBySymbol.putIfAbsent(key(symbol, tickType), subscription);
+                if (existing != null) {
+                    logger.info("逐笔数据已订阅: symbol={}, tickType={}, reqId={}", symbol, tickType, existing.reqId);
+                    return existing.toMap();
+                }
+                subscriptions.put(reqId, subscription);
+
+                try {
+                    connectionService.getClient().reqTickByTickData(reqId, contract, tickType, 0, false);
+                } catch (RuntimeException e) {
+                    subscriptions.remove(reqId);
+                    subscriptionsBySymbol.remove(key(symbol, tickType), subscription);
+                    throw e;
+                }
+
+                logger.info("✅ 已发起逐笔数据订阅: reqId={}, symbol={}", reqId, symbol);
+                return subscription.toMap();
+
+            } catch (Exception e) {
+                logger.error("订阅逐笔数据异常: {}", e.getMessage(), e);
+                throw new RuntimeException("订阅逐笔数据失败: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 取消逐笔数据订阅
+     */
+    public void cancel(int reqId) {
+        try {
+            TickByTickSubscription subscription = subscriptions.remove(reqId);
+            if (subscription != null) {
+                subscriptionsBySymbol.remove(key(subscription.symbol, subscription.tickType), subscription);
+            }
+            if (connectionService.isConnected()) {
+                connectionService.getClient().cancelTickByTickData(reqId);
+            }
+            logger.info("✅ 已取消逐笔数据订阅: reqId={}", reqId);
+        } catch (Exception e) {
+            logger.error("取消逐笔数据订阅异常: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 逐笔请求出错时移除订阅（如10190逐笔订阅数超限、10189、354无权限），之后的订阅会重新发起请求
+     */
+    public void handleError(int reqId, int errorCode, String errorMsg) {
+        TickByTickSubscription subscription = subscriptions.remove(reqId);
+        if (subscription == null) {
+            return;
+        }
+        subscriptionsBySymbol.remove(key(subscription.symbol, subscription.tickType), subscription);
+        logger.warn("逐笔数据订阅失败，已移除: reqId={}, symbol={}, code={}, message={}",
+                    reqId, subscription.symbol, errorCode, errorMsg);
+    }
+
+    private static String key(String symbol, String tickType) {
+        return symbol + "|" + tickType;
+    }
+
+    /**
+     * 按代码查找订阅，同时订阅了多种类型时按Last、AllLast、MidPoint的顺序取第一个
+     */
+    private TickByTickSubscription findBySymbol(String symbol) {
+        for (String tickType : TICK_TYPES) {
+            TickByTickSubscription subscription = subscriptionsBySymbol.get(key(symbol, tickType));
+            if (subscription != null) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 处理逐笔成交（Last / AllLast）
+     */
+    public void handleTickByTickLast(int reqId, long time, double price, Decimal size, TickAttribLast attrib) {
+        TickByTickSubscription subscription = subscriptions.get(reqId);
+        if (subscription == null) {
+            return;
+        }
+
+        int flag = 0;
+        if (attrib != null) {
+            if (attrib.pastLimit()) {
+                flag |= TickRingBuffer.FLAG_PAST_LIMIT;
+            }
+            if (attrib.unreported()) {
+                flag |= TickRingBuffer.FLAG_UNREPORTED;
+            }
+        }
+
+        // TWS逐笔时间为秒级时间戳，统一存为毫秒
+        long timeMillis = time * 1000L;
+        double sizeValue = Decimal.isValid(size) ? size.value().doubleValue() : 0;
+        subscription.buffer.append(timeMillis, price, sizeValue, flag);
+
+        pushTick(subscription, timeMillis, price, sizeValue, flag);
+    }
+
+    /**
+     * 处理逐笔中间价（MidPoint）
+     */
+    public void handleTickByTickMidPoint(int reqId, long time, double midPoint) {
+        TickByTickSubscription subscription = subscriptions.get(reqId);
+        if (subscription == null) {
+            return;
+        }
+
+        long timeMillis = time * 1000L;
+        subscription.buffer.append(timeMillis, midPoint, 0, TickRingBuffer.FLAG_MIDPOINT);
+
+        pushTick(subscription, timeMillis, midPoint, 0, TickRingBuffer.FLAG_MIDPOINT);
+    }
+
+    /**
+     * 发布逐笔数据事件
+     */
+    private void pushTick(TickByTickSubscription subscription, long time, double price, double size, int flag) {
+        if (!eventBus.hasSubscribers(subscription.symbol)) {
+            return;
+        }
+
+        Map<String, Object> tick = new HashMap<>();
+        tick.put("time", time);
+        tick.put("price", price);
+        tick.put("size", size);
+        tick.put("flags", flag);
+        eventBus.publish(MarketEventBus.TYPE_TRADE, subscription.symbol, tick);
+    }
+
+    /**
+     * 获取最近N笔逐笔数据
+     */
+    public Map<String, Object> getRecentTicks(String symbol, int limit) {
+        TickByTickSubscription subscription = findBySymbol(symbol);
+        if (subscription == null) {
+            throw new RuntimeException("未订阅逐笔数据: " + symbol);
+        }
+
+        TickRingBuffer.Snapshot snapshot = subscription.buffer.latest(Math.max(1, limit));
+        List<Map<String, Object>> ticks = new ArrayList<>(snapshot.count);
+        for (int i = 0; i < snapshot.count; i++) {
+            Map<String, Object> tick = new HashMap<>();
+            tick.put("time", snapshot.times[i]);
+            tick.put("price", snapshot.prices[i]);
+            tick.put("size", snapshot.sizes[i]);
+            tick.put("flags", snapshot.flags[i]);
+            ticks.add(tick);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("symbol", symbol);
+        result.put("tickType", subscription.tickType);
+        result.put("count", snapshot.count);
+        result.put("totalTicks", subscription.buffer.totalCount());
+        result.put("ticks", ticks);
+        return result;
+    }
+
+    /**
+     * 复制缓冲区中的全部逐笔记录（用于回放）
+     */
+    public TickRingBuffer.Snapshot snapshotTicks(String symbol) {
+        TickByTickSubscription subscription = findBySymbol(symbol);
+        if (subscription == null) {
+            throw new RuntimeException("未订阅逐笔数据: " + symbol);
+        }
+        return subscription.buffer.latest(subscription.buffer.capacity());
+    }
+
+    /**
+     * 获取所有逐笔订阅
+     */
+    public Map<String, Object> getSubscriptions() {
+        Map<String, Object> result = new HashMap<>();
+        subscriptions.forEach((reqId, subscription) -> result.put(String.valueOf(reqId), subscription.toMap()));
+        return result;
+    }
+}
@@ -8,7 +8,6 @@ import org.slf4j.LoggerFactory;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.HashSet;
 import java.util.HashMap;
 
@@ -23,7 +22,9 @@ public class TwsWrapper extends DefaultEWrapper {
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
     private final TwsConnectionService connectionService;
-    private final Map<Integer, ContractDetails> contractDetailsMap = new ConcurrentHashMap<>();
+
+    // 订单ID -> 合约代码，由openOrder记录，订单进入终态后移除
+    private final RequestStateMap<Integer, String> orderSymbols = new RequestStateMap<>("orderSymbols");
 
     public TwsWrapper(TwsConnectionService connectionService) {
         this.connectionService = connectionService;
@@ -41,6 +42,14 @@ public class TwsWrapper extends DefaultEWrapper {
     public void connectionClosed() {
         logger.info("TWS连接关闭");
         connectionService.completePendingRequest(0, false);
+        connectionService.failPendingRequests("TWS连接关闭");
+    }
+
+    /**
+     * 尚未进入终态的订单，供泄漏检查
+     */
+    public RequestStateMap<Integer, String> getOrderSymbols() {
+        return orderSymbols;
     }
 
     @Override
@@ -48,24 +57,14 @@ public class TwsWrapper extends DefaultEWrapper {
         try {
             logger.info("收到合约详情: reqId={}, symbol={}", reqId, contractDetails.contract().symbol());
             
-            // 存储合约详情
-            contractDetailsMap.put(reqId, contractDetails);
-            
-            // 转换为可序列化的Map，处理null值
-            Map<String, Object> contractMap = new HashMap<>();
-            contractMap.put("conId", contractDetails.contract().conid());
-            contractMap.put("symbol", contractDetails.contract().symbol() != null ? contractDetails.contract().symbol() : "");
-            contractMap.put("secType", contractDetails.contract().secType() != null ? contractDetails.contract().secType() : "");
-            contractMap.put("exchange", contractDetails.contract().exchange() != null ? contractDetails.contract().exchange() : "");
-            contractMap.put("currency", contractDetails.contract().currency() != null ? contractDetails.contract().currency() : "");
-            contractMap.put("multiplier", contractDetails.contract().multiplier() != null ? contractDetails.contract().multiplier() : "");
-            contractMap.put("tradingClass", contractDetails.contract().tradingClass() != null ? contractDetails.contract().tradingClass() : "");
-            contractMap.put("description", contractDetails.contract().description() != null ? contractDetails.contract().description() : "");
+            // 多行请求只收集结果，在contractDetailsEnd时统一完成
+            if (connectionService.collectContractDetails(reqId, contractDetails)) {
+                return;
+            }
             
-            // 添加到期日期信息
-            contractMap.put("contractMonth", contractDetails.contractMonth() != null ? contractDetails.contractMonth() : "");
-            contractMap.put("realExpirationDate", contractDetails.realExpirationDate() != null ? contractDetails.realExpirationDate() : "");
-            contractMap.put("lastTradeTime", contractDetails.lastTradeTime() != null ? contractDetails.lastTradeTime() : "");
+            // 转换为可序列化的Map，处理null值，并登记到合约注册表（每个conId只保留一份）
+            Map<String, Object> contractMap = ContractDetailsMapper.toMap(contractDetails);
+            connectionService.getContractRegistry().intern(contractMap);
             
             // 转换为JSON
             String json = objectMapper.writeValueAsString(contractMap);
@@ -82,6 +81,7 @@ public class TwsWrapper extends DefaultEWrapper {
     @Override
     public void contractDetailsEnd(int reqId) {
         logger.info("合约详情请求完成: reqId={}", reqId);
+        connectionService.completeContractDetails(reqId);
     }
 
     @Override
@@ -158,6 +158,37 @@ public class TwsWrapper extends DefaultEWrapper {
         }
     }
 
+    @Override
+    public void orderStatus(int orderId, String status, Decimal filled, Decimal remaining,
+                            double avgFillPrice, long permId, int parentId, double lastFillPrice,
+                            int clientId, String whyHeld, double mktCapPrice) {
+        orderStatus(orderId, status, (int) filled.longValue(), (int) remaining.longValue(), avgFillPrice,
+                    (int) permId, parentId, lastFillPrice, clientId, whyHeld, mktCapPrice);
+
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", "orderStatus");
+        event.put("orderId", orderId);
+        event.put("status", status);
+        event.put("filled", filled.value().doubleValue());
+        event.put("remaining", remaining.value().doubleValue());
+        event.put("avgFillPrice", avgFillPrice);
+        event.put("lastFillPrice", lastFillPrice);
+        String symbol = isTerminalOrderStatus(status) ? orderSymbols.remove(orderId) : orderSymbols.get(orderId);
+        publishOrderEvent(symbol, event);
+    }
+
+    private static boolean isTerminalOrderStatus(String status) {
+        return "Filled".equals(status) || "Cancelled".equals(status) || "ApiCancelled".equals(status)
+            || "Inactive".equals(status);
+    }
+
+    private void publishOrderEvent(String symbol, Map<String, Object> event) {
+        MarketEventBus eventBus = connectionService.getEventBus();
+        if (eventBus != null) {
+            eventBus.publish(MarketEventBus.TYPE_ORDER, symbol, event);
+        }
+    }
+
     @Override
     public void accountSummary(int reqId, String account, String tag, String value, String currency) {
         try {
@@ -218,6 +249,26 @@ public class TwsWrapper extends DefaultEWrapper {
         }
     }
 
+    @Override
+    public void error(int id, long errorTime, int errorCode, String errorMsg, String advancedOrderRejectJson) {
+        // 2100-2199为连接和数据农场状态通知，不代表请求失败
+        if (errorCode >= 2100 && errorCode < 2200) {
+            logger.info("TWS通知: id={}, code={}, message={}", id, errorCode, errorMsg);
+            return;
+        }
+        
+        connectionService.failContractDetails(id, new Exception(errorMsg));
+        connectionService.failSymbolSamples(id, new Exception(errorMsg));
+        connectionService.failOptionParams(id, new Exception(errorMsg));
+        if (connectionService.getTickByTickService() != null) {
+            connectionService.getTickByTickService().handleError(id, errorCode, errorMsg);
+        }
+        if (connectionService.getMarketDepthService() != null) {
+            connectionService.getMarketDepthService().handleError(id, errorCode, errorMsg);
+        }
+        error(id, errorCode, errorMsg);
+    }
+
     @Override
     public void nextValidId(int orderId) {
         logger.info("下一个有效ID: {}", orderId);
@@ -226,6 +277,7 @@ public class TwsWrapper extends DefaultEWrapper {
     public void connectionLost() {
         logger.warn("连接丢失");
         connectionService.completePendingRequest(0, false);
+        connectionService.failPendingRequests("TWS连接丢失");
     }
 
     // ==================== 其他重要方法的重写 ====================
@@ -243,6 +295,19 @@ public class TwsWrapper extends DefaultEWrapper {
     @Override
     public void openOrder(int orderId, Contract contract, Order order, OrderState orderState) {
         logger.info("开仓订单: orderId={}, symbol={}", orderId, contract.symbol());
+
+        if (!isTerminalOrderStatus(orderState.getStatus())) {
+            orderSymbols.putIfAbsent(orderId, connectionService.getContractRegistry().dedupe(contract.symbol()));
+        }
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", "openOrder");
+        event.put("orderId", orderId);
+        event.put("action", String.valueOf(order.action()));
+        event.put("orderType", String.valueOf(order.orderType()));
+        event.put("totalQuantity", order.totalQuantity().value().doubleValue());
+        event.put("lmtPrice", order.lmtPrice());
+        event.put("status", String.valueOf(orderState.getStatus()));
+        publishOrderEvent(contract.symbol(), event);
     }
 
     @Override
@@ -253,6 +318,16 @@ public class TwsWrapper extends DefaultEWrapper {
     @Override
     public void execDetails(int reqId, Contract contract, Execution execution) {
         logger.info("执行详情: reqId={}, symbol={}", reqId, contract.symbol());
+
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", "execution");
+        event.put("orderId", execution.orderId());
+        event.put("execId", execution.execId());
+        event.put("side", execution.side());
+        event.put("shares", execution.shares().value().doubleValue());
+        event.put("price", execution.price());
+        event.put("time", execution.time());
+        publishOrderEvent(contract.symbol(), event);
     }
 
     @Override
@@ -366,12 +441,17 @@ public class TwsWrapper extends DefaultEWrapper {
     @Override
     public void securityDefinitionOptionalParameter(int reqId, String exchange, int underlyingConId, String tradingClass,
                                                    String multiplier, Set<String> expirations, Set<Double> strikes) {
-        logger.info("证券定义可选参数: reqId={}", reqId);
+        logger.info("证券定义可选参数: reqId={}, exchange={}, tradingClass={}, expirations={}, strikes={}", reqId,
+                    exchange, tradingClass, expirations != null ? expirations.size() : 0,
+                    strikes != null ? strikes.size() : 0);
+        connectionService.collectOptionParams(reqId, exchange, underlyingConId, tradingClass, multiplier, expirations,
+                                              strikes);
     }
 
     @Override
     public void securityDefinitionOptionalParameterEnd(int reqId) {
         logger.info("证券定义可选参数结束: reqId={}", reqId);
+        connectionService.completeOptionParams(reqId);
     }
 
     @Override
@@ -386,7 +466,9 @@ public class TwsWrapper extends DefaultEWrapper {
 
     @Override
     public void symbolSamples(int reqId, ContractDescription[] contractDescriptions) {
-        logger.info("符号样本: reqId={}", reqId);
+        int count = contractDescriptions != null ? contractDescriptions.length : 0;
+        logger.info("符号样本: reqId={}, count={}", reqId, count);
+        connectionService.completeSymbolSamples(reqId, contractDescriptions);
     }
 
     @Override
@@ -453,7 +535,9 @@ public class TwsWrapper extends DefaultEWrapper {
 
     @Override
     public void marketRule(int marketRuleId, PriceIncrement[] priceIncrements) {
-        logger.info("市场规则: marketRuleId={}", marketRuleId);
+        logger.info("市场规则: marketRuleId={}, segments={}", marketRuleId,
+                    priceIncrements != null ? priceIncrements.length : 0);
+        connectionService.completeMarketRule(marketRuleId, priceIncrements);
     }
 
     @Override
@@ -485,6 +569,11 @@ public class TwsWrapper extends DefaultEWrapper {
     public void tickByTickAllLast(int reqId, int tickType, long time, double price, Decimal size, TickAttribLast tickAttribLast,
                                  String exchange, String specialConditions) {
         logger.debug("Tick逐Tick全部最后: reqId={}, price={}", reqId, price);
+
+        // 转发给逐笔数据服务处理
+        if (connectionService.getTickByTickService() != null) {
+            connectionService.getTickByTickService().handleTickByTickLast(reqId, time, price, size, tickAttribLast);
+        }
     }
 
     @Override
@@ -496,6 +585,11 @@ public class TwsWrapper extends DefaultEWrapper {
     @Override
     public void tickByTickMidPoint(int reqId, long time, double midPoint) {
         logger.debug("Tick逐Tick中点: reqId={}, midPoint={}", reqId, midPoint);
+
+        // 转发给逐笔数据服务处理
+        if (connectionService.getTickByTickService() != null) {
+            connectionService.getTickByTickService().handleTickByTickMidPoint(reqId, time, midPoint);
+        }
     }
 
     @Override
@@ -567,6 +661,23 @@ public class TwsWrapper extends DefaultEWrapper {
     @Override
     public void updateMktDepth(int tickerId, int position, int operation, int side, double price, Decimal size) {
         logger.debug("更新市场深度: tickerId={}, position={}, operation={}", tickerId, position, operation);
+
+        // 转发给市场深度服务处理
+        if (connectionService.getMarketDepthService() != null) {
+            connectionService.getMarketDepthService().handleDepthUpdate(tickerId, position, null, operation, side, price, size);
+        }
+    }
+
+    @Override
+    public void updateMktDepthL2(int tickerId, int position, String marketMaker, int operation, int side, double price,
+                                 Decimal size, boolean isSmartDepth) {
+        logger.debug("更新L2市场深度: tickerId={}, position={}, marketMaker={}, operation={}",
+                     tickerId, position, marketMaker, operation);
+
+        // 转发给市场深度服务处理
+        if (connectionService.getMarketDepthService() != null) {
+            connectionService.getMarketDepthService().handleDepthUpdate(tickerId, position, marketMaker, operation, side, price, size);
+        }
     }
 
     @Override
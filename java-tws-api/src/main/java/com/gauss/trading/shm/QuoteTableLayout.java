@@ -0,0 +1,87 @@
+package com.gauss.trading.shm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * 共享内存报价表布局
+ *
+ * 文件由64字节文件头和若干128字节（两个缓存行）的报价槽组成，全部小端序：
+ * <pre>
+ * 文件头
+ * offset size 字段
+ *   0     4   magic（"TWSQ"）
+ *   4     4   version
+ *   8     4   slotCount
+ *  12     4   slotSize
+ *  16     8   startedAt（写端启动时间，毫秒；变化表示写端重启并清空了全部槽）
+ *  24     4   usedSlots（已分配过的槽数高水位，读端只需扫描到这里）
+ *
+ * 报价槽（每槽一个seqlock，seq为奇数表示写端正在写入）
+ *   0     8   seq
+ *   8     4   instrumentId（即订阅的tickerId）
+ *  12     4   changedMask（见 MarketDataInfo.FIELD_*）
+ *  16     8   version（合约的数据版本号，与WebSocket消息的seq相同）
+ *  24     8   timestamp（毫秒）
+ *  32     8   lastPrice（double）
+ *  40     8   bid（double）
+ *  48     8   ask（double）
+ *  56     4   bidSize
+ *  60     4   askSize
+ *  64     8   volume
+ *  72     8   conId
+ *  80     4   active（1 = 使用中，0 = 空闲）
+ *  84     1   symbol长度
+ *  85    27   symbol（ASCII）
+ * </pre>
+ */
+public final class QuoteTableLayout {
+
+    public static final int MAGIC = 0x51535754;
+    public static final int VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int HEADER_SIZE = 64;
+    public static final int HEADER_MAGIC = 0;
+    public static final int HEADER_VERSION = 4;
+    public static final int HEADER_SLOT_COUNT = 8;
+    public static final int HEADER_SLOT_SIZE = 12;
+    public static final int HEADER_STARTED_AT = 16;
+    public static final int HEADER_USED_SLOTS = 24;
+
+    public static final int SLOT_SIZE = 128;
+    public static final int SEQ = 0;
+    public static final int INSTRUMENT_ID = 8;
+    public static final int CHANGED_MASK = 12;
+    public static final int DATA_VERSION = 16;
+    public static final int TIMESTAMP = 24;
+    public static final int LAST_PRICE = 32;
+    public static final int BID = 40;
+    public static final int ASK = 48;
+    public static final int BID_SIZE = 56;
+    public static final int ASK_SIZE = 60;
+    public static final int VOLUME = 64;
+    public static final int CON_ID = 72;
+    public static final int ACTIVE = 80;
+    public static final int SYMBOL_LENGTH = 84;
+    public static final int SYMBOL = 85;
+    public static final int MAX_SYMBOL_LENGTH = 27;
+
+    /**
+     * 对映射缓冲区中long/int的原子访问（seq和usedSlots），偏移均按自身大小对齐
+     */
+    static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, BYTE_ORDER);
+    static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, BYTE_ORDER);
+
+    private QuoteTableLayout() {
+    }
+
+    public static long fileSize(int slotCount) {
+        return HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+    }
+
+    public static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,224 @@
+package com.gauss.trading.shm;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 共享内存报价表读端
+ *
+ * 供同机其他JVM进程直接读取桥接服务发布的报价表，读取过程不发生系统调用：
+ * 读seq（acquire）→ 复制字段 → 再读seq，两次相同且为偶数即得到一致的报价，否则重试。
+ * 单个读端实例可被多个线程共享（只做绝对位置读取），但SharedQuote实例不能跨线程复用。
+ * <pre>
+ * try (QuoteTableReader reader = QuoteTableReader.open(Path.of("/dev/shm/tws-quotes"))) {
+ *     int slot = reader.findSlot("MES");
+ *     SharedQuote quote = new SharedQuote();
+ *     if (slot >= 0 && reader.read(slot, quote)) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * 写端重启会复用文件、清空全部槽并更新startedAt，startedAt()变化时应重新打开
+ */
+public class QuoteTableReader implements AutoCloseable {
+
+    // 写端异常退出可能使某个槽停在奇数seq，重试超过该次数后放弃本次读取
+    private static final int MAX_RETRIES = 10_000;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+
+    private QuoteTableReader(FileChannel channel, MappedByteBuffer buffer, int slotCount) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+    }
+
+    /**
+     * 以只读方式映射报价表文件
+     */
+    public static QuoteTableReader open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() < QuoteTableLayout.HEADER_SIZE) {
+                throw new IOException("报价表文件不完整: " + path);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, QuoteTableLayout.HEADER_SIZE);
+            header.order(QuoteTableLayout.BYTE_ORDER);
+            int magic = (int) QuoteTableLayout.INT.getAcquire(header, QuoteTableLayout.HEADER_MAGIC);
+            if (magic != QuoteTableLayout.MAGIC) {
+                throw new IOException("不是报价表文件或写端尚未初始化: " + path);
+            }
+            int version = header.getInt(QuoteTableLayout.HEADER_VERSION);
+            int slotSize = header.getInt(QuoteTableLayout.HEADER_SLOT_SIZE);
+            if (version != QuoteTableLayout.VERSION || slotSize != QuoteTableLayout.SLOT_SIZE) {
+                throw new IOException("报价表版本不兼容: version=" + version + ", slotSize=" + slotSize);
+            }
+            int slotCount = header.getInt(QuoteTableLayout.HEADER_SLOT_COUNT);
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                                  QuoteTableLayout.fileSize(slotCount));
+            buffer.order(QuoteTableLayout.BYTE_ORDER);
+            return new QuoteTableReader(channel, buffer, slotCount);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 读取一个槽
+     *
+     * @return 读到一致的使用中报价时返回true；槽空闲或写端长时间未完成写入时返回false
+     */
+    public boolean read(int slot, SharedQuote quote) {
+        int base = offset(slot);
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            long seq = (long) QuoteTableLayout.LONG.getAcquire(buffer, base + QuoteTableLayout.SEQ);
+            if ((seq & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            boolean active = buffer.getInt(base + QuoteTableLayout.ACTIVE) == 1;
+            int instrumentId = buffer.getInt(base + QuoteTableLayout.INSTRUMENT_ID);
+            long conId = buffer.getLong(base + QuoteTableLayout.CON_ID);
+            int changedMask = buffer.getInt(base + QuoteTableLayout.CHANGED_MASK);
+            long version = buffer.getLong(base + QuoteTableLayout.DATA_VERSION);
+            long timestamp = buffer.getLong(base + QuoteTableLayout.TIMESTAMP);
+            double lastPrice = buffer.getDouble(base + QuoteTableLayout.LAST_PRICE);
+            double bid = buffer.getDouble(base + QuoteTableLayout.BID);
+            double ask = buffer.getDouble(base + QuoteTableLayout.ASK);
+            int bidSize = buffer.getInt(base + QuoteTableLayout.BID_SIZE);
+            int askSize = buffer.getInt(base + QuoteTableLayout.ASK_SIZE);
+            long volume = buffer.getLong(base + QuoteTableLayout.VOLUME);
+            String symbol = readSymbol(base, quote.slot == slot ? quote.symbol : null);
+
+            // 字段读取不能重排到第二次读seq之后
+            VarHandle.loadLoadFence();
+            if ((long) QuoteTableLayout.LONG.getOpaque(buffer, base + QuoteTableLayout.SEQ) != seq) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (!active) {
+                return false;
+            }
+
+            quote.slot = slot;
+            quote.instrumentId = instrumentId;
+            quote.conId = conId;
+            quote.symbol = symbol;
+            quote.changedMask = changedMask;
+            quote.version = version;
+            quote.timestamp = timestamp;
+            quote.lastPrice = lastPrice;
+            quote.bid = bid;
+            quote.ask = ask;
+            quote.bidSize = bidSize;
+            quote.askSize = askSize;
+            quote.volume = volume;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 槽的seqlock序号，可用于轮询判断槽是否有更新而不必复制全部字段
+     */
+    public long sequence(int slot) {
+        return (long) QuoteTableLayout.LONG.getAcquire(buffer, offset(slot) + QuoteTableLayout.SEQ);
+    }
+
+    /**
+     * 按合约代码查找使用中的槽
+     *
+     * @return 槽号，未找到时返回-1
+     */
+    public int findSlot(String symbol) {
+        SharedQuote quote = new SharedQuote();
+        int used = usedSlots();
+        for (int slot = 0; slot < used; slot++) {
+            if (read(slot, quote) && symbol.equals(quote.symbol)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按instrumentId（tickerId）查找使用中的槽
+     *
+     * @return 槽号，未找到时返回-1
+     */
+    public int findSlot(int instrumentId) {
+        SharedQuote quote = new SharedQuote();
+        int used = usedSlots();
+        for (int slot = 0; slot < used; slot++) {
+            if (read(slot, quote) && quote.instrumentId == instrumentId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 写端分配过的槽数高水位
+     */
+    public int usedSlots() {
+        int used = (int) QuoteTableLayout.INT.getAcquire(buffer, QuoteTableLayout.HEADER_USED_SLOTS);
+        return Math.min(used, slotCount);
+    }
+
+    public int slotCount() {
+        return slotCount;
+    }
+
+    /**
+     * 写端启动时间，每次调用都从文件头读取；与打开时的值不同说明写端已重启，应重新打开
+     */
+    public long startedAt() {
+        return (long) QuoteTableLayout.LONG.getAcquire(buffer, QuoteTableLayout.HEADER_STARTED_AT);
+    }
+
+    /**
+     * 读取槽中的合约代码，与上次读到的相同时复用原字符串
+     */
+    private String readSymbol(int base, String previous) {
+        int length = Math.min(buffer.get(base + QuoteTableLayout.SYMBOL_LENGTH) & 0xFF,
+                              QuoteTableLayout.MAX_SYMBOL_LENGTH);
+        if (previous != null && previous.length() == length) {
+            boolean same = true;
+            for (int i = 0; i < length && same; i++) {
+                same = previous.charAt(i) == (char) buffer.get(base + QuoteTableLayout.SYMBOL + i);
+            }
+            if (same) {
+                return previous;
+            }
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(base + QuoteTableLayout.SYMBOL + i) & 0x7F);
+        }
+        return new String(chars);
+    }
+
+    private int offset(int slot) {
+        if (slot < 0 || slot >= slotCount) {
+            throw new IndexOutOfBoundsException("槽号超出范围: " + slot);
+        }
+        return QuoteTableLayout.slotOffset(slot);
+    }
+
+    /**
+     * 关闭文件通道，映射在缓冲区被回收前仍然有效
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
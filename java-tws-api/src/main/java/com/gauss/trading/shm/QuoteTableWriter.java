@@ -0,0 +1,173 @@
+package com.gauss.trading.shm;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 共享内存报价表写端
+ *
+ * 每次修改一个槽都按seqlock协议进行：seq置为奇数 → 写入字段 → seq加到下一个偶数（release）。
+ * 同一时刻只能有一个线程写入，调用方负责串行化
+ */
+public class QuoteTableWriter implements AutoCloseable {
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private int usedSlots;
+
+    /**
+     * 创建或复用报价表文件并写入文件头
+     *
+     * 已有文件不截断：读端可能仍映射着旧文件，截断会使其访问越界。依次清除magic、按seqlock协议清空全部槽、
+     * 重写文件头，最后写入magic；文件小于所需大小时才扩展
+     */
+    public QuoteTableWriter(Path path, int slotCount) throws IOException {
+        if (slotCount <= 0) {
+            throw new IllegalArgumentException("slotCount必须大于0: " + slotCount);
+        }
+        this.path = path;
+        this.slotCount = slotCount;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        // 旧文件更大时一并映射，清空旧写端用过而本次不再使用的槽
+        long mapSize = Math.max(channel.size(), QuoteTableLayout.fileSize(slotCount));
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+        buffer.order(QuoteTableLayout.BYTE_ORDER);
+
+        QuoteTableLayout.INT.setRelease(buffer, QuoteTableLayout.HEADER_MAGIC, 0);
+        QuoteTableLayout.INT.setRelease(buffer, QuoteTableLayout.HEADER_USED_SLOTS, 0);
+        int mappedSlots = (int) ((mapSize - QuoteTableLayout.HEADER_SIZE) / QuoteTableLayout.SLOT_SIZE);
+        for (int slot = 0; slot < mappedSlots; slot++) {
+            clear(QuoteTableLayout.slotOffset(slot));
+        }
+
+        buffer.putInt(QuoteTableLayout.HEADER_VERSION, QuoteTableLayout.VERSION);
+        buffer.putInt(QuoteTableLayout.HEADER_SLOT_COUNT, slotCount);
+        buffer.putInt(QuoteTableLayout.HEADER_SLOT_SIZE, QuoteTableLayout.SLOT_SIZE);
+        QuoteTableLayout.LONG.setRelease(buffer, QuoteTableLayout.HEADER_STARTED_AT, System.currentTimeMillis());
+        // magic最后写入，读端看到magic时文件头已完整
+        QuoteTableLayout.INT.setRelease(buffer, QuoteTableLayout.HEADER_MAGIC, QuoteTableLayout.MAGIC);
+    }
+
+    /**
+     * 启用一个槽
+     */
+    public void activate(int slot, int instrumentId, String symbol, long conId) {
+        int base = begin(slot);
+        buffer.putInt(base + QuoteTableLayout.INSTRUMENT_ID, instrumentId);
+        buffer.putLong(base + QuoteTableLayout.CON_ID, conId);
+        putSymbol(base, symbol);
+        buffer.putInt(base + QuoteTableLayout.ACTIVE, 1);
+        end(base);
+
+        if (slot >= usedSlots) {
+            usedSlots = slot + 1;
+            QuoteTableLayout.INT.setRelease(buffer, QuoteTableLayout.HEADER_USED_SLOTS, usedSlots);
+        }
+    }
+
+    /**
+     * 修改槽的合约代码（连续合约换月）
+     */
+    public void relabel(int slot, String symbol) {
+        int base = begin(slot);
+        putSymbol(base, symbol);
+        end(base);
+    }
+
+    /**
+     * 写入一次报价更新
+     */
+    public void writeQuote(int slot, int changedMask, long version, long timestamp, double lastPrice, double bid,
+                           double ask, int bidSize, int askSize, long volume) {
+        int base = begin(slot);
+        buffer.putInt(base + QuoteTableLayout.CHANGED_MASK, changedMask);
+        buffer.putLong(base + QuoteTableLayout.DATA_VERSION, version);
+        buffer.putLong(base + QuoteTableLayout.TIMESTAMP, timestamp);
+        buffer.putDouble(base + QuoteTableLayout.LAST_PRICE, lastPrice);
+        buffer.putDouble(base + QuoteTableLayout.BID, bid);
+        buffer.putDouble(base + QuoteTableLayout.ASK, ask);
+        buffer.putInt(base + QuoteTableLayout.BID_SIZE, bidSize);
+        buffer.putInt(base + QuoteTableLayout.ASK_SIZE, askSize);
+        buffer.putLong(base + QuoteTableLayout.VOLUME, volume);
+        end(base);
+    }
+
+    /**
+     * 释放一个槽，读端之后读到的是空闲槽
+     */
+    public void deactivate(int slot) {
+        int base = begin(slot);
+        buffer.putInt(base + QuoteTableLayout.ACTIVE, 0);
+        end(base);
+    }
+
+    private int begin(int slot) {
+        if (slot < 0 || slot >= slotCount) {
+            throw new IndexOutOfBoundsException("槽号超出范围: " + slot);
+        }
+        int base = QuoteTableLayout.slotOffset(slot);
+        long seq = (long) QuoteTableLayout.LONG.get(buffer, base + QuoteTableLayout.SEQ);
+        QuoteTableLayout.LONG.setOpaque(buffer, base + QuoteTableLayout.SEQ, seq + 1);
+        // 保证奇数seq先于任何字段写入对读端可见
+        VarHandle.storeStoreFence();
+        return base;
+    }
+
+    /**
+     * 清空一个槽的全部字段。seq沿用旧值继续递增，正在读该槽的旧读端会重试并读到空闲槽
+     */
+    private void clear(int base) {
+        long seq = (long) QuoteTableLayout.LONG.get(buffer, base + QuoteTableLayout.SEQ);
+        // 旧写端异常退出时seq可能停在奇数
+        long odd = (seq & 1) != 0 ? seq : seq + 1;
+        QuoteTableLayout.LONG.setOpaque(buffer, base + QuoteTableLayout.SEQ, odd);
+        VarHandle.storeStoreFence();
+        for (int offset = QuoteTableLayout.SEQ + 8; offset < QuoteTableLayout.SLOT_SIZE; offset += 8) {
+            buffer.putLong(base + offset, 0L);
+        }
+        QuoteTableLayout.LONG.setRelease(buffer, base + QuoteTableLayout.SEQ, odd + 1);
+    }
+
+    private void end(int base) {
+        long seq = (long) QuoteTableLayout.LONG.get(buffer, base + QuoteTableLayout.SEQ);
+        QuoteTableLayout.LONG.setRelease(buffer, base + QuoteTableLayout.SEQ, seq + 1);
+    }
+
+    private void putSymbol(int base, String symbol) {
+        byte[] bytes = symbol != null ? symbol.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+        int length = Math.min(bytes.length, QuoteTableLayout.MAX_SYMBOL_LENGTH);
+        buffer.put(base + QuoteTableLayout.SYMBOL_LENGTH, (byte) length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(base + QuoteTableLayout.SYMBOL + i, bytes[i]);
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public int slotCount() {
+        return slotCount;
+    }
+
+    public int usedSlots() {
+        return usedSlots;
+    }
+
+    /**
+     * 关闭文件通道；映射在缓冲区被回收前仍然有效，文件本身保留给读端
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
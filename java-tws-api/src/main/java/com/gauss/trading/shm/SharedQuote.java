@@ -0,0 +1,39 @@
+package com.gauss.trading.shm;
+
+/**
+ * 从共享内存报价表读出的一条报价
+ *
+ * 可变对象，读端循环读取时复用同一个实例以避免分配
+ */
+public class SharedQuote {
+    public int slot;
+    public int instrumentId;
+    public long conId;
+    public String symbol;
+    public int changedMask;
+    public long version;
+    public long timestamp;
+    public double lastPrice;
+    public double bid;
+    public double ask;
+    public int bidSize;
+    public int askSize;
+    public long volume;
+
+    @Override
+    public String toString() {
+        return "SharedQuote{" +
+            "slot=" + slot +
+            ", instrumentId=" + instrumentId +
+            ", symbol='" + symbol + '\'' +
+            ", version=" + version +
+            ", lastPrice=" + lastPrice +
+            ", bid=" + bid +
+            ", ask=" + ask +
+            ", bidSize=" + bidSize +
+            ", askSize=" + askSize +
+            ", volume=" + volume +
+            ", timestamp=" + timestamp +
+            '}';
+    }
+}
@@ -139,6 +139,8 @@ export const LiveDataIndicator: React.FC<LiveDataIndicatorProps> = ({
       ws.onopen = () => {
         console.log('WebSocket连接已建立');
         setIsConnected(true);
+        // 服务端只推送已订阅的合约
+        ws.send(JSON.stringify({ type: 'subscribe', symbol }));
       };
       ws.onclose = () => {
         console.log('WebSocket连接已关闭');
@@ -148,6 +148,8 @@ export const TradingViewChart: React.FC<TradingViewChartProps> = ({
       ws.onmessage = handleWebSocketMessage;
       ws.onopen = () => {
         console.log('TradingView图表WebSocket连接已建立');
+        // 服务端只推送已订阅的合约
+        ws.send(JSON.stringify({ type: 'subscribe', symbol }));
       };
       ws.onclose = () => {
         console.log('TradingView图表WebSocket连接已关闭');
@@ -484,6 +484,8 @@ export const useRealTimeData = () => {
         ws.onopen = () => {
           console.log('WebSocket连接已建立');
           setTwsConnected(true);
+          // 服务端只推送已订阅的合约
+          ws.send(JSON.stringify({ type: 'subscribe', symbol: selectedCrypto.symbol }));
         };
         
         ws.onmessage = (event) => {